@@ -46,7 +46,7 @@ public class SparkGISBMIHeatMap
 	/* Set default values */
 	String jobID = null;
 	Predicate predicate = Predicate.INTERSECTS;
-	HMType hmType = HMType.JACCARD;
+	List<HMType> hmTypes = new ArrayList<HMType>();
 	PartitionMethod partitionMethod = PartitionMethod.FIXED_GRID_HM;
 	int partitionSize = 32;
 	/******************************************************/
@@ -55,9 +55,10 @@ public class SparkGISBMIHeatMap
 	options.addOption("u", "uid", true, "32-bit unique ID");
 	options.addOption("a", "algos", true, "Comma separated list of algorithms [yi-algorithm-v1 | yi-algorithm-v11]");
 	options.addOption("c", "caseids", true, "Comma separated list of caseIDs");
-	options.addOption("m", "metric", true, "Metric type [jaccard|dice|tile_dice] Default:jaccard");
-	options.addOption("p", "partitioner", true, "Distributed partitioner [fixed_grid|step] Default:fixed_grid");
-	options.addOption("s", "tilesize", true, "Partition tile size Default: 32 would create 1024 tiles");
+	options.addOption("m", "metric", true, "Comma separated list of metric types [jaccard|dice|tile_dice|all] Default:jaccard");
+	options.addOption("p", "partitioner", true, "Distributed partitioner [fixed_grid_hm|fixed_grid|quad_tree|sort_tile_recursive|hilbert_curve|binary_space|strip] Default:fixed_grid_hm");
+	options.addOption("s", "tilesize", true, "Partition tile size Default: 32 would create 1024 tiles (objects per tile for data driven partitioners)");
+	options.addOption("d", "distributions", false, "Also write per tile Jaccard/Dice histograms and unmatched object counts");
 	HelpFormatter formatter = new HelpFormatter();
 
 	try{
@@ -74,10 +75,24 @@ public class SparkGISBMIHeatMap
 	    /* List of caseIDs */
 	    final String caseIDcsv = getOption('c', commandLine);
 	    /* Heatmap metric type */
+	    /* multiple metrics are computed by a single join */
 	    if (commandLine.hasOption('m')){
-		String mType = commandLine.getOptionValue('m');
-		if(mType.equalsIgnoreCase("dice")) hmType = HMType.DICE;
-		else if(mType.equalsIgnoreCase("tile_dice")) hmType = HMType.TILEDICE;
+		for (String mType : commandLine.getOptionValue('m').split(",")){
+		    List<HMType> types = Arrays.asList(HMType.JACCARD);
+		    if (mType.equalsIgnoreCase("all")) types = Arrays.asList(HMType.values());
+		    else if(mType.equalsIgnoreCase("dice")) types = Arrays.asList(HMType.DICE);
+		    else if(mType.equalsIgnoreCase("tile_dice")) types = Arrays.asList(HMType.TILEDICE);
+		    for (HMType t : types){
+			if (!hmTypes.contains(t))
+			    hmTypes.add(t);
+		    }
+		}
+	    }
+	    if (hmTypes.isEmpty())
+		hmTypes.add(HMType.JACCARD);
+	    /* Partitioner */
+	    if (commandLine.hasOption('p')){
+		partitionMethod = PartitionMethod.valueOf(commandLine.getOptionValue('p').toUpperCase());
 	    }
 	    /* Partition size */
 	    final String pSize = getOption('s', commandLine);
@@ -97,7 +112,9 @@ public class SparkGISBMIHeatMap
 	    for (String algo:algos)
 		System.out.println("\t" + algo);
 	    System.out.println("Predicate:\t" + predicate.value);
-	    System.out.println("Metric Type:\t" + hmType.value);
+	    for (HMType hmType:hmTypes)
+		System.out.println("Metric Type:\t" + hmType.value);
+	    System.out.println("Partitioner:\t" + partitionMethod);
 	    System.out.println("Partition size:\t" + partitionSize);
 
 	    
@@ -115,13 +132,16 @@ public class SparkGISBMIHeatMap
 		setDelimiter("\t").
 		setSpatialObjectIndex(1).
 		setPartitionSize(partitionSize).
-		setPartitionMethod(partitionMethod);
+		setPartitionMethod(partitionMethod).
+		/* strips span whole y range: sweep along y instead of per tile R-tree */
+		setPlaneSweep(partitionMethod == PartitionMethod.STRIP).
+		setTileDistributions(commandLine.hasOption('d'));
 
 	    /* Initialize SparkGISContext */
 	    SparkGISContext spgc = new SparkGISContext(conf, spgConf);
 	    
 	    /* Execute job */
-	    String res = HeatMap.execute(spgc, algos, caseIDs, predicate, hmType);
+	    String res = HeatMap.execute(spgc, algos, caseIDs, predicate, hmTypes);
 	    System.out.println("HeatMap results stored at: " + res);
 
 	    spgc.stop();
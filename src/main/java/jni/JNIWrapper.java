@@ -1,8 +1,15 @@
 package jni;
 import java.util.List;
 import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
-public class JNIWrapper {    
+public class JNIWrapper {
+    /**
+     * Number of values per resulting pair of numeric results (double[]):
+     * objectID-1, objectID-2, area-1, area-2, intersection-area, JaccardIndex, DiceIndex
+     */
+    public static final int RESULT_FIELDS = 7;
+    
     
     // Join Map
     // public static native String[] partitionMapperJoin(
@@ -12,53 +19,153 @@ public class JNIWrapper {
     // 						      );
     
     /**
-     * Called for native spatial join calculation
-     * Contains additional statistics like jaccard and dice indices for intersecting 
-     * objects in result. These statistics can be used for heatmap computations.
-     * NOTE: Tile-Dice statistics not included in result becasue tile-dice cannot be
-     *       computed object wise. Instead it has to be calculated per tile.
-     *       Use 'resqueTileDice' for tile-dice computaion instead
-     * Corresponding c++ function calls in JNI and their functionalities are as follows
-     *       gis.cpp             Java_jni_JNIWrapper_resque()
-     *             - For all objects in this tile (data), resq.populate() is called
-     *             - Performs the actual join operation using resq.join_bucket()
+     * Create native join context to be reused by all tiles of a task
+     * (see sparkgis.core.BatchedJoin)
+     * Parser, geometry factories and scratch containers are created once
+     * @return Context handle, MUST be released with resqueRelease
+     */
+    public static native long resqueCreate(int predicate, int geomID1, int geomID2);
+    /**
+     * Create native multi-way join context to be reused by all tiles of a task
+     * (see sparkgis.core.SparkMultiSpatialJoin and resqueSPJMultiContext)
+     * @param geomIDs Geometry field of each dataset, geomIDs[k] for set ID k+1
+     * @return Context handle, MUST be released with resqueRelease
+     */
+    public static native long resqueCreateMulti(int predicate, int[] geomIDs);
+    /**
+     * Release native join context created by resqueCreate or resqueCreateMulti
+     */
+    public static native void resqueRelease(long context);
+    /**
+     * If tileDice, following joins of context also compute tile dice of their tile
+     * (see resqueTileDiceContext). Setting is kept for all following tiles
+     */
+    public static native void resqueSetTileDice(long context, boolean tileDice);
+    /**
+     * @return Tile dice of last tile joined by context, -1 if not computed
+     * or either dataset of tile is empty
+     */
+    public static native double resqueGetTileDice(long context);
+    /**
+     * If matchedFlags, following joins of context flag each object refined into a pair.
+     * With reference point duplicate avoidance, pairs owned by another tile are refined
+     * (but not reported) as long as they may flag an unmatched object.
+     * Setting is kept for all following tiles
+     */
+    public static native void resqueSetMatchedFlags(long context, boolean matchedFlags);
+    /**
+     * Copy matched flags of last tile joined by context (see resqueSetMatchedFlags)
+     * @param matched Flag per object ID of tile, objects without any pair are left false.
+     *                Multi-way context: matched.length/pairs flags per pair of sets
+     *                (pairs s1 < s2 in order of s1, then s2)
+     */
+    public static native void resqueGetMatchedFlags(long context, boolean[] matched);
+    /**
+     * Tile dice of one tile: dice of union of all objects of set 1 and union of
+     * all objects of set 2. Unlike Jaccard and Dice, it can not be computed object wise.
+     * Objects are only parsed, no pair is refined
+     *       include/bucket.hpp   get_bucket_level_dice()
+     * @param data Objects of tile in same format as resqueSPJContext
+     * @return Tile dice, -1 if either dataset of tile is empty
+     */
+    public static native double resqueTileDiceContext(long context, String[] data);
+    /**
+     * Same as resqueTileDiceContext for packed records (see resqueSPJPackedContext)
+     */
+    public static native double resqueTileDicePackedContext(long context, ByteBuffer records, int length);
+    /**
+     * Spatial join of one tile using given native context. Predicate and geomIDs
+     * are those of context, state of previous tile is cleared
      *       native/resque.cpp   populate()
-     *             - Extracts geometries from input string and stores two seperate 
-     *               lists of geometries belonging to algorithm-1 and algorithm-2 respectively
-     *       native/resque.cpp   join_bucket()
-     *             - Performs the actual join operation on the two sets of geometries for this tile
-     *             - Returns list of hits i.e. objects fulfilling join criteria
-     *             - Also appends statistics (Jaccard, Dice) to the results
-     *       include/statistics.h
-     *             - Jaccard can Dice calculation
-     *
-     * @param data      All spatial objects belonging to this tile
-     *                  String: tile-id TAB algo-id TAB geometry-information
-     * @param predicate Spatial join predicate such as intersects, within etc. Defined in sparkgis.enums.Predicate.java
-     * @param geomID1   Geometry index of algorithm-1 in input string
-     * @param geomID2   Geometry index of algorithm-2 in input string
-     * @return Spatial join results based on predicate
-     *         String: Object-1 TAB Object-2 TAB JaccardIndex TAB DiceIndex
+     *             - Extracts geometries from input strings into two lists of
+     *               geometries belonging to dataset-1 and dataset-2 respectively
+     *       native/resque.cpp   join_bucket_spjoin() OR join_bucket_spjoin_sweep()
+     *             - Joins both lists by R-tree on dataset-2 (or plane-sweep along y axis)
+     *               and computes Jaccard and Dice of resulting pairs
+     * @param data All spatial objects of tile
+     *             String: tile-id TAB join-idx TAB set-number TAB id TAB geometry
+     * @param planeSweep If true, join by plane-sweep instead of R-tree (e.g. STRIP partitioning)
+     * @param refPoint If true, a pair is reported only if lower-left corner of
+     *                 intersection of MBBs lies in [minX, maxX) x [minY, maxY) i.e. the
+     *                 region owned by this tile (other pairs are refined only for matched flags)
+     * @return RESULT_FIELDS values per resulting pair. Object IDs are positions in data
      */
-    public static // synchronized
-	native String[] resqueSPJ(
-			       String[] data, 
-			       int predicate, 
-			       int geomID1, 
-			       int geomID2
-			       );
+    public static native double[] resqueSPJContext(
+						   long context,
+						   String[] data,
+						   boolean planeSweep,
+						   boolean refPoint,
+						   double minX,
+						   double minY,
+						   double maxX,
+						   double maxY
+						   );
+    /**
+     * Zero-copy alternative to resqueSPJContext
+     * Input is read in place from a direct buffer of packed records (no String
+     * conversion, tokenizing or w.k.t parsing) and results are returned as
+     * packed numbers
+     *       native/resque.cpp   populate_packed()
+     * @param records Direct buffer of records, see sparkgis.data.PackedRecords
+     * @param length Number of bytes used by records
+     * @return RESULT_FIELDS values per resulting pair. Object IDs are those of records
+     */
+    public static native double[] resqueSPJPackedContext(
+							 long context,
+							 ByteBuffer records,
+							 int length,
+							 boolean planeSweep,
+							 boolean refPoint,
+							 double minX,
+							 double minY,
+							 double maxX,
+							 double maxY
+							 );
+    /**
+     * Spatial join of one tile whose geometries of both datasets are given in
+     * well known binary, parsed natively without any String round-trip
+     *       native/resque.cpp   populate_wkb()
+     * As for string input, data1 is joined as set 2 i.e. pairs are refined as data2 <pred> data1
+     * @param context Context created by resqueCreate (geomIDs are not used)
+     * @param refPoint If true, use reference point duplicate avoidance (see resqueSPJContext)
+     * @return RESULT_FIELDS values per resulting pair. Object IDs are positions in
+     *         data1 followed by data2 i.e. data1.length + position for data2
+     */
+    public static native double[] resqueSPJBinaryContext(
+							 long context,
+							 byte[][] data1,
+							 byte[][] data2,
+							 boolean planeSweep,
+							 boolean refPoint,
+							 double minX,
+							 double minY,
+							 double maxX,
+							 double maxY
+							 );
     /**
-     * Called for heatmap calculation involving tile-dice
-     * Tile-Dice: For all object in given tile, calculate
-     *            (intersection_area/union_area) 
-     * Unlike Jaccard and Dice, all calculation done natively by RESQUE
+     * Multi-way spatial join of all pairs of N datasets within one tile
+     * Input lines have set ID (1..N) in place of join index:
+     *  tileID TAB setID TAB setID TAB id TAB spatialObject
+     *       native/resque.cpp   join_bucket_spjoin_multi()
+     *             - Each set is parsed once and indexed (or sorted for plane-sweep)
+     *               once, then reused for all pairs it takes part in
+     * @param context Context created by resqueCreateMulti
+     * @param refPoint If true, report only pairs whose reference point lies in
+     *                 [minX, maxX) x [minY, maxY) (see resqueSPJContext)
+     * @return RESULT_FIELDS+2 values per resulting pair: setID-1, setID-2 (setID-1 > setID-2,
+     *         refined as setID-1 <pred> setID-2 like a pairwise join) followed by result
+     *         values (see RESULT_FIELDS). Object IDs are positions in data
      */
-    public native double resqueTileDice(
-					String[] data, 
-					int predicate, 
-					int geomID1, 
-					int geomID2
-					);
+    public static native double[] resqueSPJMultiContext(
+							long context,
+							String[] data,
+							boolean planeSweep,
+							boolean refPoint,
+							double minX,
+							double minY,
+							double maxX,
+							double maxY
+							);
 
     public static // synchronized
 	native String[] resqueKNN(
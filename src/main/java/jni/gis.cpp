@@ -1,69 +1,125 @@
 #include <iostream>
+#include <sstream>
 #include <jni.h>
 #include "jni_JNIWrapper.h"
 #include "include/resque.hpp"
 
 using namespace std;
 
+/*
+ * Copy of a java string
+ * UTF chars must be released, otherwise every call leaks a copy of input
+ */
+static string copy_jstring(JNIEnv *env, jstring j_str)
+{
+  const char *utf = env->GetStringUTFChars(j_str, NULL);
+  string c_str(utf);
+  env->ReleaseStringUTFChars(j_str, utf);
+  return c_str;
+}
+
+/*
+ * Copy numeric results (see Resque::emit_result) to a new double[]
+ */
+static jdoubleArray to_jdouble_array(JNIEnv *env, const vector<double> & results)
+{
+  jdoubleArray out = env->NewDoubleArray(results.size());
+  if (!results.empty())
+    env->SetDoubleArrayRegion(out, 0, results.size(), &results[0]);
+  return out;
+}
+
 /* RESQUE JNI INTERFACE */
-JNIEXPORT jobjectArray JNICALL Java_jni_JNIWrapper_resqueSPJ
-(JNIEnv *env, jclass c, jobjectArray data, jint predicate, jint geomid1, jint geomid2)
+/*
+ * Copy matched flags of last join of resq to Java array
+ */
+static void copy_matched_flags(JNIEnv *env, Resque & resq, jbooleanArray matched)
+{
+  jboolean *flags = env->GetBooleanArrayElements(matched, NULL);
+  resq.copy_matched_flags(flags, env->GetArrayLength(matched));
+  env->ReleaseBooleanArrayElements(matched, flags, 0);
+}
+
+/*
+ * Native multi-way context: one Resque object for all pairs of N datasets,
+ * reused by all tiles of a task. Context must be released with resqueRelease
+ */
+JNIEXPORT jlong JNICALL Java_jni_JNIWrapper_resqueCreateMulti
+(JNIEnv *env, jclass c, jint predicate, jintArray geomids)
+{
+  /* geometry field of each dataset */
+  int sets = env->GetArrayLength(geomids);
+  jint *c_geomids = env->GetIntArrayElements(geomids, NULL);
+  vector<int> geomid_vec(c_geomids, c_geomids + sets);
+  env->ReleaseIntArrayElements(geomids, c_geomids, JNI_ABORT);
+  /* initialize resque to handle multi-way spatial join query */
+  Resque *resq = new Resque(predicate, geomid_vec);
+  return (jlong) resq;
+}
+
+JNIEXPORT jdoubleArray JNICALL Java_jni_JNIWrapper_resqueSPJMultiContext
+(JNIEnv *env, jclass c, jlong context, jobjectArray data, jboolean plane_sweep,
+ jboolean ref_point, jdouble min_x, jdouble min_y, jdouble max_x, jdouble max_y)
 {
+  Resque *resq = (Resque *) context;
+  /* clear state of previous tile */
+  resq->reset();
+  resq->set_numeric_results(true);
+  if (ref_point)
+    resq->set_reference_region(min_x, min_y, max_x, max_y);
+  /* populate all datasets */
   int size = env->GetArrayLength(data);
-  /* initialize resque to handle spatial join query */
-  Resque resq(predicate, geomid1, geomid2);
-  /* populate datasets for join */
   for (int i=0; i<size; ++i){
-    /* creating a new jstring here */
     jstring j_str = (jstring) env->GetObjectArrayElement(data, i);
-    /* make a copy of the string for further c/c++ processing */
-    string c_str = env->GetStringUTFChars(j_str, NULL);
-    resq.populate(c_str);
-    /* 
-     * free memory to assist garbage collection by jvm 
-     * since new jstring created in loop, it should also be released in the loop 
-     */
+    resq->populate(copy_jstring(env, j_str));
     env->DeleteLocalRef(j_str);
   }
 
-  /* data results for this tile */
-  vector<string> hits = resq.join_bucket_spjoin();
-  size = hits.size();
-
-  /* return as String[] back to Java */
-  jclass clazz = env->FindClass("java/lang/String");
-  jobjectArray objarray = env->NewObjectArray(size ,clazz ,0);
-  
-  for(int i = 0; i < size; i++) {
-    string s = hits[i]; 
-    jstring js = (env)->NewStringUTF(s.c_str());
-    (env)->SetObjectArrayElement(objarray , i , js);
-  }
-  return objarray;
+  /* results of all pairs for this tile */
+  resq->join_bucket_spjoin_multi(plane_sweep);
+  return to_jdouble_array(env, resq->get_numeric_results());
 }
 
-JNIEXPORT jdouble JNICALL Java_jni_JNIWrapper_resqueTileDice
-(JNIEnv *env, jobject c, jobjectArray data, jint predicate, jint geomid1, jint geomid2)
+/*
+ * Populate w.k.b geometries (byte[][]) of one dataset
+ * Object id is its position in the tile (offset + position in the array)
+ */
+static void populate_binary(JNIEnv *env, Resque & resq, jobjectArray data, int sid, int offset)
 {
   int size = env->GetArrayLength(data);
-  /* initialize resque */
-  Resque resq(predicate, geomid1, geomid2);
-  /* populate datasets for join */
   for (int i=0; i<size; ++i){
-    
-    jstring j_str = (jstring) env->GetObjectArrayElement(data, i);
-    string c_str = env->GetStringUTFChars(j_str, NULL);
-    resq.populate(c_str);
-    /* free memory to assist garbage collection by jvm */
-    env->DeleteLocalRef(j_str);
+    jbyteArray j_arr = (jbyteArray) env->GetObjectArrayElement(data, i);
+    jsize len = env->GetArrayLength(j_arr);
+    jbyte *bytes = env->GetByteArrayElements(j_arr, NULL);
+    resq.populate_wkb(sid, (const char *)bytes, len, offset + i);
+    /* read only, no need to copy back */
+    env->ReleaseByteArrayElements(j_arr, bytes, JNI_ABORT);
+    env->DeleteLocalRef(j_arr);
   }
-  
-  double tile_dice_result = resq.tile_dice();
-  return tile_dice_result;
+}
+
+JNIEXPORT jdoubleArray JNICALL Java_jni_JNIWrapper_resqueSPJBinaryContext
+(JNIEnv *env, jclass c, jlong context, jobjectArray data1, jobjectArray data2,
+ jboolean plane_sweep, jboolean ref_point, jdouble min_x, jdouble min_y, jdouble max_x, jdouble max_y)
+{
+  Resque *resq = (Resque *) context;
+  /* clear state of previous tile */
+  resq->reset();
+  resq->set_numeric_results(true);
+  if (ref_point)
+    resq->set_reference_region(min_x, min_y, max_x, max_y);
+  /*
+   * populate datasets for join, objects of data2 follow objects of data1
+   * as in string input, data1 is joined as set 2 and vice versa i.e. data2 <pred> data1
+   */
+  populate_binary(env, *resq, data1, SID_2, 0);
+  populate_binary(env, *resq, data2, SID_1, env->GetArrayLength(data1));
 
-  //string tile_dice_result = resq.tile_dice();
-  //jstring js = (env)->NewStringUTF(tile_dice_result.c_str());
-  //return js;
+  if (plane_sweep)
+    resq->join_bucket_spjoin_sweep();
+  else
+    resq->join_bucket_spjoin();
+  return to_jdouble_array(env, resq->get_numeric_results());
 }
 
 JNIEXPORT jobjectArray JNICALL Java_jni_JNIWrapper_resqueKNN
@@ -76,7 +132,7 @@ JNIEXPORT jobjectArray JNICALL Java_jni_JNIWrapper_resqueKNN
   for (int i=0; i<size; ++i){
     
     jstring j_str = (jstring) env->GetObjectArrayElement(data, i);
-    string c_str = env->GetStringUTFChars(j_str, NULL);
+    string c_str = copy_jstring(env, j_str);
     resq.populate(c_str);
     /* free memory to assist garbage collection by jvm */
     env->DeleteLocalRef(j_str);
@@ -100,6 +156,132 @@ JNIEXPORT jobjectArray JNICALL Java_jni_JNIWrapper_resqueKNN
   return objarray;
 }
 
+/*
+ * Native context: one Resque object reused by all tiles of a task
+ * Parser, geometry factories and containers are created once per task instead of
+ * once per tile. Context must be released with resqueRelease
+ */
+JNIEXPORT jlong JNICALL Java_jni_JNIWrapper_resqueCreate
+(JNIEnv *env, jclass c, jint predicate, jint geomid1, jint geomid2)
+{
+  Resque *resq = new Resque(predicate, geomid1, geomid2);
+  return (jlong) resq;
+}
+
+JNIEXPORT void JNICALL Java_jni_JNIWrapper_resqueRelease
+(JNIEnv *env, jclass c, jlong context)
+{
+  Resque *resq = (Resque *) context;
+  delete resq;
+}
+
+JNIEXPORT void JNICALL Java_jni_JNIWrapper_resqueSetTileDice
+(JNIEnv *env, jclass c, jlong context, jboolean tile_dice)
+{
+  Resque *resq = (Resque *) context;
+  resq->set_tile_dice(tile_dice);
+}
+
+JNIEXPORT jdouble JNICALL Java_jni_JNIWrapper_resqueGetTileDice
+(JNIEnv *env, jclass c, jlong context)
+{
+  Resque *resq = (Resque *) context;
+  return resq->get_tile_dice();
+}
+
+JNIEXPORT void JNICALL Java_jni_JNIWrapper_resqueSetMatchedFlags
+(JNIEnv *env, jclass c, jlong context, jboolean enabled)
+{
+  Resque *resq = (Resque *) context;
+  resq->set_matched_flags(enabled);
+}
+
+JNIEXPORT void JNICALL Java_jni_JNIWrapper_resqueGetMatchedFlags
+(JNIEnv *env, jclass c, jlong context, jbooleanArray matched)
+{
+  Resque *resq = (Resque *) context;
+  copy_matched_flags(env, *resq, matched);
+}
+
+JNIEXPORT jdoubleArray JNICALL Java_jni_JNIWrapper_resqueSPJContext
+(JNIEnv *env, jclass c, jlong context, jobjectArray data, jboolean plane_sweep,
+ jboolean ref_point, jdouble min_x, jdouble min_y, jdouble max_x, jdouble max_y)
+{
+  Resque *resq = (Resque *) context;
+  /* clear state of previous tile */
+  resq->reset();
+  resq->set_numeric_results(true);
+  if (ref_point)
+    resq->set_reference_region(min_x, min_y, max_x, max_y);
+  int size = env->GetArrayLength(data);
+  for (int i=0; i<size; ++i){
+    jstring j_str = (jstring) env->GetObjectArrayElement(data, i);
+    resq->populate(copy_jstring(env, j_str));
+    env->DeleteLocalRef(j_str);
+  }
+
+  if (plane_sweep)
+    resq->join_bucket_spjoin_sweep();
+  else
+    resq->join_bucket_spjoin();
+  return to_jdouble_array(env, resq->get_numeric_results());
+}
+
+JNIEXPORT jdoubleArray JNICALL Java_jni_JNIWrapper_resqueSPJPackedContext
+(JNIEnv *env, jclass c, jlong context, jobject records, jint length, jboolean plane_sweep,
+ jboolean ref_point, jdouble min_x, jdouble min_y, jdouble max_x, jdouble max_y)
+{
+  Resque *resq = (Resque *) context;
+  /* clear state of previous tile */
+  resq->reset();
+  if (ref_point)
+    resq->set_reference_region(min_x, min_y, max_x, max_y);
+  const char *buf = (const char *) env->GetDirectBufferAddress(records);
+  if (buf != NULL)
+    resq->populate_packed(buf, length);
+
+  if (plane_sweep)
+    resq->join_bucket_spjoin_sweep();
+  else
+    resq->join_bucket_spjoin();
+
+  return to_jdouble_array(env, resq->get_numeric_results());
+}
+
+JNIEXPORT jdouble JNICALL Java_jni_JNIWrapper_resqueTileDiceContext
+(JNIEnv *env, jclass c, jlong context, jobjectArray data)
+{
+  Resque *resq = (Resque *) context;
+  /* clear state of previous tile */
+  resq->reset();
+  /* no pair is reported: raw input lines are not kept */
+  resq->set_numeric_results(true);
+  int size = env->GetArrayLength(data);
+  for (int i=0; i<size; ++i){
+    jstring j_str = (jstring) env->GetObjectArrayElement(data, i);
+    resq->populate(copy_jstring(env, j_str));
+    env->DeleteLocalRef(j_str);
+  }
+  double tile_dice_result = resq->tile_dice();
+  /* no join releases shapes: free them now instead of at next tile */
+  resq->reset();
+  return tile_dice_result;
+}
+
+JNIEXPORT jdouble JNICALL Java_jni_JNIWrapper_resqueTileDicePackedContext
+(JNIEnv *env, jclass c, jlong context, jobject records, jint length)
+{
+  Resque *resq = (Resque *) context;
+  /* clear state of previous tile */
+  resq->reset();
+  const char *buf = (const char *) env->GetDirectBufferAddress(records);
+  if (buf != NULL)
+    resq->populate_packed(buf, length);
+  double tile_dice_result = resq->tile_dice();
+  resq->reset();
+  return tile_dice_result;
+}
+
 namespace Util{
   void tokenize (const string& str,
   		 vector<string>& result,
@@ -57,6 +57,25 @@ public:
     
   }
 
+  /*
+   * Overloaded constructor for bucket with a single dataset
+   * e.g. to index one dataset of a multi-way join once
+   */
+  Bucket(std::vector<Geometry*> &polys)
+  {
+    spidx = NULL;
+    storage = NULL;
+
+    selfjoin = false;
+    idx1 = SID_1;
+    idx2 = SID_1;
+
+    poly_set_one = polys;
+
+    len1 = polys.size();
+    len2 = 0;
+  }
+
   /*
    * Return all spatial objects belonging to given dataset
    */
@@ -93,33 +112,33 @@ public:
    * Compute bucket level similarity coefficient
    * Simple Jaccard and Dice are calculated per pair
    * This function calculates Dice similarity coefficient for whole bucket
+   * i.e. of union of all objects of dataset 1 and union of all objects of dataset 2
+   * Returns -1 if either dataset is empty or coefficient can not be computed
    */
   double get_bucket_level_dice(){
     if (len1 <= 0 || len2 <= 0)
       return -1;
 
-    Geometry* temp_polygon;
-    Geometry* big_polygon1 = poly_set_one[0]->clone();
-    Geometry* big_polygon2 = poly_set_two[0]->clone();
-    
-    for (size_t i=1; i<len1; ++i){
-      temp_polygon = big_polygon1->Union(poly_set_one[0]);
-      delete big_polygon1;
-      big_polygon1 = temp_polygon;
-    }
-    for (size_t i=1; i<len2; ++i){
-      temp_polygon = big_polygon2->Union(poly_set_two[0]);
-      delete big_polygon2;
-      big_polygon2 = temp_polygon;
-    }
-
-    double big_union_area = big_polygon1->Union(big_polygon2)->getArea();
-    double big_intersection_area = big_polygon1->intersection(big_polygon2)->getArea();
-
+    Geometry* big_polygon1 = NULL;
+    Geometry* big_polygon2 = NULL;
     double dice = -1;
-    if (big_union_area){
-      double j = big_intersection_area/big_union_area;
-      dice = 2.0*j/(1.0+j);
+    try {
+      big_polygon1 = union_all(poly_set_one, len1);
+      big_polygon2 = union_all(poly_set_two, len2);
+
+      Geometry* big_intersection = big_polygon1->intersection(big_polygon2);
+      double big_intersection_area = big_intersection->getArea();
+      delete big_intersection;
+
+      /* area of union is area1 + area2 - intersection, no overlay required */
+      double area_sum = big_polygon1->getArea() + big_polygon2->getArea();
+      if (area_sum > 0)
+	dice = 2.0*big_intersection_area/area_sum;
+    }
+    catch (std::exception &e) {
+      /* e.g. topology exception on invalid input */
+      std::cerr << e.what() << endl;
+      dice = -1;
     }
 
     delete big_polygon1;
@@ -134,6 +153,19 @@ public:
   }
   
 private:
+  /*
+   * Union of first len objects of poly_set, caller owns returned geometry
+   */
+  Geometry* union_all(std::vector<Geometry*> & poly_set, size_t len){
+    Geometry* big_polygon = poly_set[0]->clone();
+    for (size_t i=1; i<len; ++i){
+      Geometry* temp_polygon = big_polygon->Union(poly_set[i]);
+      delete big_polygon;
+      big_polygon = temp_polygon;
+    }
+    return big_polygon;
+  }
+
   /* 
    * Create an R-Tree index on given set of polygons
    */
@@ -4,6 +4,7 @@
 /* geos */
 #include <geos/io/WKTReader.h>
 #include <geos/io/WKTWriter.h>
+#include <geos/io/WKBReader.h>
 /* for kNN */
 #include <geos/operation/distance/DistanceOp.h>
 
@@ -20,9 +21,23 @@ class Resque{
 public:
   Resque(int predicate, int geomid1, int geomid2);
   Resque(int predicate, int k, int geomid1, int geomid2);
+  Resque(int predicate, const vector<int> & geomids);
   // Refer to JNIWrapper.java for documentation of following functions
   void populate(string input_line); 
+  void populate_wkb(int sid, const char * wkb, size_t len, int oid);
+  void populate_packed(const char * buf, size_t len);
+  void set_numeric_results(bool numeric);
+  const vector<double> & get_numeric_results();
+  void set_tile_dice(bool tile_dice);
+  double get_tile_dice();
+  void set_matched_flags(bool enabled);
+  void copy_matched_flags(unsigned char * flags, int len);
+  void set_tile_id(const string & id);
+  void reset();
   vector<string> join_bucket_spjoin();
+  vector<string> join_bucket_spjoin_sweep();
+  vector<string> join_bucket_spjoin_multi(bool plane_sweep);
+  void set_reference_region(double min_x, double min_y, double max_x, double max_y);
   vector<string> join_bucket_knn();
   double tile_dice();
   
@@ -62,11 +77,44 @@ private:
   map<int, vector<string> > rawdata;
   
   WKTReader *wkt_reader;
+  /* created on first w.k.b input */
+  GeometryFactory *wkb_factory = NULL;
+  WKBReader *wkb_reader = NULL;
+
+  /* packed input: geometries built from coordinates */
+  GeometryFactory *packed_factory = NULL;
+  /* numeric results: pairs reported as numbers instead of strings, see emit_result() */
+  bool numeric = false;
+  /* object ID (input position) of each geometry, input position of next object */
+  map<int, vector<int> > object_ids;
+  int input_count = 0;
+  vector<double> numeric_results;
+
+  /* tile dice: computed by 2-way join before shapes are released (kept by reset()) */
+  bool tile_dice_enabled = false;
+  double last_tile_dice = -1;
   
+  /*
+   * matched flags: objects refined into a pair (including pairs owned by another tile)
+   * per pair of datasets (slot), indexed by object ID (kept enabled by reset())
+   */
+  bool matched_enabled = false;
+  map<int, vector<bool> > matched;
+
+  /* reference point duplicate avoidance: region owned by this tile */
+  bool refpoint = false;
+  double ref_region[4];
+
+  /* multi-way join: geometry field of each dataset (set IDs 1..n) */
+  bool multiway = false;
+  vector<int> multi_shape_idx;
+
   bool appendstats = false;
   bool appendTileID = false;
 
   string report_result(int i, int j);
+  string report_pair(int sid1, int sid2, int i, int j);
+  void emit_result(int sid1, int sid2, int i, int j, vector<string> & ret);
   void release_shape_mem(const int k);
   void set_projection_param(char * arg);
   string project( vector<string> & fields, int sid);  
@@ -74,6 +122,19 @@ private:
   void populate_polygon(Geometry *poly, int sid, vector<string> fields);
   
 
+  /* spatial join helper functions: refine pairs of datasets sid1 and sid2 */
+  void spjoin_rtree(int sid1, int sid2, ISpatialIndex * spidx, bool selfjoin, vector<string> & ret);
+  void spjoin_sweep(int sid1, int sid2, const vector<size_t> & order1, const vector<size_t> & order2,
+		    bool selfjoin, vector<string> & ret);
+
+  /* duplicate avoidance helper function: pair is reported by this tile only */
+  bool owns_pair(const Envelope * env1, const Envelope * env2);
+
+  /* matched flags helper functions */
+  int matched_slot(int sid1, int sid2);
+  bool flags_pending(int sid1, int sid2, int i, int j);
+  void flag_matched(int sid1, int sid2, int i, int j);
+
   /* nearest neighbor helper function: update nearest neighbor values */
   void update_nn(int object_id, double distance);
   
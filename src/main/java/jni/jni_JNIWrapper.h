@@ -9,19 +9,107 @@ extern "C" {
 #endif
 /*
  * Class:     jni_JNIWrapper
- * Method:    resqueSPJ
- * Signature: ([Ljava/lang/String;III)[Ljava/lang/String;
+ * Method:    resqueCreateMulti
+ * Signature: (I[I)J
  */
-JNIEXPORT jobjectArray JNICALL Java_jni_JNIWrapper_resqueSPJ
-  (JNIEnv *, jclass, jobjectArray, jint, jint, jint);
+JNIEXPORT jlong JNICALL Java_jni_JNIWrapper_resqueCreateMulti
+  (JNIEnv *, jclass, jint, jintArray);
 
 /*
  * Class:     jni_JNIWrapper
- * Method:    resqueTileDice
- * Signature: ([Ljava/lang/String;III)D
+ * Method:    resqueSPJMultiContext
+ * Signature: (J[Ljava/lang/String;ZZDDDD)[D
  */
-JNIEXPORT jdouble JNICALL Java_jni_JNIWrapper_resqueTileDice
-  (JNIEnv *, jobject, jobjectArray, jint, jint, jint);
+JNIEXPORT jdoubleArray JNICALL Java_jni_JNIWrapper_resqueSPJMultiContext
+  (JNIEnv *, jclass, jlong, jobjectArray, jboolean, jboolean, jdouble, jdouble, jdouble, jdouble);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueSPJBinaryContext
+ * Signature: (J[[B[[BZZDDDD)[D
+ */
+JNIEXPORT jdoubleArray JNICALL Java_jni_JNIWrapper_resqueSPJBinaryContext
+  (JNIEnv *, jclass, jlong, jobjectArray, jobjectArray, jboolean, jboolean, jdouble, jdouble, jdouble, jdouble);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueCreate
+ * Signature: (III)J
+ */
+JNIEXPORT jlong JNICALL Java_jni_JNIWrapper_resqueCreate
+  (JNIEnv *, jclass, jint, jint, jint);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueRelease
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_jni_JNIWrapper_resqueRelease
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueSetTileDice
+ * Signature: (JZ)V
+ */
+JNIEXPORT void JNICALL Java_jni_JNIWrapper_resqueSetTileDice
+  (JNIEnv *, jclass, jlong, jboolean);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueGetTileDice
+ * Signature: (J)D
+ */
+JNIEXPORT jdouble JNICALL Java_jni_JNIWrapper_resqueGetTileDice
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueSetMatchedFlags
+ * Signature: (JZ)V
+ */
+JNIEXPORT void JNICALL Java_jni_JNIWrapper_resqueSetMatchedFlags
+  (JNIEnv *, jclass, jlong, jboolean);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueGetMatchedFlags
+ * Signature: (J[Z)V
+ */
+JNIEXPORT void JNICALL Java_jni_JNIWrapper_resqueGetMatchedFlags
+  (JNIEnv *, jclass, jlong, jbooleanArray);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueSPJContext
+ * Signature: (J[Ljava/lang/String;ZZDDDD)[D
+ */
+JNIEXPORT jdoubleArray JNICALL Java_jni_JNIWrapper_resqueSPJContext
+  (JNIEnv *, jclass, jlong, jobjectArray, jboolean, jboolean, jdouble, jdouble, jdouble, jdouble);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueSPJPackedContext
+ * Signature: (JLjava/nio/ByteBuffer;IZZDDDD)[D
+ */
+JNIEXPORT jdoubleArray JNICALL Java_jni_JNIWrapper_resqueSPJPackedContext
+  (JNIEnv *, jclass, jlong, jobject, jint, jboolean, jboolean, jdouble, jdouble, jdouble, jdouble);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueTileDiceContext
+ * Signature: (J[Ljava/lang/String;)D
+ */
+JNIEXPORT jdouble JNICALL Java_jni_JNIWrapper_resqueTileDiceContext
+  (JNIEnv *, jclass, jlong, jobjectArray);
+
+/*
+ * Class:     jni_JNIWrapper
+ * Method:    resqueTileDicePackedContext
+ * Signature: (JLjava/nio/ByteBuffer;I)D
+ */
+JNIEXPORT jdouble JNICALL Java_jni_JNIWrapper_resqueTileDicePackedContext
+  (JNIEnv *, jclass, jlong, jobject, jint);
 
 /*
  * Class:     jni_JNIWrapper
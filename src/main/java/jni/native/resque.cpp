@@ -1,9 +1,16 @@
 #include <iostream>
+#include <algorithm>
+#include <sstream>
+#include <cstring>
 /* geos */
 #include <geos/opBuffer.h>
 #include <geos/geom/Point.h>
 #include <geos/geom/PrecisionModel.h>
 #include <geos/geom/GeometryFactory.h>
+#include <geos/geom/CoordinateSequenceFactory.h>
+#include <geos/geom/LinearRing.h>
+#include <geos/geom/Polygon.h>
+#include <geos/geom/MultiPolygon.h>
 /* local */
 #include "../include/resque.hpp"
 
@@ -23,6 +30,7 @@ void Resque::release_shape_mem(const int k ){
 
       polydata[delete_index].clear();
       rawdata[delete_index].clear();
+      object_ids[delete_index].clear();
     }
 }
 
@@ -102,11 +110,17 @@ bool Resque::join_with_predicate(const Geometry * geom1,
     b_tmp.spj.area1 = geom1->getArea();
     b_tmp.spj.area2 = geom2->getArea();
 
-    b_tmp.spj.union_area = geom1->Union(geom2)->getArea();
-    b_tmp.spj.intersection_area = geom1->intersection(geom2)->getArea();
-
-    b_tmp.spj.dice = 2*b_tmp.spj.intersection_area/(b_tmp.spj.area1 + b_tmp.spj.area1);
-    if (b_tmp.spj.union_area)
+    Geometry *intersection = geom1->intersection(geom2);
+    b_tmp.spj.intersection_area = intersection->getArea();
+    delete intersection;
+    /* union area of polygonal geometries, no overlay required */
+    b_tmp.spj.union_area = b_tmp.spj.area1 + b_tmp.spj.area2 - b_tmp.spj.intersection_area;
+
+    b_tmp.spj.dice = 0;
+    if (b_tmp.spj.area1 + b_tmp.spj.area2 > 0)
+      b_tmp.spj.dice = 2*b_tmp.spj.intersection_area/(b_tmp.spj.area1 + b_tmp.spj.area2);
+    b_tmp.spj.jaccard = 0;
+    if (b_tmp.spj.union_area > 0)
       b_tmp.spj.jaccard = b_tmp.spj.intersection_area/b_tmp.spj.union_area;
 
   }
@@ -117,6 +131,32 @@ bool Resque::join_with_predicate(const Geometry * geom1,
   return flag;
 }
 
+/*
+ * Reference point duplicate avoidance
+ * Objects are replicated to all tiles their MBBs overlap, hence a pair may be
+ * found in several tiles. It is refined and reported only by the tile whose
+ * region [min, max) contains the lower-left corner of MBB intersection
+ */
+void Resque::set_reference_region(double min_x, double min_y, double max_x, double max_y){
+  refpoint = true;
+  ref_region[0] = min_x;
+  ref_region[1] = min_y;
+  ref_region[2] = max_x;
+  ref_region[3] = max_y;
+}
+
+bool Resque::owns_pair(const Envelope * env1, const Envelope * env2){
+  /*
+   * corner is only known to be in both objects' tiles if MBBs intersect
+   * callers do not request reference point for DWITHIN (Predicate.isReferencePointSafe)
+   */
+  if (!refpoint || st_op.join_predicate == ST_DWITHIN)
+    return true;
+  const double x = max(env1->getMinX(), env2->getMinX());
+  const double y = max(env1->getMinY(), env2->getMinY());
+  return x >= ref_region[0] && x < ref_region[2] && y >= ref_region[1] && y < ref_region[3];
+}
+
 /*
  * Filter selected fields for output
  * If there is no field selected, output all fields (except tileid and joinid)
@@ -234,6 +274,143 @@ string Resque::report_result( int i , int j)
   return ss.str();
 }
 
+/*
+ * Report result of pair (i from dataset sid1, j from dataset sid2)
+ * Multi-way join results are prefixed by pair of set IDs, remaining
+ * fields are same as report_result()
+ */
+string Resque::report_pair(int sid1, int sid2, int i, int j)
+{
+  if (!multiway)
+    return report_result(i, j);
+  stringstream ss;
+  ss << sid1 << TAB << sid2 << SEP;
+  ss << rawdata[sid1][i] << SEP << rawdata[sid2][j];
+  if (appendstats) {
+    ss << SEP << b_tmp.spj.area1 << TAB << b_tmp.spj.area2;
+    ss << TAB << b_tmp.spj.jaccard << TAB << b_tmp.spj.dice;
+  }
+  if (appendTileID) {
+    ss << TAB << tile_id << endl;
+  }
+  ss << endl;
+  return ss.str();
+}
+
+/*
+ * Collect result of a pair either as numbers or as string (see report_pair)
+ * Numeric result: object ID 1, object ID 2, area 1, area 2, intersection area,
+ * jaccard, dice (multi-way results are prefixed by set IDs)
+ * Object IDs are input positions of objects within bucket
+ */
+void Resque::emit_result(int sid1, int sid2, int i, int j, vector<string> & ret)
+{
+  if (numeric){
+    if (multiway){
+      numeric_results.push_back(sid1);
+      numeric_results.push_back(sid2);
+    }
+    numeric_results.push_back(object_ids[sid1][i]);
+    numeric_results.push_back(object_ids[sid2][j]);
+    numeric_results.push_back(b_tmp.spj.area1);
+    numeric_results.push_back(b_tmp.spj.area2);
+    numeric_results.push_back(b_tmp.spj.intersection_area);
+    numeric_results.push_back(b_tmp.spj.jaccard);
+    numeric_results.push_back(b_tmp.spj.dice);
+    return;
+  }
+  ret.push_back(report_pair(sid1, sid2, i, j));
+}
+
+void Resque::set_numeric_results(bool numeric)
+{
+  this->numeric = numeric;
+}
+
+const vector<double> & Resque::get_numeric_results()
+{
+  return numeric_results;
+}
+
+/*
+ * If enabled, following 2-way joins also compute tile dice of their bucket
+ */
+void Resque::set_tile_dice(bool tile_dice)
+{
+  tile_dice_enabled = tile_dice;
+}
+
+/*
+ * Tile dice of last joined bucket, -1 if not computed (see Bucket::get_bucket_level_dice())
+ */
+double Resque::get_tile_dice()
+{
+  return last_tile_dice;
+}
+
+/*
+ * If enabled, following joins flag every object refined into a pair, including
+ * pairs skipped by reference point duplicate avoidance (unmatched objects of tile)
+ */
+void Resque::set_matched_flags(bool enabled)
+{
+  matched_enabled = enabled;
+}
+
+/*
+ * Copy matched flags of last join: len/pairs flags per pair of datasets (in
+ * order of join_bucket_spjoin_multi(), single pair for 2-way joins) indexed by object ID
+ */
+void Resque::copy_matched_flags(unsigned char * flags, int len)
+{
+  const int n = multi_shape_idx.size();
+  const int pairs = multiway ? n*(n-1)/2 : 1;
+  const int per_pair = (pairs > 0) ? len / pairs : 0;
+  for (map<int, vector<bool> >::iterator it = matched.begin(); it != matched.end(); ++it){
+    const vector<bool> & f = it->second;
+    for (int oid = 0; oid < (int)f.size() && oid < per_pair; ++oid)
+      flags[it->first * per_pair + oid] = f[oid] ? 1 : 0;
+  }
+}
+
+/*
+ * Slot of pair of datasets: pairs (a, b) with a < b in order of a, then b
+ */
+int Resque::matched_slot(int sid1, int sid2)
+{
+  if (!multiway)
+    return 0;
+  const int a = min(sid1, sid2);
+  const int b = max(sid1, sid2);
+  const int n = multi_shape_idx.size();
+  return (a-1)*n - (a-1)*a/2 + (b-a-1);
+}
+
+/*
+ * Pair owned by another tile is refined only if it may flag an unmatched object
+ */
+bool Resque::flags_pending(int sid1, int sid2, int i, int j)
+{
+  if (!matched_enabled)
+    return false;
+  const vector<bool> & f = matched[matched_slot(sid1, sid2)];
+  const int oid1 = object_ids[sid1][i];
+  const int oid2 = object_ids[sid2][j];
+  return oid1 >= (int)f.size() || !f[oid1] || oid2 >= (int)f.size() || !f[oid2];
+}
+
+void Resque::flag_matched(int sid1, int sid2, int i, int j)
+{
+  if (!matched_enabled)
+    return;
+  vector<bool> & f = matched[matched_slot(sid1, sid2)];
+  const int oid = max(object_ids[sid1][i], object_ids[sid2][j]);
+  if (oid >= (int)f.size())
+    f.resize(oid + 1, false);
+  f[object_ids[sid1][i]] = true;
+  f[object_ids[sid2][j]] = true;
+}
+
 /*
  * Perform tile level dice similarity coeffcient value
  */
@@ -439,11 +616,69 @@ vector<string> Resque::join_bucket_knn()
   return b.ret_vec;
 }
 
+/*
+ * Probe R-tree index (spidx) of dataset sid2 with every object of dataset sid1
+ * and refine pairs whose MBBs overlap
+ */
+void Resque::spjoin_rtree(int sid1, int sid2, ISpatialIndex * spidx, bool selfjoin, vector<string> & ret)
+{
+  std::vector<Geometry*>  & poly_set_one = polydata[sid1];
+  std::vector<Geometry*>  & poly_set_two = polydata[sid2];
+
+  for (size_t i = 0; i < poly_set_one.size(); i++) {
+    /* extract MBB */
+    const Geometry* geom1 = poly_set_one[i];
+    const Envelope * env1 = geom1->getEnvelopeInternal();
+
+    b_tmp.low[0] = env1->getMinX();
+    b_tmp.low[1] = env1->getMinY();
+    b_tmp.high[0] = env1->getMaxX();
+    b_tmp.high[1] = env1->getMaxY();
+    /* Handle the buffer expansion for R-tree */
+    if (st_op.join_predicate == ST_DWITHIN) {
+      b_tmp.low[0] -= st_op.expansion_distance;
+      b_tmp.low[1] -= st_op.expansion_distance;
+      b_tmp.high[0] += st_op.expansion_distance;
+      b_tmp.high[1] += st_op.expansion_distance;
+    }
+    /* Regular handling */
+    Region r(b_tmp.low, b_tmp.high, 2);
+    MyVisitor vis;
+    vis.clear_hits();
+    /* get a list of Polygon MBBs intersecting with current polygon MBB */
+    spidx->intersectsWithQuery(r, vis);
+
+    vector<id_type> hits = vis.get_hits();
+
+    for (size_t j = 0 ; j < hits.size(); j++ ){
+      /* skip results seen before */
+      if (hits[j] == i && selfjoin) {
+	continue;
+      }
+      const Geometry* geom2 = poly_set_two[hits[j]];
+      const Envelope * env2 = geom2->getEnvelopeInternal();
+      
+      /* pair is handled by another tile (unless it is needed for matched flags) */
+      const bool owned = owns_pair(env1, env2);
+      if (!owned && !flags_pending(sid1, sid2, i, hits[j]))
+	continue;
+      /* Perform actual spatial join only for polygons whose MBBs overlap */
+      if (join_with_predicate(geom1, geom2, env1, env2, st_op.join_predicate))  {
+	flag_matched(sid1, sid2, i, hits[j]);
+	/* create a vector of strings to return */
+	if (owned)
+	  emit_result(sid1, sid2, i, hits[j], ret);
+      }
+    }
+  }
+}
+
 vector<string> Resque::join_bucket_spjoin()
 {
   Bucket b(st_op, polydata);
   /* reset all temp values */
   b_tmp = {};
+  last_tile_dice = tile_dice_enabled ? b.get_bucket_level_dice() : -1;
   /* either of the dataset is empty */
   if (b.len1 <= 0 || b.len2 <= 0) {
     return vector<string>();
@@ -452,63 +687,184 @@ vector<string> Resque::join_bucket_spjoin()
   /* for each tile (key) in the input stream */
   try {
 
-    std::vector<Geometry*>  & poly_set_one = b.get_dataset(b.idx1);
-    std::vector<Geometry*>  & poly_set_two = b.get_dataset(b.idx2);
     /* build index on dataset 2 */
     if (!b.build_rtree_index(2))
       throw std::runtime_error("[resque.cpp] Error building index");
 
-    for (size_t i = 0; i < b.len1; i++) {
-      /* extract MBB */
-      const Geometry* geom1 = poly_set_one[i];
-      const Envelope * env1 = geom1->getEnvelopeInternal();
-
-      b_tmp.low[0] = env1->getMinX();
-      b_tmp.low[1] = env1->getMinY();
-      b_tmp.high[0] = env1->getMaxX();
-      b_tmp.high[1] = env1->getMaxY();
-      /* Handle the buffer expansion for R-tree */
-      if (st_op.join_predicate == ST_DWITHIN) {
-	b_tmp.low[0] -= st_op.expansion_distance;
-	b_tmp.low[1] -= st_op.expansion_distance;
-	b_tmp.high[0] += st_op.expansion_distance;
-	b_tmp.high[1] += st_op.expansion_distance;
-      }
-      /* Regular handling */
-      Region r(b_tmp.low, b_tmp.high, 2);
-      MyVisitor vis;
-      vis.clear_hits();
-      /* get a list of Polygon MBBs intersecting with current polygon MBB */
-      b.spidx->intersectsWithQuery(r, vis);
+    spjoin_rtree(b.idx1, b.idx2, b.spidx, b.selfjoin, b.ret_vec);
+  } /* end of try */
+  catch (Tools::Exception& e) {
+    cout << "******ERROR******" << endl;
+    std::cerr << e.what() << endl;
+  } /* end of catch */
+  /* free memory */
+  release_shape_mem(st_op.join_cardinality);
+  /* return results */
+  return b.ret_vec;
+}
 
-      vector<id_type> hits = vis.get_hits();
+/*
+ * Order object indexes by minimum y of their MBBs
+ */
+struct MinYComparator{
+  std::vector<Geometry*> & geoms;
+  MinYComparator(std::vector<Geometry*> & g) : geoms(g) {}
+  bool operator()(size_t a, size_t b) const {
+    return geoms[a]->getEnvelopeInternal()->getMinY() <
+      geoms[b]->getEnvelopeInternal()->getMinY();
+  }
+};
+
+static vector<size_t> sort_by_min_y(std::vector<Geometry*> & geoms, size_t len){
+  vector<size_t> order(len);
+  for (size_t i=0; i<len; ++i)
+    order[i] = i;
+  std::sort(order.begin(), order.end(), MinYComparator(geoms));
+  return order;
+}
 
-      for (size_t j = 0 ; j < hits.size(); j++ ){
-	/* skip results seen before */
-	if (hits[j] == i && b.selfjoin) {
+/*
+ * Sweep datasets sid1 and sid2 (given in order of minimum y of their MBBs)
+ * along y axis and refine pairs whose MBBs overlap
+ */
+void Resque::spjoin_sweep(int sid1, int sid2, const vector<size_t> & order1, const vector<size_t> & order2,
+			  bool selfjoin, vector<string> & ret)
+{
+  std::vector<Geometry*>  & poly_set_one = polydata[sid1];
+  std::vector<Geometry*>  & poly_set_two = polydata[sid2];
+  /* MBB expansion for ST_DWITHIN, 0 otherwise */
+  const double d = (st_op.join_predicate == ST_DWITHIN) ? st_op.expansion_distance : 0;
+
+  const size_t len1 = order1.size();
+  const size_t len2 = order2.size();
+  size_t i = 0, j = 0;
+  while (i < len1 && j < len2){
+    const Geometry* geom1 = poly_set_one[order1[i]];
+    const Geometry* geom2 = poly_set_two[order2[j]];
+    const Envelope * env1 = geom1->getEnvelopeInternal();
+    const Envelope * env2 = geom2->getEnvelopeInternal();
+
+    if (env1->getMinY() - d <= env2->getMinY()){
+      /* geom1 starts first: scan dataset 2 forward while it overlaps geom1 in y */
+      for (size_t k = j; k < len2; ++k){
+	const Geometry* g2 = poly_set_two[order2[k]];
+	const Envelope * e2 = g2->getEnvelopeInternal();
+	if (e2->getMinY() > env1->getMaxY() + d)
+	  break;
+	if (e2->getMaxX() < env1->getMinX() - d || e2->getMinX() > env1->getMaxX() + d)
+	  continue;
+	if (selfjoin && order1[i] == order2[k])
 	  continue;
+	const bool owned = owns_pair(env1, e2);
+	if (!owned && !flags_pending(sid1, sid2, order1[i], order2[k]))
+	  continue;
+	if (join_with_predicate(geom1, g2, env1, e2, st_op.join_predicate)){
+	  flag_matched(sid1, sid2, order1[i], order2[k]);
+	  if (owned)
+	    emit_result(sid1, sid2, order1[i], order2[k], ret);
 	}
-	const Geometry* geom2 = poly_set_two[hits[j]];
-	const Envelope * env2 = geom2->getEnvelopeInternal();
-	
-	/* Perform actual spatial join only for polygons whose MBBs overlap */
-	if (join_with_predicate(geom1, geom2, env1, env2, st_op.join_predicate))  {
-	  /* create a vector of strings to return */
-	  b.ret_vec.push_back(report_result(i,hits[j]));
+      }
+      ++i;
+    }
+    else{
+      /* geom2 starts first: scan dataset 1 forward while it overlaps geom2 in y */
+      for (size_t k = i; k < len1; ++k){
+	const Geometry* g1 = poly_set_one[order1[k]];
+	const Envelope * e1 = g1->getEnvelopeInternal();
+	if (e1->getMinY() - d > env2->getMaxY())
+	  break;
+	if (env2->getMaxX() < e1->getMinX() - d || env2->getMinX() > e1->getMaxX() + d)
+	  continue;
+	if (selfjoin && order1[k] == order2[j])
+	  continue;
+	const bool owned = owns_pair(e1, env2);
+	if (!owned && !flags_pending(sid1, sid2, order1[k], order2[j]))
+	  continue;
+	if (join_with_predicate(g1, geom2, e1, env2, st_op.join_predicate)){
+	  flag_matched(sid1, sid2, order1[k], order2[j]);
+	  if (owned)
+	    emit_result(sid1, sid2, order1[k], order2[j], ret);
 	}
       }
+      ++j;
     }
-  } /* end of try */
-  catch (Tools::Exception& e) {
-    cout << "******ERROR******" << endl;
-    std::cerr << e.what() << endl;
-  } /* end of catch */
+  }
+}
+
+/*
+ * Spatial join by plane-sweep along y axis
+ * Alternative to join_bucket_spjoin() which builds an R-tree on dataset 2 for
+ * every bucket. Both datasets are sorted by minimum y of their MBBs and swept
+ * together; pairs whose MBBs overlap (in x and y) are refined with join_with_predicate().
+ * Suited for strips i.e. buckets spanning whole y range of space
+ */
+vector<string> Resque::join_bucket_spjoin_sweep()
+{
+  Bucket b(st_op, polydata);
+  /* reset all temp values */
+  b_tmp = {};
+  last_tile_dice = tile_dice_enabled ? b.get_bucket_level_dice() : -1;
+  /* either of the dataset is empty */
+  if (b.len1 <= 0 || b.len2 <= 0) {
+    return vector<string>();
+  }
+
+  vector<size_t> order1 = sort_by_min_y(polydata[b.idx1], b.len1);
+  vector<size_t> order2 = sort_by_min_y(polydata[b.idx2], b.len2);
+  spjoin_sweep(b.idx1, b.idx2, order1, order2, b.selfjoin, b.ret_vec);
   /* free memory */
   release_shape_mem(st_op.join_cardinality);
   /* return results */
   return b.ret_vec;
 }
 
+/*
+ * Multi-way spatial join of all pairs of datasets (set IDs 1..n) in this bucket
+ * Each dataset is parsed once and indexed (R-tree) or sorted (plane-sweep) once,
+ * then reused by all pairs it takes part in. Pair (s1, s2) with s1 < s2 is refined
+ * as s2 <pred> s1, same as a pairwise join of (s1, s2) which joins its first dataset
+ * as set 2. Objects of s2 probe index of s1, hence index of dataset n is never built.
+ * Results of a pair are reported with set ID s2 first
+ */
+vector<string> Resque::join_bucket_spjoin_multi(bool plane_sweep)
+{
+  vector<string> ret;
+  /* reset all temp values */
+  b_tmp = {};
+  const int n = multi_shape_idx.size();
+
+  if (plane_sweep){
+    map<int, vector<size_t> > orders;
+    for (int s = 1; s <= n; ++s)
+      orders[s] = sort_by_min_y(polydata[s], polydata[s].size());
+    for (int s1 = 1; s1 <= n; ++s1){
+      for (int s2 = s1+1; s2 <= n; ++s2)
+	spjoin_sweep(s2, s1, orders[s2], orders[s1], false, ret);
+    }
+  }
+  else{
+    try {
+      for (int s1 = 1; s1 < n; ++s1){
+	if (polydata[s1].empty())
+	  continue;
+	Bucket index(polydata[s1]);
+	if (!index.build_rtree_index(1))
+	  throw std::runtime_error("[resque.cpp] Error building index");
+	for (int s2 = s1+1; s2 <= n; ++s2)
+	  spjoin_rtree(s2, s1, index.spidx, false, ret);
+      }
+    } /* end of try */
+    catch (Tools::Exception& e) {
+      cout << "******ERROR******" << endl;
+      std::cerr << e.what() << endl;
+    } /* end of catch */
+  }
+  /* free memory */
+  release_shape_mem(n);
+  /* return results */
+  return ret;
+}
+
 /*
  * Populate spatial data in bucket
  * Takes in raw string spatial data and converts that to local
@@ -523,15 +879,26 @@ void Resque::populate(string input_line)
   Geometry *poly = NULL;
   int index = -1;
 
+  /* input position, counted for skipped objects as well */
+  const int oid = input_count++;
   Util::tokenize(input_line, fields, TAB, true);
   sid = atoi(fields[1].c_str());
   tile_id = fields[0];
 
-  if (sid != SID_1 && sid != SID_2){
-    cout << "wrong sid : " << sid << endl;
-    return;
+  if (multiway){
+    if (sid < 1 || sid > (int)multi_shape_idx.size()){
+      cout << "wrong sid : " << sid << endl;
+      return;
+    }
+    index = multi_shape_idx[sid-1];
+  }
+  else{
+    if (sid != SID_1 && sid != SID_2){
+      cout << "wrong sid : " << sid << endl;
+      return;
+    }
+    index = st_op.shape_idx[sid-1];
   }
-  index = st_op.shape_idx[sid-1];
 
   // switch(sid){
   // case SID_1:
@@ -558,6 +925,15 @@ void Resque::populate(string input_line)
   }
   /* populate the bucket for join */
   polydata[sid].push_back(poly);
+  object_ids[sid].push_back(oid);
+  /* raw fields (incl. coordinates) are copied only for string results */
+  if (numeric)
+    return;
+  if (multiway){
+    /* no projection: output all fields */
+    rawdata[sid].push_back(project(fields,SID_1));
+    return;
+  }
   switch(sid){
   case SID_1:
     rawdata[sid].push_back(project(fields,SID_1));
@@ -571,6 +947,148 @@ void Resque::populate(string input_line)
   }
 }
 
+/*
+ * Populate binary (w.k.b) spatial data in bucket
+ * Unlike populate(), geometry is parsed directly from bytes without any
+ * string fields; id is reported in place of raw data of object
+ */
+void Resque::populate_wkb(int sid, const char * wkb, size_t len, int oid)
+{
+  if (sid != SID_1 && sid != SID_2){
+    cout << "wrong sid : " << sid << endl;
+    return;
+  }
+  if (wkb_reader == NULL){
+    wkb_factory = new GeometryFactory(new PrecisionModel(),OSM_SRID);
+    wkb_reader = new WKBReader(*wkb_factory);
+  }
+  Geometry *poly = NULL;
+  try {
+    std::istringstream is(std::string(wkb, len));
+    poly = wkb_reader->read(is);
+  }
+  catch (...) {
+    cout << "******Geometry Parsing Error****** (wkb) " << oid << endl;
+    return;
+  }
+  /* populate the bucket for join */
+  polydata[sid].push_back(poly);
+  object_ids[sid].push_back(oid);
+  if (numeric)
+    return;
+  stringstream id;
+  id << oid;
+  rawdata[sid].push_back(id.str());
+}
+
+/* read value of type T at pos of (possibly unaligned) packed buffer */
+template <typename T>
+static T read_packed(const char * buf, size_t & pos)
+{
+  T value;
+  memcpy(&value, buf + pos, sizeof(T));
+  pos += sizeof(T);
+  return value;
+}
+
+/*
+ * Populate spatial data from packed records (see PackedRecords.java)
+ * Record: int setID, int objectID, int polygons,
+ *         per polygon: int rings, per ring: int points, points*(double x, double y)
+ * Geometry is built directly from coordinates, there is no text to tokenize or parse
+ */
+void Resque::populate_packed(const char * buf, size_t len)
+{
+  /* there are no raw strings to report */
+  numeric = true;
+  if (packed_factory == NULL)
+    packed_factory = new GeometryFactory(new PrecisionModel(),OSM_SRID);
+  const CoordinateSequenceFactory * csf = packed_factory->getCoordinateSequenceFactory();
+
+  size_t pos = 0;
+  while (pos + 3*sizeof(int) <= len){
+    const int sid = read_packed<int>(buf, pos);
+    const int oid = read_packed<int>(buf, pos);
+    const int polygons = read_packed<int>(buf, pos);
+    /* read whole record first so that a bad geometry does not break the stream */
+    vector<vector<vector<Coordinate> > > parts(polygons);
+    for (int p = 0; p < polygons; ++p){
+      const int rings = read_packed<int>(buf, pos);
+      parts[p].resize(rings);
+      for (int r = 0; r < rings; ++r){
+	const int points = read_packed<int>(buf, pos);
+	parts[p][r].reserve(points);
+	for (int k = 0; k < points; ++k){
+	  const double x = read_packed<double>(buf, pos);
+	  const double y = read_packed<double>(buf, pos);
+	  parts[p][r].push_back(Coordinate(x, y));
+	}
+      }
+    }
+    if ((sid != SID_1 && sid != SID_2) || polygons == 0)
+      continue;
+
+    Geometry *poly = NULL;
+    try {
+      vector<Geometry*> *polys = new vector<Geometry*>();
+      for (int p = 0; p < polygons; ++p){
+	if (parts[p].empty())
+	  continue;
+	LinearRing *shell = packed_factory->createLinearRing(
+	  csf->create(new vector<Coordinate>(parts[p][0]), 2));
+	vector<Geometry*> *holes = new vector<Geometry*>();
+	for (size_t r = 1; r < parts[p].size(); ++r)
+	  holes->push_back(packed_factory->createLinearRing(
+	    csf->create(new vector<Coordinate>(parts[p][r]), 2)));
+	polys->push_back(packed_factory->createPolygon(shell, holes));
+      }
+      if (polys->size() == 1){
+	poly = (*polys)[0];
+	delete polys;
+      }
+      else
+	poly = packed_factory->createMultiPolygon(polys);
+    }
+    catch (...) {
+      cout << "******Geometry Parsing Error****** (packed) " << oid << endl;
+      continue;
+    }
+    /* populate the bucket for join */
+    polydata[sid].push_back(poly);
+    object_ids[sid].push_back(oid);
+  }
+}
+
+void Resque::set_tile_id(const string & id)
+{
+  tile_id = id;
+}
+
+/*
+ * Clear all per bucket state so that this object can be reused for next bucket
+ * Parser, factories and allocated capacity of containers are kept
+ * Shapes are normally released by join, but not if a join returns early
+ */
+void Resque::reset()
+{
+  for (map<int, vector<Geometry*> >::iterator it = polydata.begin(); it != polydata.end(); ++it){
+    for (size_t i = 0; i < it->second.size(); ++i)
+      delete it->second[i];
+    it->second.clear();
+  }
+  for (map<int, vector<string> >::iterator it = rawdata.begin(); it != rawdata.end(); ++it)
+    it->second.clear();
+  for (map<int, vector<int> >::iterator it = object_ids.begin(); it != object_ids.end(); ++it)
+    it->second.clear();
+  numeric_results.clear();
+  matched.clear();
+  numeric = false;
+  last_tile_dice = -1;
+  input_count = 0;
+  refpoint = false;
+  tile_id = "";
+}
+
 void Resque::init_query_op(int predicate, int geomid1, int geomid2){
   /* initlize query operator */
   st_op = {};
@@ -624,6 +1142,25 @@ Resque::Resque(int predicate, int geomid1, int geomid2){
 
 }
 
+/*
+ * Constructor for multi-way spatial join
+ * geomids: geometry field of each dataset, dataset k (1..n) has set ID k
+ */
+Resque::Resque(int predicate, const vector<int> & geomids){
+
+  init_query_op(predicate, geomids[0], geomids[geomids.size() > 1 ? 1 : 0]);
+  multiway = true;
+  for (size_t k = 0; k < geomids.size(); ++k)
+    multi_shape_idx.push_back(geomids[k] + 2);
+  wkt_reader = new WKTReader(new GeometryFactory(new PrecisionModel(),OSM_SRID));
+
+  // print all parametes
+  set_projection_param("");
+  appendstats = true;
+  appendTileID = true;
+
+}
+
 /*
  * Constructor for kNN
  */
@@ -645,4 +1182,7 @@ Resque::Resque(int predicate, int k, int geomid1, int geomid2){
 Resque::~Resque(){
   /* garbage collection */
   delete wkt_reader;
+  delete wkb_reader;
+  delete wkb_factory;
+  delete packed_factory;
 }
@@ -4,14 +4,22 @@ import sparkgis.data.Tile;
 //import sparkgis.data.Polygon;
 import sparkgis.data.TileStats;
 import sparkgis.data.DataConfig;
+import sparkgis.data.JoinResult;
+import sparkgis.data.TileAggregate;
+import sparkgis.data.TileDistribution;
+import sparkgis.data.SpatialObject;
 //import sparkgis.io.mongodb.ReadMongoSplit;
 //import sparkgis.io.hdfs.HDFSDataAccess;
 //import sparkgis.io.mongodb.MongoDBDataAccess;
 import sparkgis.pia.Coefficient;
 import sparkgis.pia.SparkSpatialJoinHMBinary;
 import sparkgis.core.SparkSpatialJoin;
+import sparkgis.core.SparkMultiSpatialJoin;
 import sparkgis.core.partitioning.Partitioner;
+import sparkgis.core.partitioning.HilbertCurve;
+import sparkgis.core.partitioning.SpatialTilePartitioner;
 import sparkgis.core.spatialindex.IndexedGeometry;
+import sparkgis.core.spatialindex.PackedTileIndex;
 import sparkgis.core.spatialindex.SparkSpatialIndex;
 /* Kryo Serializer */
 import org.apache.spark.serializer.KryoRegistrator;
@@ -27,12 +35,19 @@ public class KryoClassRegistrator implements KryoRegistrator{
 	//kryo.register(Polygon.class, new FieldSerializer(kryo, Polygon.class));
 	kryo.register(TileStats.class, new FieldSerializer(kryo, TileStats.class));
 	kryo.register(DataConfig.class, new FieldSerializer(kryo, DataConfig.class));
+	kryo.register(SpatialObject.class, new FieldSerializer(kryo, SpatialObject.class));
+	kryo.register(JoinResult.class, new FieldSerializer(kryo, JoinResult.class));
+	kryo.register(TileAggregate.class, new FieldSerializer(kryo, TileAggregate.class));
+	kryo.register(TileDistribution.class, new FieldSerializer(kryo, TileDistribution.class));
 	// sparkgis.executionlayer.*
 	kryo.register(Partitioner.class, new FieldSerializer(kryo, Partitioner.class));
+	kryo.register(HilbertCurve.class, new FieldSerializer(kryo, HilbertCurve.class));
+	kryo.register(SpatialTilePartitioner.class, new FieldSerializer(kryo, SpatialTilePartitioner.class));
 	kryo.register(Coefficient.class, new FieldSerializer(kryo, Coefficient.class));
 	//kryo.register(SparkPrepareData.class, new FieldSerializer(kryo, SparkPrepareData.class));
 	//kryo.register(SparkSpatialJoinHM.class, new FieldSerializer(kryo, SparkSpatialJoinHM.class));
 	kryo.register(SparkSpatialJoin.class, new FieldSerializer(kryo, SparkSpatialJoin.class));
+	kryo.register(SparkMultiSpatialJoin.class, new FieldSerializer(kryo, SparkMultiSpatialJoin.class));
 	kryo.register(SparkSpatialJoinHMBinary.class, new FieldSerializer(kryo, SparkSpatialJoinHMBinary.class));
 	// sparkgis.io.*
 	//kryo.register(ReadMongoSplit.class, new FieldSerializer(kryo, ReadMongoSplit.class));
@@ -40,6 +55,7 @@ public class KryoClassRegistrator implements KryoRegistrator{
 	//kryo.register(MongoDBDataAccess.class, new FieldSerializer(kryo, MongoDBDataAccess.class));
 	// sparkgis.executionlayer.sparkspatialindex.*
 	kryo.register(IndexedGeometry.class, new FieldSerializer(kryo, IndexedGeometry.class));
+	kryo.register(PackedTileIndex.class, new FieldSerializer(kryo, PackedTileIndex.class));
 	kryo.register(SparkSpatialIndex.class, new FieldSerializer(kryo, SparkSpatialIndex.class));	   
 
     }
@@ -13,6 +13,7 @@ public class SparkGISConfig
     public static String hdfsNameNodeIP;
     public static String hdfsAlgoData; // OPTIONAL
     public static String hdfsHMResults; // OPTIONAL
+    public static String hdfsPreparedData; // OPTIONAL
     // MongoDB configurations
     // public static String mongoHost;
     // public static int mongoPort;
@@ -37,6 +38,7 @@ public class SparkGISConfig
 	    hdfsNameNodeIP = prop.getProperty("hdfs-name-node-ip");
 	    hdfsAlgoData = prop.getProperty("hdfs-algo-data");
 	    hdfsHMResults = prop.getProperty("hdfs-hm-results");
+	    hdfsPreparedData = prop.getProperty("hdfs-prepared-data");
 	    // // MongoDB configurations
 	    // mongoHost = prop.getProperty("mongo-host");
 	    // mongoPort = Integer.parseInt(prop.getProperty("mongo-port"));
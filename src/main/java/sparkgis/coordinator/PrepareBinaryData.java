@@ -1,6 +1,7 @@
 package sparkgis.coordinator;
 /* Java imports */
 import java.util.List;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.io.Serializable;
 import java.util.concurrent.Future;
@@ -53,6 +54,10 @@ public class PrepareBinaryData implements Serializable{
 			}catch(Exception e){e.printStackTrace();}
 			return null;
 		    }
+		})
+	    .filter(new Function<byte[], Boolean>(){
+		    /* drop geometries that could not be parsed */
+		    public Boolean call(byte[] b) {return (b != null);}
 		});
     }
     
@@ -66,6 +71,14 @@ public class PrepareBinaryData implements Serializable{
      * concurrently. 
      */
     public List<BinaryDataConfig> prepareBinaryData(List<String> dataPaths){
+	return prepareBinaryData(dataPaths, null);
+    }
+
+    /**
+     * @param preparedPaths Prepared dataset paths corresponding to dataPaths (see PreparedDataset)
+     * OR null. Existing prepared datasets are loaded directly, missing ones are created
+     */
+    public List<BinaryDataConfig> prepareBinaryData(List<String> dataPaths, List<String> preparedPaths){
 	final int datasetCount = dataPaths.size();
 	List<BinaryDataConfig> configs = new ArrayList<BinaryDataConfig>(datasetCount);
 	List<Future<BinaryDataConfig>> futures = new ArrayList<Future<BinaryDataConfig>>(datasetCount);
@@ -73,7 +86,8 @@ public class PrepareBinaryData implements Serializable{
 	final ExecutorService exeServ = Executors.newFixedThreadPool(datasetCount);
 	
 	for (int i=0; i<datasetCount; ++i){
-	    futures.add(exeServ.submit(new AsyncPrepareBinaryData(dataPaths.get(i))));
+	    final String preparedPath = (preparedPaths == null) ? null : preparedPaths.get(i);
+	    futures.add(exeServ.submit(new AsyncPrepareBinaryData(dataPaths.get(i), preparedPath)));
 	}
 	/* wait for all configurations to get complete */
 	try{
@@ -90,12 +104,26 @@ public class PrepareBinaryData implements Serializable{
      */
     private class AsyncPrepareBinaryData implements Callable<BinaryDataConfig>{
         private final String dataPath;	
-    	public AsyncPrepareBinaryData(String dataPath){
+        private final String preparedPath;
+    	public AsyncPrepareBinaryData(String dataPath, String preparedPath){
     	    this.dataPath = dataPath;
+    	    this.preparedPath = preparedPath;
     	}
 	
     	@Override
     	public BinaryDataConfig call(){
+	    if (preparedPath != null){
+		/* prepared dataset is written once from text data, w.k.b is then used as stored */
+		if (!PreparedDataset.exists(preparedPath)){
+		    DataConfig<?> text =
+			new PrepareData(delimiter, index, true).prepareData(Arrays.asList(dataPath),
+									    Arrays.asList(preparedPath)).get(0);
+		    if (text == null)
+			return null;
+		    text.getData().unpersist();
+		}
+		return PreparedDataset.loadBinary(preparedPath);
+	    }
     	    /* get data from input source and keep in memory */
 	    JavaRDD<byte[]> spatialDataRDD =
 		getTextAsByteArray(dataPath).cache();
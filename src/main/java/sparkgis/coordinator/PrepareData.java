@@ -1,8 +1,10 @@
 package sparkgis.coordinator;
 /* Java imports */
 import java.util.List;
+import java.util.Iterator;
 import java.util.ArrayList;
 import java.io.Serializable;
+import java.util.NoSuchElementException;
 import java.util.concurrent.Future;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
@@ -12,7 +14,13 @@ import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.FlatMapFunction;
+/* JTS imports */
+import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.io.ParseException;
 /* Local imports */
+import sparkgis.data.Tile;
 import sparkgis.data.DataConfig;
 import sparkgis.data.SpatialObject;
 import sparkgis.data.SpatialObjectDataConfig;
@@ -21,10 +29,19 @@ public class PrepareData implements Serializable{
 
     private final int index;
     private final String delimiter;
+    private final boolean fused;
     
     public PrepareData(String delimiter, int index){
+	this(delimiter, index, false);
+    }
+    /**
+     * @param fused If true, geometries are parsed once while reading data and MBBs are
+     *              kept with spatial objects. See getTextAsPreparedSpatialObject()
+     */
+    public PrepareData(String delimiter, int index, boolean fused){
 	this.delimiter = delimiter;
 	this.index = index;
+	this.fused = fused;
     }
     
     /**
@@ -51,6 +68,65 @@ public class PrepareData implements Serializable{
 		});
     }
     
+    /**
+     * Read spatial data into w.k.t format RDD and extract MBB of each spatial object
+     * in the same pass. Each geometry is parsed exactly once, MBBs are kept with spatial 
+     * objects for space statistics and tile assignment. Objects with invalid geometry 
+     * are dropped since they cannot participate in any spatial query
+     * @param dataPath Data URI on HDFS, local file system or any Hadoop supported file system
+     * @return RDD of spatial data in w.k.t format with MBBs
+     */
+    public JavaRDD<SpatialObject> getTextAsPreparedSpatialObject(String dataPath){
+	return SparkGISContext.sparkContext.textFile(dataPath, SparkGISContext.sparkContext.defaultParallelism())
+	    .mapPartitions(new FlatMapFunction<Iterator<String>, SpatialObject>(){
+		    public Iterator<SpatialObject> call(final Iterator<String> lines){
+			/* lines are mapped as they are consumed, partition is never buffered */
+			return new Iterator<SpatialObject>(){
+			    /* one reader per data partition */
+			    private final WKTReader reader = new WKTReader();
+			    /* next mapped object, null if not read yet */
+			    private SpatialObject next = null;
+			    public boolean hasNext(){
+				while (next == null && lines.hasNext())
+				    next = toPreparedSpatialObject(lines.next(), reader);
+				return next != null;
+			    }
+			    public SpatialObject next(){
+				if (!hasNext())
+				    throw new NoSuchElementException();
+				final SpatialObject ret = next;
+				next = null;
+				return ret;
+			    }
+			    public void remove(){
+				throw new UnsupportedOperationException();
+			    }
+			};
+		    }
+		});
+    }
+
+    /**
+     * @return Spatial object of line with MBB of its geometry, null if line is empty
+     * or geometry can not be parsed
+     */
+    private SpatialObject toPreparedSpatialObject(String s, WKTReader reader){
+	if (s.length() == 0)
+	    return null;
+	String[] fields = s.split(delimiter);
+	int spdIndex = index;
+	try{
+	    Envelope env = reader.read(fields[spdIndex]).getEnvelopeInternal();
+	    Tile mbb = new Tile();
+	    mbb.minX = env.getMinX();
+	    mbb.minY = env.getMinY();
+	    mbb.maxX = env.getMaxX();
+	    mbb.maxY = env.getMaxY();
+	    return new SpatialObject(fields[spdIndex-1], fields[spdIndex], mbb);
+	}catch (ParseException e) {e.printStackTrace();}
+	return null;
+    }
+    
     /**
      * A spatial data query usually consists of atleast two datasets
      * e.g. spatial join, kNN, Range etc. 
@@ -61,6 +137,17 @@ public class PrepareData implements Serializable{
      * concurrently. 
      */
     public List<DataConfig> prepareData(List<String> dataPaths){
+	return prepareData(dataPaths, null);
+    }
+
+    /**
+     * Same as prepareData(dataPaths) but reuses persisted prepared datasets
+     * @param dataPaths Raw spatial data URIs
+     * @param preparedPaths Prepared dataset URIs corresponding to dataPaths (or null). If a
+     *                      prepared dataset exists it is loaded directly, otherwise raw data
+     *                      is prepared and persisted at this location for subsequent jobs
+     */
+    public List<DataConfig> prepareData(List<String> dataPaths, List<String> preparedPaths){
 	final int datasetCount = dataPaths.size();
 	List<DataConfig> configs = new ArrayList<DataConfig>(datasetCount);
 	List<Future<DataConfig>> futures = new ArrayList<Future<DataConfig>>(datasetCount);
@@ -68,7 +155,8 @@ public class PrepareData implements Serializable{
 	final ExecutorService exeServ = Executors.newFixedThreadPool(datasetCount);
 	
 	for (int i=0; i<datasetCount; ++i){
-	    futures.add(exeServ.submit(new AsyncPrepareData(dataPaths.get(i))));
+	    final String preparedPath = (preparedPaths == null) ? null : preparedPaths.get(i);
+	    futures.add(exeServ.submit(new AsyncPrepareData(dataPaths.get(i), preparedPath)));
 	}
 	/* wait for all configurations to get complete */
 	try{
@@ -85,20 +173,41 @@ public class PrepareData implements Serializable{
      */
     private class AsyncPrepareData implements Callable<DataConfig>{
         private final String dataPath;	
-    	public AsyncPrepareData(String dataPath){
+        private final String preparedPath;
+    	public AsyncPrepareData(String dataPath, String preparedPath){
     	    this.dataPath = dataPath;
+    	    this.preparedPath = preparedPath;
     	}
 	
     	@Override
     	public DataConfig call(){
+	    /* reuse persisted prepared dataset if available */
+	    if (preparedPath != null && PreparedDataset.exists(preparedPath))
+		return PreparedDataset.load(preparedPath);
     	    /* get data from input source and keep in memory */
+	    if (fused){
+		/* 
+		 * Single Spark job: reading, parsing, MBB extraction and space statistics
+		 * happen in the same pass that populates the cache
+		 */
+		SpatialObjectDataConfig ret = new SpatialObjectDataConfig(dataPath,
+									 getTextAsPreparedSpatialObject(dataPath).cache());
+		ret.prepare();
+		if (ret.space.getSpaceObjects() == 0)
+		    return null;
+		if (preparedPath != null)
+		    PreparedDataset.save(ret, preparedPath);
+		return ret;
+	    }
 	    JavaRDD<SpatialObject> spatialDataRDD =
 		getTextAsSpatialString(dataPath, true).cache();
 	    long objCount = spatialDataRDD.count();
     	    if (objCount != 0){
 		/* Invoke spark job: Prepare Data */
-    		DataConfig ret = new SpatialObjectDataConfig(dataPath, spatialDataRDD);
+    		SpatialObjectDataConfig ret = new SpatialObjectDataConfig(dataPath, spatialDataRDD);
 		ret.prepare();
+		if (preparedPath != null)
+		    PreparedDataset.save(ret, preparedPath);
     		return ret;
     	    }
     	    return null;
@@ -0,0 +1,278 @@
+package sparkgis.coordinator;
+/* Java imports */
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.Properties;
+/* Hadoop imports */
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+/* Spark imports */
+import scala.Tuple2;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+/* JTS imports */
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.ByteOrderValues;
+/* Local imports */
+import sparkgis.data.Tile;
+import sparkgis.data.DataConfig;
+import sparkgis.data.SpatialObject;
+import sparkgis.data.WKBFormatter;
+import sparkgis.data.BinaryDataConfig;
+import sparkgis.data.SpatialObjectDataConfig;
+
+/**
+ * Persistent binary format of a prepared dataset. A prepared dataset is written
+ * once and can later be loaded directly into a DataConfig without re-reading raw
+ * text data, re-extracting MBBs or recomputing space bounds.
+ * <p>
+ * Layout (under given directory):
+ * <ul>
+ * <li> _header: Space bounds, object count and dataset ID (java.util.Properties)
+ * <li> data: Hadoop SequenceFile of &lt;NullWritable, BytesWritable&gt; records.
+ *      Each record: minX, minY, maxX, maxY, area (double) | id (UTF) | WKB length (int) | WKB
+ * </ul>
+ */
+public class PreparedDataset implements Serializable{
+
+    public static final int VERSION = 1;
+    private static final String HEADER = "/_header";
+    private static final String DATA = "/data";
+
+    /**
+     * Write a prepared dataset to HDFS, local file system (available on all nodes),
+     * or any Hadoop supported file system URI
+     * @param config Prepared data configuration i.e. prepare() already called
+     * @param path Output directory for prepared dataset
+     */
+    public static void save(DataConfig<SpatialObject> config, String path){
+	try{
+	    Properties header = new Properties();
+	    header.setProperty("version", String.valueOf(VERSION));
+	    header.setProperty("id", config.getID());
+	    header.setProperty("minX", String.valueOf(config.space.getMinX()));
+	    header.setProperty("minY", String.valueOf(config.space.getMinY()));
+	    header.setProperty("maxX", String.valueOf(config.space.getMaxX()));
+	    header.setProperty("maxY", String.valueOf(config.space.getMaxY()));
+	    header.setProperty("count", String.valueOf(config.space.getSpaceObjects()));
+
+	    /*
+	     * existing dataset or leftover data of an interrupted save (no header) is
+	     * replaced, otherwise saving data fails. Header goes first, dataset is
+	     * never complete while its data is missing
+	     */
+	    final FileSystem fs = getFileSystem(path);
+	    final Path data = new Path(path + DATA);
+	    fs.delete(new Path(path + HEADER), false);
+	    if (fs.exists(data) && !fs.delete(data, true))
+		throw new java.io.IOException("Could not delete existing prepared data: " + data);
+	    config.getData().mapPartitionsToPair(new RecordEncoder())
+		.saveAsHadoopFile(path + DATA, NullWritable.class, BytesWritable.class, SequenceFileOutputFormat.class);
+	    /* header is written last so that a partially written dataset is never loaded */
+	    OutputStream out = fs.create(new Path(path + HEADER), true);
+	    try{
+		header.store(out, "SparkGIS prepared dataset");
+	    }finally{
+		out.close();
+	    }
+	}catch(Exception e){e.printStackTrace();}
+    }
+
+    /**
+     * @param path Prepared dataset directory
+     * @return True if a complete prepared dataset exists at given path
+     */
+    public static boolean exists(String path){
+	try{
+	    return getFileSystem(path).exists(new Path(path + HEADER));
+	}catch(Exception e){e.printStackTrace();}
+	return false;
+    }
+
+    /**
+     * Load a prepared dataset. Space parameters are read from header,
+     * no Spark job is executed to compute them
+     * @param path Prepared dataset directory
+     * @return Data configuration with spatial objects having precomputed MBBs and areas
+     *         OR null if dataset could not be read
+     */
+    public static SpatialObjectDataConfig load(String path){
+	final Properties header = readHeader(path);
+	if (header == null)
+	    return null;
+	/* decoded once, reused by sampling, tiling and all joins */
+	JavaRDD<SpatialObject> data = readRecords(path).map(new RecordDecoder()).cache();
+	SpatialObjectDataConfig ret = new SpatialObjectDataConfig(header.getProperty("id"), data);
+	setSpace(ret, header);
+	return ret;
+    }
+
+    /**
+     * Load a prepared dataset as w.k.b data. Stored geometries are used as they are,
+     * nothing is parsed or converted
+     * @param path Prepared dataset directory
+     * @return Binary data configuration OR null if dataset could not be read
+     */
+    public static BinaryDataConfig loadBinary(String path){
+	final Properties header = readHeader(path);
+	if (header == null)
+	    return null;
+	JavaRDD<byte[]> data = readRecords(path).map(new BinaryRecordDecoder()).cache();
+	BinaryDataConfig ret = new BinaryDataConfig(header.getProperty("id"), data);
+	setSpace(ret, header);
+	return ret;
+    }
+
+    /**
+     * @return Header of prepared dataset OR null if it could not be read or version is not supported
+     */
+    private static Properties readHeader(String path){
+	Properties header = new Properties();
+	try{
+	    InputStream in = getFileSystem(path).open(new Path(path + HEADER));
+	    try{
+		header.load(in);
+	    }finally{
+		in.close();
+	    }
+	}catch(Exception e){
+	    e.printStackTrace();
+	    return null;
+	}
+	if (Integer.parseInt(header.getProperty("version")) != VERSION){
+	    System.out.println("Unsupported prepared dataset version: " + path);
+	    return null;
+	}
+	return header;
+    }
+
+    private static JavaPairRDD<NullWritable, BytesWritable> readRecords(String path){
+	return SparkGISContext.sparkContext
+	    .sequenceFile(path + DATA, NullWritable.class, BytesWritable.class,
+			  SparkGISContext.sparkContext.defaultParallelism());
+    }
+
+    private static void setSpace(DataConfig<?> config, Properties header){
+	config.space.setMinX(Double.parseDouble(header.getProperty("minX")));
+	config.space.setMinY(Double.parseDouble(header.getProperty("minY")));
+	config.space.setMaxX(Double.parseDouble(header.getProperty("maxX")));
+	config.space.setMaxY(Double.parseDouble(header.getProperty("maxY")));
+	config.space.setSpaceObjects(Long.parseLong(header.getProperty("count")));
+    }
+
+    private static FileSystem getFileSystem(String path) throws java.io.IOException{
+	return new Path(path).getFileSystem(SparkGISContext.sparkContext.hadoopConfiguration());
+    }
+
+    /**
+     * Encode spatial objects of a partition to prepared record format
+     * One reader and writer per partition. MBB and area extracted during
+     * preparation are reused, geometry is parsed only for its w.k.b
+     */
+    static class RecordEncoder implements PairFlatMapFunction<Iterator<SpatialObject>, NullWritable, BytesWritable>{
+	public Iterator<Tuple2<NullWritable, BytesWritable>> call(final Iterator<SpatialObject> objects){
+	    final WKTReader reader = new WKTReader();
+	    final WKBWriter writer = new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN);
+	    return new Iterator<Tuple2<NullWritable, BytesWritable>>(){
+		public boolean hasNext(){
+		    return objects.hasNext();
+		}
+		public Tuple2<NullWritable, BytesWritable> next(){
+		    try{
+			return encode(objects.next(), reader, writer);
+		    }catch(Exception e){
+			throw new RuntimeException(e);
+		    }
+		}
+		public void remove(){
+		    throw new UnsupportedOperationException();
+		}
+	    };
+	}
+
+	private static Tuple2<NullWritable, BytesWritable> encode(SpatialObject s, WKTReader reader, WKBWriter writer)
+	    throws Exception{
+	    Geometry geometry = reader.read(s.getSpatialData());
+	    byte[] wkb = writer.write(geometry);
+	    Tile mbb = s.getMBB();
+	    if (mbb == null){
+		Envelope env = geometry.getEnvelopeInternal();
+		mbb = new Tile();
+		mbb.minX = env.getMinX();
+		mbb.minY = env.getMinY();
+		mbb.maxX = env.getMaxX();
+		mbb.maxY = env.getMaxY();
+	    }
+	    final double area = (s.getArea() >= 0) ? s.getArea() : geometry.getArea();
+
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream(wkb.length + 64);
+	    DataOutputStream out = new DataOutputStream(bytes);
+	    out.writeDouble(mbb.minX);
+	    out.writeDouble(mbb.minY);
+	    out.writeDouble(mbb.maxX);
+	    out.writeDouble(mbb.maxY);
+	    out.writeDouble(area);
+	    out.writeUTF(s.getId());
+	    out.writeInt(wkb.length);
+	    out.write(wkb);
+	    out.close();
+	    return new Tuple2<NullWritable, BytesWritable>(NullWritable.get(), new BytesWritable(bytes.toByteArray()));
+	}
+    }
+
+    /**
+     * Decode a prepared record back to spatial object with its MBB and area
+     * W.k.b is converted to w.k.t (consumed by native join) by copying coordinates,
+     * no geometry is constructed
+     * NOTE: Hadoop reuses writables, record is fully decoded before returning
+     */
+    static class RecordDecoder implements Function<Tuple2<NullWritable, BytesWritable>, SpatialObject>{
+	public SpatialObject call(Tuple2<NullWritable, BytesWritable> record) throws Exception{
+	    BytesWritable value = record._2();
+	    DataInputStream in =
+		new DataInputStream(new ByteArrayInputStream(value.getBytes(), 0, value.getLength()));
+	    Tile mbb = new Tile();
+	    mbb.minX = in.readDouble();
+	    mbb.minY = in.readDouble();
+	    mbb.maxX = in.readDouble();
+	    mbb.maxY = in.readDouble();
+	    final double area = in.readDouble();
+	    String id = in.readUTF();
+	    byte[] wkb = new byte[in.readInt()];
+	    in.readFully(wkb);
+	    return new SpatialObject(id, WKBFormatter.toWKT(wkb), mbb, area);
+	}
+    }
+
+    /**
+     * Extract w.k.b of a prepared record
+     * NOTE: Hadoop reuses writables, w.k.b is copied before returning
+     */
+    static class BinaryRecordDecoder implements Function<Tuple2<NullWritable, BytesWritable>, byte[]>{
+	public byte[] call(Tuple2<NullWritable, BytesWritable> record) throws Exception{
+	    BytesWritable value = record._2();
+	    DataInputStream in =
+		new DataInputStream(new ByteArrayInputStream(value.getBytes(), 0, value.getLength()));
+	    /* MBB and area: 5 doubles */
+	    in.skipBytes(5*8);
+	    in.readUTF();
+	    byte[] wkb = new byte[in.readInt()];
+	    in.readFully(wkb);
+	    return wkb;
+	}
+    }
+}
@@ -49,8 +49,21 @@ public class SparkGISContext {
      * and required preprocessed spatial data
      */
     public List<DataConfig> prepareData(List<String> dataPaths){
+	return prepareData(dataPaths, null);
+    }
+
+    /**
+     * Prepare JavaRDD's with instances of SpatialObjects, reusing persisted prepared datasets
+     * @param dataPaths HDFS paths to input spatial data
+     * @param preparedPaths HDFS paths to prepared datasets corresponding to dataPaths.
+     * Existing prepared datasets are loaded directly, missing ones are created
+     * @return List of dataConfig objects with raw spatialObjects
+     * and required preprocessed spatial data
+     */
+    public List<DataConfig> prepareData(List<String> dataPaths, List<String> preparedPaths){
 	return (new PrepareData(jobConf.getDelimiter(),
-				jobConf.getSpatialObjectIndex())).prepareData(dataPaths);
+				jobConf.getSpatialObjectIndex(),
+				jobConf.isFusedPrepare())).prepareData(dataPaths, preparedPaths);
     }
 
     /**
@@ -60,8 +73,17 @@ public class SparkGISContext {
      * and required preprocessed spatial data
      */
     public List<BinaryDataConfig> prepareBinaryData(List<String> dataPaths){
+	return prepareBinaryData(dataPaths, null);
+    }
+
+    /**
+     * Prepare JavaRDD's with binary spatial data, reusing persisted prepared datasets
+     * @param preparedPaths HDFS paths to prepared datasets corresponding to dataPaths.
+     * Existing prepared datasets are loaded directly, missing ones are created
+     */
+    public List<BinaryDataConfig> prepareBinaryData(List<String> dataPaths, List<String> preparedPaths){
 	return (new PrepareBinaryData(jobConf.getDelimiter(),
-				jobConf.getSpatialObjectIndex())).prepareBinaryData(dataPaths);
+				jobConf.getSpatialObjectIndex())).prepareBinaryData(dataPaths, preparedPaths);
     }
 
     /**
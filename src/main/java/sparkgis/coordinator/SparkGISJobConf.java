@@ -2,6 +2,9 @@ package sparkgis.coordinator;
 /* Java imports */
 import java.io.Serializable;
 /* Local imports */
+import sparkgis.enums.Predicate;
+import sparkgis.enums.JoinEngine;
+import sparkgis.enums.OutputProjection;
 import sparkgis.enums.PartitionMethod;
 
 
@@ -15,6 +18,14 @@ public class SparkGISJobConf implements Serializable{
     private int spatialObjectIndex = 1;
     private int partitionSize = 512;
     private PartitionMethod partitionMethod = PartitionMethod.FIXED_GRID;
+    private boolean fusedPrepare = true;
+    private boolean planeSweep = false;
+    private boolean referencePointDedup = false;
+    private boolean binaryHeatMap = true;
+    private boolean packedNative = false;
+    private JoinEngine joinEngine = JoinEngine.NATIVE;
+    private OutputProjection outputProjection = OutputProjection.FULL;
+    private boolean tileDistributions = false;
     /**
      * @param jobID Sets jobID for this job
      */
@@ -57,12 +68,86 @@ public class SparkGISJobConf implements Serializable{
     /**
      * @param partitioner Sets the partitioning method to be used for SparkGIS job
      * (default is FIXED_GRID)
+     * @throws IllegalArgumentException If HILBERT_CURVE and reference point deduplication
+     * is enabled (see setReferencePointDedup)
      */
     public SparkGISJobConf setPartitionMethod(PartitionMethod partitionMethod){
+	if (partitionMethod == PartitionMethod.HILBERT_CURVE && this.referencePointDedup)
+	    throw new IllegalArgumentException("Reference point deduplication not supported for HILBERT_CURVE");
 	this.partitionMethod = partitionMethod;
 	return this;
     }
-    
+    /**
+     * @param fusedPrepare If true, data preparation parses each geometry once and computes
+     * object count, space bounds and density histogram in a single Spark job (default is true)
+     */
+    public SparkGISJobConf setFusedPrepare(boolean fusedPrepare){
+	this.fusedPrepare = fusedPrepare;
+	return this;
+    }
+    /**
+     * @param planeSweep If true, spatial join within a tile uses plane-sweep along y axis
+     * instead of building an R-tree per tile. Suited for STRIP partitioning (default is false)
+     */
+    public SparkGISJobConf setPlaneSweep(boolean planeSweep){
+	this.planeSweep = planeSweep;
+	return this;
+    }
+    /**
+     * @param dedup If true, a pair of objects replicated to several tiles is refined and
+     * reported only by the tile containing lower-left corner of their MBB intersection
+     * (default is false). Not applicable to HILBERT_CURVE partitioning
+     * @throws IllegalArgumentException If enabled for HILBERT_CURVE partitioning
+     */
+    public SparkGISJobConf setReferencePointDedup(boolean dedup){
+	if (dedup && this.partitionMethod == PartitionMethod.HILBERT_CURVE)
+	    throw new IllegalArgumentException("Reference point deduplication not supported for HILBERT_CURVE");
+	this.referencePointDedup = dedup;
+	return this;
+    }
+    /**
+     * @param binaryHeatMap If true, heatmap generation reads spatial data into w.k.b and
+     * shuffles and joins geometries in binary form (default is true)
+     */
+    public SparkGISJobConf setBinaryHeatMap(boolean binaryHeatMap){
+	this.binaryHeatMap = binaryHeatMap;
+	return this;
+    }
+    /**
+     * @param packedNative If true, spatial join passes (multi)polygons of each tile to native
+     * code as packed coordinates in a direct buffer and gets results back as packed numbers,
+     * avoiding String conversion and w.k.t parsing (default is false)
+     */
+    public SparkGISJobConf setPackedNative(boolean packedNative){
+	this.packedNative = packedNative;
+	return this;
+    }
+    /**
+     * @param joinEngine Engine to refine candidate pairs within tiles. JTS runs on
+     * executors without native library (default is NATIVE). Binary heatmaps and
+     * multi-way joins are native only, JTS uses pairwise text joins instead
+     */
+    public SparkGISJobConf setJoinEngine(JoinEngine joinEngine){
+	this.joinEngine = joinEngine;
+	return this;
+    }
+    /**
+     * @param outputProjection Fields of spatial join results. Geometries are neither copied
+     * natively nor carried by results unless FULL (default is FULL). Heatmaps always use IDS_STATS
+     */
+    public SparkGISJobConf setOutputProjection(OutputProjection outputProjection){
+	this.outputProjection = outputProjection;
+	return this;
+    }
+    /**
+     * @param tileDistributions If true, heatmap generation also writes per tile histograms
+     * of Jaccard and Dice and unmatched objects of each dataset, computed by same join
+     * (default is false)
+     */
+    public SparkGISJobConf setTileDistributions(boolean tileDistributions){
+	this.tileDistributions = tileDistributions;
+	return this;
+    }
     
 
     /**
@@ -90,4 +175,43 @@ public class SparkGISJobConf implements Serializable{
      * @return The partitioner method for this jobs
      */
     public PartitionMethod getPartitionMethod(){return this.partitionMethod;}
+    /**
+     * @return True if data preparation is done in a single fused pass
+     */
+    public boolean isFusedPrepare(){return this.fusedPrepare;}
+    /**
+     * @return True if per tile spatial join uses plane-sweep
+     */
+    public boolean isPlaneSweep(){return this.planeSweep;}
+    /**
+     * @return True if reference point duplicate avoidance is enabled
+     */
+    public boolean isReferencePointDedup(){return this.referencePointDedup;}
+    /**
+     * Same rule for all join engines
+     * @return True if reference point duplicate avoidance is enabled and applies to predicate
+     */
+    public boolean isReferencePointDedup(Predicate predicate){
+	return this.referencePointDedup && predicate.isReferencePointSafe();
+    }
+    /**
+     * @return True if heatmaps are generated from binary (w.k.b) data
+     */
+    public boolean isBinaryHeatMap(){return this.binaryHeatMap;}
+    /**
+     * @return True if tiles are passed to native code as packed coordinates
+     */
+    public boolean isPackedNative(){return this.packedNative;}
+    /**
+     * @return Engine to refine candidate pairs within tiles
+     */
+    public JoinEngine getJoinEngine(){return this.joinEngine;}
+    /**
+     * @return Fields of spatial join results
+     */
+    public OutputProjection getOutputProjection(){return this.outputProjection;}
+    /**
+     * @return True if heatmap generation also writes per tile distributions
+     */
+    public boolean isTileDistributions(){return this.tileDistributions;}
 }
@@ -2,11 +2,14 @@ package sparkgis.coordinator.functions;
 /* Java imports */
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 /* Local imports */
 import sparkgis.enums.HMType;
+import sparkgis.enums.JoinEngine;
 import sparkgis.enums.Predicate;
 import sparkgis.coordinator.SparkGISContext;
 import sparkgis.core.task.HeatMapTask;
@@ -31,6 +34,21 @@ public class HeatMap{
 				 Predicate pred,
 				 HMType hmType
 				 ){
+	return execute(spgc, algos, caseIDs, pred, Collections.singletonList(hmType));
+    }
+
+    /**
+     * Multi-metric heatmap generation: all metrics are computed by a single
+     * join per algorithm pair, one heatmap (output directory) per metric
+     * @param hmTypes Similarity coefficients to use for heatmaps, at least one
+     * @return Path to results heatmap directory
+     */
+    public static String execute(SparkGISContext spgc,
+				 List<String> algos,
+				 List<String> caseIDs,
+				 Predicate pred,
+				 List<HMType> hmTypes
+				 ){
 	
 	String resultsDirPath = null;
 	/* create a thread pool for async jobs */
@@ -38,24 +56,34 @@ public class HeatMap{
 	    Executors.newFixedThreadPool(spgc.getJobConf().getBatchFactor());
 	
     	/* for a given algorithm pair create parallel heatmap generation tasks */
-	List<HeatMapTask> tasks = new ArrayList<HeatMapTask>();
-    	// List<BinaryHeatMapTask> tasks = new ArrayList<BinaryHeatMapTask>();
+	List<Callable<String>> tasks = new ArrayList<Callable<String>>();
     	for (String caseID : caseIDs){
-    	    HeatMapTask t =
-    	    	new HeatMapTask(spgc,
-    	    			caseID,
-    	    			algos,
-    	    			pred,
-    	    			hmType);
-
-	    // BinaryHeatMapTask t =
-    	    // 	new BinaryHeatMapTask(spgc,
-	    // 			      caseID,
-	    // 			      algos,
-	    // 			      pred,
-	    // 			      hmType);
-	    
-    	    tasks.add(t);
+	    /*
+	     * binary (w.k.b) data is smaller to shuffle and cheaper to parse
+	     * binary join is native only and does not compute tile dice, fall back to text path
+	     * (binary task itself defers to text multi-way join for more than two algorithms)
+	     */
+	    if (spgc.getJobConf().isBinaryHeatMap() &&
+		spgc.getJobConf().getJoinEngine() == JoinEngine.NATIVE &&
+		!hmTypes.contains(HMType.TILEDICE)){
+		BinaryHeatMapTask t =
+		    new BinaryHeatMapTask(spgc,
+					  caseID,
+					  algos,
+					  pred,
+					  hmTypes,
+					  null);
+		tasks.add(t);
+	    }
+	    else{
+		HeatMapTask t =
+		    new HeatMapTask(spgc,
+				    caseID,
+				    algos,
+				    pred,
+				    hmTypes);
+		tasks.add(t);
+	    }
     	}
     	/* wait for all jobs to complete */
     	try {
@@ -9,6 +9,7 @@ import java.util.concurrent.ExecutorService;
 import org.apache.spark.api.java.JavaRDD;
 /* Local imports */
 import sparkgis.data.DataConfig;
+import sparkgis.data.JoinResult;
 import sparkgis.enums.Predicate;
 import sparkgis.coordinator.SparkGISContext;
 import sparkgis.core.task.SpatialJoinTask;
@@ -22,9 +23,9 @@ public class SpatialKNN{
      * @param datasets List of String or DataConfigs to generate heatmap for in parallel
      * @param pred Predicate to use for spatial join
      *                               (required only if writing result to MongoDB)  
-     * @return String RDD. Each String contains information of overlapping spatial objects
+     * @return Per tile results. Each JoinResult contains a pair of overlapping spatial objects
      */
-    public static JavaRDD<Iterable<String>> execute(SparkGISContext spgc,
+    public static JavaRDD<Iterable<JoinResult>> execute(SparkGISContext spgc,
 					  List datasets,
 					  Predicate pred){
 
@@ -1,19 +1,12 @@
 package sparkgis.core;
 /* Java imports */
 import java.util.List;
-import java.util.Arrays;
-import java.util.Iterator;
 import java.util.ArrayList;
 import java.io.Serializable;
 /* Spark imports */
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.api.java.JavaPairRDD;
-import org.apache.spark.api.java.function.Function;
-import org.apache.spark.api.java.function.FlatMapFunction;
-import org.apache.spark.api.java.function.PairFunction;
-import org.apache.spark.api.java.function.PairFlatMapFunction;
-import org.apache.spark.api.java.function.Function2;
 import scala.Tuple2;
 /* Local imports */
 import jni.JNIWrapper;
@@ -21,11 +14,13 @@ import sparkgis.data.Tile;
 import sparkgis.data.Space;
 import sparkgis.data.TileStats;
 import sparkgis.data.DataConfig;
+import sparkgis.data.JoinResult;
+import sparkgis.data.TileAggregate;
+import sparkgis.data.PackedRecords;
 import sparkgis.enums.Predicate;
+import sparkgis.enums.OutputProjection;
 import sparkgis.data.SpatialObject;
-import sparkgis.enums.PartitionMethod;
 import sparkgis.coordinator.SparkGISJobConf;
-import sparkgis.core.partitioning.Partitioner;
 import sparkgis.core.spatialindex.SparkSpatialIndex;
 
 /**
@@ -33,11 +28,12 @@ import sparkgis.core.spatialindex.SparkSpatialIndex;
  * Data formats:
  * 1: config.mappedPartitions: <loadtile-id> <spatialObject-id> <spatialObject>
  * 2: data (after reformat): <setNumber> <loadtile-id> <spatialObject-id> <spatialObject>
- * 3: joinMapData (after JNI): 
- *  <combinedtile-id> <join-idx> <setNumber> <loadtile-id> <spatialObject-id> <spatialObject>
+ * 3: tiled data (SpatialTiling): <combinedtile-id> -> <spatialObject>
+ * 4: native input (Resque): 
+ *  <combinedtile-id> <join-idx> <setNumber> <spatialObject-id> <spatialObject>
  *
  * T: Input spatial data type (SpatialObject OR byte[])
- * R: Return type (Iterable<String> OR TileStats)
+ * R: Return type (Iterable<JoinResult> OR TileStats)
  */
 public abstract class ASpatialJoin<T> implements Serializable{
 
@@ -52,9 +48,11 @@ public abstract class ASpatialJoin<T> implements Serializable{
      * No need to inflate DataConfig object 
      * since it has to be transferred over to workers
      */
-    protected Broadcast<SparkSpatialIndex> ssidxBV = null;
+    protected final Broadcast<SparkSpatialIndex> ssidxBV;
 
-    protected List<Tile> partitionIDX;
+    protected final List<Tile> partitionIDX;
+    /* tiling (possibly shared with other joins), driver only */
+    protected final transient SpatialTiling<SpatialObject> tiling;
     
     public ASpatialJoin(
 			SparkGISJobConf sgjConf,
@@ -62,25 +60,39 @@ public abstract class ASpatialJoin<T> implements Serializable{
 			DataConfig<SpatialObject> config2,
 			Predicate predicate
 			){
+	this(sgjConf, config1, config2, predicate,
+	     new SpatialTiling<SpatialObject>(sgjConf, asList(config1, config2), predicate));
+    }
+
+    /**
+     * Same as Arrays.asList without generic array creation
+     */
+    private static List<DataConfig<SpatialObject>> asList(DataConfig<SpatialObject> config1,
+							   DataConfig<SpatialObject> config2){
+	List<DataConfig<SpatialObject>> ret = new ArrayList<DataConfig<SpatialObject>>(2);
+	ret.add(config1);
+	ret.add(config2);
+	return ret;
+    }
+
+    /**
+     * @param tiling Tiling shared by config1, config2 and possibly other datasets
+     */
+    public ASpatialJoin(
+			SparkGISJobConf sgjConf,
+			DataConfig<SpatialObject> config1,
+			DataConfig<SpatialObject> config2,
+			Predicate predicate,
+			SpatialTiling<SpatialObject> tiling
+			){
 	this.sgjConf = sgjConf;
 	this.predicate = predicate;
 	this.config1 = config1;
 	this.config2 = config2;
-	combinedSpace = new Space();
-	/* set combined data configuration */
-	final double minX = (config1.space.getMinX() < config2.space.getMinX())?config1.space.getMinX():config2.space.getMinX();
-	final double minY = (config1.space.getMinY() < config2.space.getMinY())?config1.space.getMinY():config2.space.getMinY();
-	final double maxX = (config1.space.getMaxX() > config2.space.getMaxX())?config1.space.getMaxX():config2.space.getMaxX();
-	final double maxY = (config1.space.getMaxY() > config2.space.getMaxY())?config1.space.getMaxY():config2.space.getMaxY();
-
-	combinedSpace.setMinX(minX);
-	combinedSpace.setMinY(minY);
-	combinedSpace.setMaxX(maxX);
-	combinedSpace.setMaxY(maxY);
-	
-	combinedSpace.setSpaceObjects(config1.space.getSpaceObjects() + config2.space.getSpaceObjects());
-
-	generateTiles();
+	this.tiling = tiling;
+	this.combinedSpace = tiling.getCombinedSpace();
+	this.partitionIDX = tiling.getTiles();
+	this.ssidxBV = tiling.getSpatialIndex();
     }
 
     /**
@@ -88,175 +100,310 @@ public abstract class ASpatialJoin<T> implements Serializable{
      */
     public abstract JavaRDD<T> execute();
 
-    private void generateTiles(){
-	if (this.sgjConf.getPartitionMethod() == PartitionMethod.FIXED_GRID){
-	    partitionIDX = Partitioner.fixedGrid(
-						 combinedSpace.getSpanX(), 
-						 combinedSpace.getSpanY(), 
-						 this.sgjConf.getPartitionSize(),
-						 combinedSpace.getSpaceObjects()
-						 );
-	    denormalizePartitionIDX(
-				    partitionIDX,
-				    combinedSpace.getMinX(),
-				    combinedSpace.getMinY(),
-				    combinedSpace.getSpanX(), 
-				    combinedSpace.getSpanY()
-				    );
-	}
-	else if (this.sgjConf.getPartitionMethod() == PartitionMethod.FIXED_GRID_HM){
-	    partitionIDX = Partitioner.fixedGridHM(
-						   combinedSpace.getMinX(), 
-						   combinedSpace.getMinY(), 
-						   combinedSpace.getMaxX(),
-						   combinedSpace.getMaxY(),
-						   this.sgjConf.getPartitionSize()
-						   );
-	}
-	else{
-	    throw new java.lang.RuntimeException("Invalid paritioner method");
-	}
-    }
-
     /*
      * Cogroup version
+     * Both sides are tiled (and shuffled) once per tiling with the same tile
+     * partitioner, hence cogroup is narrow i.e. does not shuffle again
      */
-    protected JavaPairRDD<Integer, Tuple2<Iterable<String>, Iterable<String>>> getDataByTile(){
-
-	/* 
-	 * Reformat stage only appends a set number to data from algo1 and algo2 
-	 * It has been merged with Partition mapper join stage
-	 */
-	
-    	JavaPairRDD<Integer, String> joinMapData1 = 
-    	    config1.getData().flatMapToPair(new PartitionMapperJoin(1));
-
-	JavaPairRDD<Integer, String> joinMapData2 = 
-    	    config2.getData().flatMapToPair(new PartitionMapperJoin(2));
-
-	JavaPairRDD<Integer, Tuple2<Iterable<String>, Iterable<String>>> groupedData =
-	    joinMapData1.cogroup(joinMapData2);
-
-	return groupedData;
+    protected JavaPairRDD<Integer, Tuple2<Iterable<SpatialObject>, Iterable<SpatialObject>>> getDataByTile(){
+	return tiling.getTiledData(config1).cogroup(
+						    tiling.getTiledData(config2),
+						    tiling.getTilePartitioner()
+						    );
     }
 
     /**
-     * Called for all data corresponding to a given key after groupByKey()
+     * Called for all data corresponding to a given key after cogroup()
+     * Key (tileID) is required for native input format and reference point duplicate avoidance
+     * NOTE: There is a difference between joinIDX and setNumber
+     * In case of any issue, please refer to Journal Entry: Jan 24, 2017
      */
-    protected class Resque
-	implements Function<Tuple2<Iterable<String>,Iterable<String>>, Iterable<String>>{
+    protected class Resque implements TileJoinEngine{
 
 	private final int predicate;
     	private final int geomid1;
     	private final int geomid2;
+    	private final boolean planeSweep;
+    	private final boolean dedup;
+    	private final boolean packed;
+    	private final OutputProjection projection;
+    	/* packed input buffer, reused by all tiles of a task */
+    	private transient PackedRecords records = null;
+    	/* native context handle (0 if none), see open() */
+    	private transient long context = 0;
     	public Resque(int predicate, int geomid1, int geomid2){
+    	    this(predicate, geomid1, geomid2, false, false, false, OutputProjection.FULL);
+    	}
+    	/**
+    	 * @param planeSweep If true, use plane-sweep along y axis instead of R-tree for join
+    	 * @param dedup If true, report a pair only in tile owning its reference point
+    	 * @param packed If true, pass tile to native code as packed coordinates
+    	 * @param projection Fields of results
+    	 */
+    	public Resque(int predicate, int geomid1, int geomid2, boolean planeSweep, boolean dedup, boolean packed,
+    		      OutputProjection projection){
     	    this.predicate = predicate;
     	    this.geomid1 = geomid1;
     	    this.geomid2 = geomid2;
+    	    this.planeSweep = planeSweep;
+    	    this.dedup = dedup;
+    	    this.packed = packed;
+    	    this.projection = projection;
+    	}
+    	public Iterable<JoinResult> call (final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile){
+    	    List<SpatialObject> objects1 = new ArrayList<SpatialObject>();
+    	    List<SpatialObject> objects2 = new ArrayList<SpatialObject>();
+    	    final double[] results = join(tile, objects1, objects2);
+    	    return toJoinResults(results, objects1, objects2, tile._1(), projection);
+    	}
+
+    	/**
+    	 * Aggregate results of tile without creating any result objects
+    	 */
+    	public TileAggregate aggregate (final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile,
+    					boolean tileDice, boolean unmatched){
+    	    open();
+    	    JNIWrapper.resqueSetTileDice(context, tileDice);
+    	    /* pairs owned by other tiles still match objects of this tile */
+    	    JNIWrapper.resqueSetMatchedFlags(context, unmatched);
+    	    final List<SpatialObject> objects1 = new ArrayList<SpatialObject>();
+    	    final List<SpatialObject> objects2 = new ArrayList<SpatialObject>();
+    	    final double[] results = join(tile, objects1, objects2);
+    	    TileAggregate agg = new TileAggregate(tile._1());
+    	    for (int i=0; i<results.length; i+=JNIWrapper.RESULT_FIELDS)
+    		agg.add(results[i+5], results[i+6]);
+    	    if (unmatched){
+    		/* object IDs are positions in tile, set 1 objects first */
+    		final boolean[] matched = new boolean[objects1.size() + objects2.size()];
+    		JNIWrapper.resqueGetMatchedFlags(context, matched);
+    		agg.setUnmatched(matched, objects1.size());
+    	    }
+    	    /* computed natively by same join, before shapes are released */
+    	    if (tileDice)
+    		agg.setTileDice(JNIWrapper.resqueGetTileDice(context));
+    	    return agg;
+    	}
+
+    	/**
+    	 * Create native context to be reused by all following tiles (until close())
+    	 */
+    	public void open(){
+    	    if (context == 0)
+    		context = JNIWrapper.resqueCreate(predicate, geomid1, geomid2);
+    	}
+
+    	/**
+    	 * Release native context
+    	 */
+    	public void close(){
+    	    if (context != 0){
+    		JNIWrapper.resqueRelease(context);
+    		context = 0;
+    	    }
+    	}
+
+    	/**
+    	 * Dice of whole tile natively, no pair is refined
+    	 */
+    	public double tileDice (final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile){
+    	    open();
+    	    final List<SpatialObject> objects1 = new ArrayList<SpatialObject>();
+    	    final List<SpatialObject> objects2 = new ArrayList<SpatialObject>();
+    	    if (packed && pack(tile, objects1, objects2))
+    		return JNIWrapper.resqueTileDicePackedContext(context, records.getBuffer(), records.size());
+    	    objects1.clear();
+    	    objects2.clear();
+    	    return JNIWrapper.resqueTileDiceContext(context, toLines(tile, objects1, objects2));
+    	}
+
+    	/**
+    	 * Join tile natively
+    	 * @param objects1 Filled with objects of set 1 (object IDs 0..n1-1)
+    	 * @param objects2 Filled with objects of set 2 (object IDs n1..)
+    	 * @return Numeric results (see JNIWrapper.RESULT_FIELDS)
+    	 */
+    	private double[] join(final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile,
+    			      List<SpatialObject> objects1, List<SpatialObject> objects2){
+    	    open();
+    	    final double[] region = new double[4];
+    	    final boolean refPoint = dedup && ssidxBV.value().getReferenceRegion(tile._1(), region);
+    	    /* zero-copy version: objects are passed as packed coordinates */
+    	    if (packed && pack(tile, objects1, objects2)){
+    		return JNIWrapper.resqueSPJPackedContext(
+    							 context,
+    							 records.getBuffer(),
+    							 records.size(),
+    							 planeSweep,
+    							 refPoint,
+    							 region[0],
+    							 region[1],
+    							 region[2],
+    							 region[3]
+    							 );
+    	    }
+    	    objects1.clear();
+    	    objects2.clear();
+    	    return JNIWrapper.resqueSPJContext(
+    					       context,
+    					       toLines(tile, objects1, objects2),
+    					       planeSweep,
+    					       refPoint,
+    					       region[0],
+    					       region[1],
+    					       region[2],
+    					       region[3]
+    					       );
     	}
-    	public Iterable<String> call (final Tuple2<Iterable<String>,Iterable<String>> inData){
-    	    //List<String> ret = new ArrayList<String>();
+
+    	/**
+    	 * @return Native input lines of all objects of tile
+    	 */
+    	private String[] toLines(final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile,
+    				 List<SpatialObject> objects1, List<SpatialObject> objects2){
+    	    final Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>> inData = tile._2();
+    	    /* tileID \t joinIDX \t setNumber: set 1 is joined as index 2 and vice versa */
+    	    final String prefix1 = tile._1() + "\t2\t1\t";
+    	    final String prefix2 = tile._1() + "\t1\t2\t";
     	    ArrayList<String> data = new ArrayList<String>();
-    	    for (String in : inData._1())
-    		data.add(in);
-	    for (String in : inData._2())
-    		data.add(in);
-	    
+    	    for (SpatialObject in : inData._1()){
+    		data.add(prefix1 + in.toString());
+    		objects1.add(in);
+    	    }
+	    for (SpatialObject in : inData._2()){
+    		data.add(prefix2 + in.toString());
+    		objects2.add(in);
+    	    }
     	    String[] dataArray = new String[data.size()];	    
-    	    JNIWrapper jni = new JNIWrapper();
-    	    String[] results = jni.resqueSPJ(
-    					  data.toArray(dataArray),
-    					  predicate,
-    					  geomid1,
-    					  geomid2
-    					  );
-    	    //for (String res : results)
-	    //ret.add(res);
-    	    return Arrays.asList(results);
+    	    return data.toArray(dataArray);
+    	}
+
+    	/**
+    	 * Pack all objects of tile in records
+    	 * @return false if tile has a geometry which can not be packed
+    	 */
+    	private boolean pack(final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile,
+    			     List<SpatialObject> objects1, List<SpatialObject> objects2){
+    	    if (records == null)
+    		records = new PackedRecords(1 << 16);
+    	    records.clear();
+    	    /*
+    	     * object ID is position in tile
+    	     * set IDs as in toLines(): set 1 is joined as index 2 and vice versa
+    	     */
+    	    int id = 0;
+    	    for (SpatialObject in : tile._2()._1()){
+    		if (!records.add(2, id++, in.getSpatialData()))
+    		    return false;
+    		objects1.add(in);
+    	    }
+    	    for (SpatialObject in : tile._2()._2()){
+    		if (!records.add(1, id++, in.getSpatialData()))
+    		    return false;
+    		objects2.add(in);
+    	    }
+    	    return true;
     	}
     }
-    
+
     /**
-     *
+     * Map numeric native results (see JNIWrapper.RESULT_FIELDS) back to objects of tile
+     * @param objects1 Objects of set 1, object IDs 0..n1-1
+     * @param objects2 Objects of set 2, object IDs n1..
+     * @param projection Fields of results
+     * @return Results with object of set 1 first
      */
-    protected class ResqueTileDice implements Function<Iterable<String>, Double>{
-    	private final int predicate;
-    	private final int geomid1;
-    	private final int geomid2;
-    	public ResqueTileDice(int predicate, int geomid1, int geomid2){
-    	    this.predicate = predicate;
-    	    this.geomid1 = geomid1;
-    	    this.geomid2 = geomid2;
-    	}
-    	public Double call (final Iterable<String> inData){
-    	    ArrayList<String> data = new ArrayList<String>();
-    	    for (String in : inData)
-    		data.add(in);	    
-	    
-    	    String[] dataArray = new String[data.size()];	    
-    	    JNIWrapper jni = new JNIWrapper();
-    	    double result = jni.resqueTileDice(
-					data.toArray(dataArray),
-					predicate,
-					geomid1,
-					geomid2
-					);
-    	    return new Double(result);
-    	}
+    static List<JoinResult> toJoinResults(double[] results, List<SpatialObject> objects1, List<SpatialObject> objects2,
+					  int tileID, OutputProjection projection){
+	final int count1 = objects1.size();
+	List<JoinResult> ret = new ArrayList<JoinResult>(results.length/JNIWrapper.RESULT_FIELDS);
+	for (int i=0; i<results.length; i+=JNIWrapper.RESULT_FIELDS){
+	    int obj1 = (int)results[i];
+	    int obj2 = (int)results[i+1];
+	    double area1 = results[i+2];
+	    double area2 = results[i+3];
+	    /* native join may report set 2 object first */
+	    if (obj1 >= count1){
+		final int obj = obj1; obj1 = obj2; obj2 = obj;
+		final double area = area1; area1 = area2; area2 = area;
+	    }
+	    ret.add(new JoinResult(
+				   objects1.get(obj1),
+				   objects2.get(obj2 - count1),
+				   tileID,
+				   area1,
+				   area2,
+				   results[i+4],
+				   results[i+5],
+				   results[i+6],
+				   projection
+				   ));
+	}
+	return ret;
     }
 
-    
     /**
-     * Maps each spatialObject to a tile from spatial index after appending a set number to the data.
-     * NOTE: There is a difference between joinIDX and setNumber
-     * In case of any issue, please refer to Journal Entry: Jan 24, 2017
-     * @param setNumber Dataset this spatialObject belongs to
-     * @return tileID,joinIDX,setNumber,id,spatialObject
+     * Batched join of tiles after cogroup() through a tile join engine
+     * (engine is opened once per task, see BatchedJoin)
+     * R: Per tile output of join
      */
-    protected class PartitionMapperJoin implements PairFlatMapFunction<SpatialObject, Integer, String>{
-    	private final int setNumber;
+    protected static abstract class PartitionJoin<R>
+	extends BatchedJoin<Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>>, R>{
 
-    	public PartitionMapperJoin(int setNumber){
-    	    this.setNumber = setNumber;
-    	}
-    	public Iterator<Tuple2<Integer, String>> call (final SpatialObject s){
+	protected final TileJoinEngine engine;
+	public PartitionJoin(TileJoinEngine engine){
+	    this.engine = engine;
+	}
+	protected void open(){
+	    engine.open();
+	}
+	protected void close(){
+	    engine.close();
+	}
+    }
 
-    	    /* get spatial index from braodcast variable */
-    	    final SparkSpatialIndex ssidx = ssidxBV.value();
-    	    final int joinIDX = (setNumber==1)? 2 : 1;
-	    
-    	    List<Tuple2<Integer, String>> ret = new ArrayList<Tuple2<Integer, String>>();
-    	    List<Long> tileIDs = ssidx.getIntersectingIndexTiles(s.getSpatialData());
-    	    for (long id : tileIDs){
-    		String retLine = id + "\t" + joinIDX + "\t" + this.setNumber + "\t" + s.toString();
-    		Tuple2<Integer, String> t = new Tuple2<Integer, String>((int)id, retLine);
-    		ret.add(t);
-    	    }
-    	    return ret.iterator();
-    	}
+    /**
+     * Batched join returning all resulting pairs of each tile
+     */
+    protected static class PartitionJoinResults extends PartitionJoin<Iterable<JoinResult>>{
+	public PartitionJoinResults(TileJoinEngine engine){
+	    super(engine);
+	}
+	protected Iterable<JoinResult> join(Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile){
+	    return engine.call(tile);
+	}
     }
 
     /**
-     * PARTFILE DENORMALIZATION
-     * ADD TO NEWER VERSION
-     * @param gMinX Global minimum x
-     * @param gMinY Global minimum y
-     * @param gSpanX Global span x
-     * @param gSpanY Global span y
-     * @return denormalized partition index
+     * Batched join returning only per tile aggregate of results (no result objects)
+     */
+    protected static class PartitionAggregate extends PartitionJoin<TileAggregate>{
+	private final boolean tileDice;
+	private final boolean unmatched;
+	/**
+	 * @param tileDice If true, dice of whole tile is computed as well
+	 * @param unmatched If true, unmatched objects are counted as well
+	 */
+	public PartitionAggregate(TileJoinEngine engine, boolean tileDice, boolean unmatched){
+	    super(engine);
+	    this.tileDice = tileDice;
+	    this.unmatched = unmatched;
+	}
+	protected TileAggregate join(Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile){
+	    return engine.aggregate(tile, tileDice, unmatched);
+	}
+    }
+    
+    /**
+     * Batched tile dice: dice of whole tile only, no pair is refined
      */
-    protected void denormalizePartitionIDX(
-					 List<Tile> partitionIDX, 
-					 double gMinX,
-					 double gMinY,
-					 double gSpanX,
-					 double gSpanY
-					 ){
-	for (Tile t:partitionIDX){
-	    t.minX = t.minX * gSpanX + gMinX;
-	    t.maxX = t.maxX * gSpanX + gMinX;
-	    t.minY = t.minY * gSpanY + gMinY;
-	    t.maxY = t.maxY * gSpanY + gMinY;
+    protected static class PartitionTileDice extends PartitionJoin<TileAggregate>{
+	public PartitionTileDice(TileJoinEngine engine){
+	    super(engine);
+	}
+	protected TileAggregate join(Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile){
+	    TileAggregate agg = new TileAggregate(tile._1());
+	    agg.setTileDice(engine.tileDice(tile));
+	    return agg;
 	}
     }
 }
@@ -0,0 +1,66 @@
+package sparkgis.core;
+/* Java imports */
+import java.util.Iterator;
+import java.util.Collections;
+/* Spark imports */
+import org.apache.spark.TaskContext;
+import org.apache.spark.util.TaskCompletionListener;
+import org.apache.spark.api.java.function.FlatMapFunction;
+
+/**
+ * Batched join: called once for all tiles of a partition
+ * Join state (e.g. native context: parser, factories, scratch memory) is
+ * allocated once per task by open() and reused by all tiles streamed through it.
+ * State is released by close() when tiles are exhausted or, at the latest, when
+ * task completes
+ * T: Tile (key and grouped data of tile)
+ * R: Per tile output of join
+ */
+public abstract class BatchedJoin<T, R> implements FlatMapFunction<Iterator<T>, R>{
+
+    /**
+     * Allocate state to be reused by following tiles
+     */
+    protected abstract void open();
+    /**
+     * Release state allocated by open(), may be called more than once
+     */
+    protected abstract void close();
+    /**
+     * Join a single tile
+     */
+    protected abstract R join(T tile);
+
+    public Iterator<R> call (final Iterator<T> tiles){
+	if (!tiles.hasNext())
+	    return Collections.<R>emptyList().iterator();
+	open();
+	final TaskContext task = TaskContext.get();
+	if (task != null){
+	    task.addTaskCompletionListener(new TaskCompletionListener(){
+		    public void onTaskCompletion(TaskContext context){
+			close();
+		    }
+		});
+	}
+	return new Iterator<R>(){
+	    public boolean hasNext(){
+		if (tiles.hasNext())
+		    return true;
+		close();
+		return false;
+	    }
+	    public R next(){
+		try{
+		    return join(tiles.next());
+		}catch(RuntimeException e){
+		    close();
+		    throw e;
+		}
+	    }
+	    public void remove(){
+		throw new UnsupportedOperationException();
+	    }
+	};
+    }
+}
@@ -0,0 +1,252 @@
+package sparkgis.core;
+/* Java imports */
+import java.util.List;
+import java.util.ArrayList;
+/* Spark imports */
+import org.apache.spark.broadcast.Broadcast;
+import scala.Tuple2;
+/* JTS imports */
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import com.vividsolutions.jts.io.WKTReader;
+/* Local imports */
+import sparkgis.enums.Predicate;
+import sparkgis.enums.OutputProjection;
+import sparkgis.data.JoinResult;
+import sparkgis.data.TileAggregate;
+import sparkgis.data.SpatialObject;
+import sparkgis.core.spatialindex.SparkSpatialIndex;
+
+/**
+ * Pure JVM (JTS) alternative to native RESQUE for joining objects of a tile
+ * Does not require libgis.so on executors
+ * Same filter and refine steps as native/resque.cpp join_bucket_spjoin():
+ *  - Objects of set 1 are indexed in an STRtree
+ *  - Each object of set 2 is prepared once (PreparedGeometry) and refined
+ *    against all set 1 objects whose MBBs overlap its MBB
+ */
+public class JTSJoinEngine implements TileJoinEngine{
+
+    private final Predicate predicate;
+    private final boolean dedup;
+    private final OutputProjection projection;
+    private final Broadcast<SparkSpatialIndex> ssidxBV;
+    /* reused by all tiles of a task */
+    private transient WKTReader reader = null;
+
+    /**
+     * @param ssidxBV Tile index, required only for reference point duplicate avoidance
+     * @param dedup If true, report a pair only in tile owning its reference point
+     *              (see SparkGISJobConf.isReferencePointDedup(Predicate))
+     * @param projection Fields of results
+     */
+    public JTSJoinEngine(Predicate predicate, Broadcast<SparkSpatialIndex> ssidxBV, boolean dedup,
+			 OutputProjection projection){
+	this.predicate = predicate;
+	this.ssidxBV = ssidxBV;
+	this.dedup = dedup;
+	this.projection = projection;
+    }
+
+    public void open(){
+	if (reader == null)
+	    reader = new WKTReader(new GeometryFactory(new PrecisionModel(), 0));
+    }
+
+    public void close(){
+	reader = null;
+    }
+
+    public Iterable<JoinResult> call (final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile){
+	List<JoinResult> results = new ArrayList<JoinResult>();
+	join(tile, results, null, false, false);
+	return results;
+    }
+
+    public TileAggregate aggregate (final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile,
+				    boolean tileDice, boolean unmatched){
+	TileAggregate agg = new TileAggregate(tile._1());
+	join(tile, null, agg, tileDice, unmatched);
+	return agg;
+    }
+
+    public double tileDice (final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile){
+	open();
+	final List<Geometry> geoms1 = parse(tile._2()._1(), new ArrayList<SpatialObject>());
+	if (geoms1.isEmpty())
+	    return -1;
+	final List<Geometry> geoms2 = parse(tile._2()._2(), new ArrayList<SpatialObject>());
+	if (geoms2.isEmpty())
+	    return -1;
+	return tileDice(geoms1, geoms2);
+    }
+
+    /**
+     * @param results Resulting pairs are added to results, if not null
+     * @param agg Resulting pairs are aggregated in agg, if not null
+     * @param tileDice If true, dice of whole tile is set in agg
+     * @param unmatched If true, unmatched objects are counted in agg
+     */
+    private void join(final Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile,
+		      List<JoinResult> results, TileAggregate agg, boolean tileDice, boolean unmatched){
+	open();
+	final List<SpatialObject> objects1 = new ArrayList<SpatialObject>();
+	final List<Geometry> geoms1 = parse(tile._2()._1(), objects1);
+	final List<SpatialObject> objects2 = new ArrayList<SpatialObject>();
+	final List<Geometry> geoms2 = parse(tile._2()._2(), objects2);
+	if (geoms1.isEmpty() || geoms2.isEmpty()){
+	    /* all (parsed) objects of other dataset are unmatched */
+	    if (unmatched)
+		agg.setUnmatched(geoms1.size(), geoms2.size());
+	    return;
+	}
+	if (tileDice)
+	    agg.setTileDice(tileDice(geoms1, geoms2));
+
+	final double[] region = new double[4];
+	final boolean refPoint = dedup && ssidxBV.value().getReferenceRegion(tile._1(), region);
+
+	/* filter: index set 1 */
+	STRtree index = new STRtree();
+	for (int i=0; i<geoms1.size(); ++i)
+	    index.insert(geoms1.get(i).getEnvelopeInternal(), i);
+
+	/* set 1 objects first, then set 2 objects */
+	final boolean[] matched = new boolean[geoms1.size() + geoms2.size()];
+	for (int j=0; j<geoms2.size(); ++j){
+	    final Geometry geom2 = geoms2.get(j);
+	    final Envelope env2 = geom2.getEnvelopeInternal();
+	    final List<?> candidates = index.query(env2);
+	    if (candidates.isEmpty())
+		continue;
+	    final PreparedGeometry prep2 = PreparedGeometryFactory.prepare(geom2);
+	    for (Object c : candidates){
+		final int i = (Integer) c;
+		final Geometry geom1 = geoms1.get(i);
+		final Envelope env1 = geom1.getEnvelopeInternal();
+		/* pair is handled by another tile, refined only if it may match an unmatched object */
+		final boolean owned = !refPoint || ownsPair(env1, env2, region);
+		if (!owned && !(unmatched && (!matched[i] || !matched[geoms1.size() + j])))
+		    continue;
+		/* refine */
+		if (!satisfies(prep2, geom2, geom1))
+		    continue;
+		matched[i] = true;
+		matched[geoms1.size() + j] = true;
+		if (!owned)
+		    continue;
+		final double area1 = area(objects1.get(i), geom1);
+		final double area2 = area(objects2.get(j), geom2);
+		final double intersection = geom2.intersection(geom1).getArea();
+		/* union area of polygonal geometries, no overlay required */
+		final double union = area1 + area2 - intersection;
+		final double jaccard = (union > 0) ? intersection/union : 0;
+		final double dice = (area1 + area2 > 0) ? 2*intersection/(area1 + area2) : 0;
+		if (agg != null)
+		    agg.add(jaccard, dice);
+		if (results == null)
+		    continue;
+		results.add(new JoinResult(
+					   objects1.get(i),
+					   objects2.get(j),
+					   tile._1(),
+					   area1,
+					   area2,
+					   intersection,
+					   jaccard,
+					   dice,
+					   projection
+					   ));
+	    }
+	}
+	if (unmatched)
+	    agg.setUnmatched(matched, geoms1.size());
+    }
+
+    /**
+     * @return Area stored with object (prepared datasets), computed from geometry otherwise
+     */
+    private static double area(SpatialObject obj, Geometry geom){
+	final double area = obj.getArea();
+	return (area >= 0) ? area : geom.getArea();
+    }
+
+    /**
+     * Dice of whole tile, see native Bucket::get_bucket_level_dice()
+     * @return -1 if coefficient can not be computed
+     */
+    private static double tileDice(List<Geometry> geoms1, List<Geometry> geoms2){
+	try{
+	    final Geometry union1 = UnaryUnionOp.union(geoms1);
+	    final Geometry union2 = UnaryUnionOp.union(geoms2);
+	    final double areaSum = union1.getArea() + union2.getArea();
+	    if (areaSum > 0)
+		return 2*union1.intersection(union2).getArea()/areaSum;
+	}catch(Exception e){e.printStackTrace();}
+	return -1;
+    }
+
+    /**
+     * Parse objects, objects which can not be parsed are skipped
+     * @param parsed Objects corresponding to returned geometries
+     */
+    private List<Geometry> parse(Iterable<SpatialObject> objects, List<SpatialObject> parsed){
+	List<Geometry> geoms = new ArrayList<Geometry>();
+	for (SpatialObject obj : objects){
+	    try{
+		Geometry geom = reader.read(obj.getSpatialData());
+		if (geom.isEmpty())
+		    continue;
+		geoms.add(geom);
+		parsed.add(obj);
+	    }catch(Exception e){e.printStackTrace();}
+	}
+	return geoms;
+    }
+
+    /**
+     * Evaluate predicate in same order as native RESQUE: set 2 object against set 1 object
+     */
+    private boolean satisfies(PreparedGeometry prep2, Geometry geom2, Geometry geom1){
+	switch (predicate){
+	case INTERSECTS:
+	    return prep2.intersects(geom1);
+	case TOUCHES:
+	    return prep2.touches(geom1);
+	case CROSSES:
+	    return prep2.crosses(geom1);
+	case CONTAINS:
+	    return prep2.contains(geom1);
+	case ADJACENT:
+	    return !prep2.disjoint(geom1);
+	case DISJOINT:
+	    return prep2.disjoint(geom1);
+	case EQUALS:
+	    return geom2.equalsTopo(geom1);
+	case DWITHIN:
+	    /* expansion distance is 0 for native RESQUE as well */
+	    return prep2.intersects(geom1);
+	case WITHIN:
+	    return prep2.within(geom1);
+	case OVERLAPS:
+	    return prep2.overlaps(geom1);
+	default:
+	    throw new UnsupportedOperationException("Predicate not supported by JTS join engine: " + predicate);
+	}
+    }
+
+    /**
+     * Reference point duplicate avoidance, see native/resque.cpp owns_pair()
+     */
+    private static boolean ownsPair(Envelope env1, Envelope env2, double[] region){
+	final double x = Math.max(env1.getMinX(), env2.getMinX());
+	final double y = Math.max(env1.getMinY(), env2.getMinY());
+	return x >= region[0] && x < region[2] && y >= region[1] && y < region[3];
+    }
+}
@@ -0,0 +1,394 @@
+package sparkgis.core;
+/* Java imports */
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.io.Serializable;
+/* Spark imports */
+import scala.Tuple2;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+/* Local imports */
+import jni.JNIWrapper;
+import sparkgis.data.DataConfig;
+import sparkgis.data.JoinResult;
+import sparkgis.data.TileAggregate;
+import sparkgis.enums.Predicate;
+import sparkgis.enums.OutputProjection;
+import sparkgis.data.SpatialObject;
+import sparkgis.coordinator.SparkGISContext;
+import sparkgis.coordinator.SparkGISJobConf;
+import sparkgis.core.spatialindex.SparkSpatialIndex;
+
+/**
+ * Multi-way Spark Spatial Join
+ * Joins all pairs of datasets of a tiling in a single pass: tiled data of all
+ * datasets (co-partitioned) is grouped by tile without another shuffle and all
+ * pairs are refined by one native call per tile, parsing and indexing each
+ * dataset of a tile once. Replaces N*(N-1)/2 SparkSpatialJoin for N datasets
+ */
+public class SparkMultiSpatialJoin implements Serializable{
+
+    private final SparkGISJobConf sgjConf;
+    private final Predicate predicate;
+    private final OutputProjection projection;
+    private final Broadcast<SparkSpatialIndex> ssidxBV;
+    /* driver only */
+    private final transient SpatialTiling<SpatialObject> tiling;
+
+    public SparkMultiSpatialJoin(SparkGISJobConf sgjConf, SpatialTiling<SpatialObject> tiling, Predicate predicate){
+	this(sgjConf, tiling, predicate, sgjConf.getOutputProjection());
+    }
+
+    /**
+     * @param projection Fields of results, overrides projection of sgjConf
+     */
+    public SparkMultiSpatialJoin(SparkGISJobConf sgjConf, SpatialTiling<SpatialObject> tiling, Predicate predicate,
+				 OutputProjection projection){
+	this.sgjConf = sgjConf;
+	this.predicate = predicate;
+	this.projection = projection;
+	this.tiling = tiling;
+	this.ssidxBV = tiling.getSpatialIndex();
+    }
+
+    /**
+     * Performs spatial join of all pairs of datasets of tiling
+     * @return Per tile results keyed by pair (i, j), i < j, of dataset indexes in
+     * tiling.getConfigs(). Results are in same format as SparkSpatialJoin
+     */
+    public JavaPairRDD<Tuple2<Integer, Integer>, Iterable<JoinResult>> execute(){
+	final int[] geomIDs = getGeomIDs();
+	return groupByTile().mapPartitions(new ResqueMulti(
+							   predicate.value,
+							   geomIDs,
+							   sgjConf.isPlaneSweep(),
+							   sgjConf.isReferencePointDedup(predicate))
+					   ).flatMapToPair(new PairsOfTile<Iterable<JoinResult>>());
+    }
+
+    /**
+     * @return Results of pair (set1, set2) from multi-way join results
+     */
+    public static JavaRDD<Iterable<JoinResult>> getPairResults(
+							  JavaPairRDD<Tuple2<Integer, Integer>, Iterable<JoinResult>> results,
+							  final int set1,
+							  final int set2
+							  ){
+	return results.filter(new Function<Tuple2<Tuple2<Integer, Integer>, Iterable<JoinResult>>, Boolean>(){
+		public Boolean call(Tuple2<Tuple2<Integer, Integer>, Iterable<JoinResult>> t){
+		    return (t._1()._1() == set1) && (t._1()._2() == set2);
+		}
+	    }).values();
+    }
+
+    /**
+     * Tags spatialObject with set ID (1..N) of its dataset
+     */
+    static class SetTagger implements Function<SpatialObject, Tuple2<Integer, SpatialObject>>{
+	private final int setID;
+	SetTagger(int setID){
+	    this.setID = setID;
+	}
+	public Tuple2<Integer, SpatialObject> call(SpatialObject s){
+	    return new Tuple2<Integer, SpatialObject>(setID, s);
+	}
+    }
+
+    /**
+     * Performs spatial join of all pairs of datasets of tiling and aggregates
+     * Jaccard and Dice of resulting pairs within join task
+     * @return Per tile aggregates keyed by pair (i, j), i < j, of dataset indexes
+     * in tiling.getConfigs(). Aggregates are complete per tile and pair, no further
+     * combine is required
+     */
+    public JavaPairRDD<Tuple2<Integer, Integer>, TileAggregate> executeAggregate(){
+	final int[] geomIDs = getGeomIDs();
+	return groupByTile().mapPartitions(new ResqueMultiAggregate(
+								    predicate.value,
+								    geomIDs,
+								    sgjConf.isPlaneSweep(),
+								    sgjConf.isReferencePointDedup(predicate),
+								    sgjConf.isTileDistributions())
+					   ).flatMapToPair(new PairsOfTile<TileAggregate>());
+    }
+
+    /**
+     * @return Aggregates of pair (set1, set2) from multi-way join aggregates
+     */
+    public static JavaRDD<TileAggregate> getPairAggregates(
+							   JavaPairRDD<Tuple2<Integer, Integer>, TileAggregate> aggregates,
+							   final int set1,
+							   final int set2
+							   ){
+	return aggregates.filter(new Function<Tuple2<Tuple2<Integer, Integer>, TileAggregate>, Boolean>(){
+		public Boolean call(Tuple2<Tuple2<Integer, Integer>, TileAggregate> t){
+		    return (t._1()._1() == set1) && (t._1()._2() == set2);
+		}
+	    }).values();
+    }
+
+    private int[] getGeomIDs(){
+	final List<? extends DataConfig<SpatialObject>> configs = tiling.getConfigs();
+	final int[] geomIDs = new int[configs.size()];
+	for (int i=0; i<configs.size(); ++i)
+	    geomIDs[i] = configs.get(i).getGeomid();
+	return geomIDs;
+    }
+
+    /**
+     * @return Objects of all datasets grouped by tile, tagged with set ID (1..N)
+     */
+    private JavaPairRDD<Integer, Iterable<Tuple2<Integer, SpatialObject>>> groupByTile(){
+	final List<? extends DataConfig<SpatialObject>> configs = tiling.getConfigs();
+	List<JavaPairRDD<Integer, Tuple2<Integer, SpatialObject>>> tagged =
+	    new ArrayList<JavaPairRDD<Integer, Tuple2<Integer, SpatialObject>>>();
+	for (int i=0; i<configs.size(); ++i){
+	    /* mapValues keeps tile partitioning */
+	    tagged.add(tiling.getTiledData(configs.get(i)).mapValues(new SetTagger(i+1)));
+	}
+	/* union of co-partitioned RDDs keeps partitioner, hence grouping is narrow */
+	return SparkGISContext.sparkContext.union(tagged.get(0), tagged.subList(1, tagged.size()))
+	    .groupByKey(tiling.getTilePartitioner());
+    }
+
+    /**
+     * Flattens per tile outputs (pair of datasets, value) of batched joins
+     */
+    static class PairsOfTile<V>
+	implements PairFlatMapFunction<List<Tuple2<Tuple2<Integer, Integer>, V>>, Tuple2<Integer, Integer>, V>{
+	public Iterator<Tuple2<Tuple2<Integer, Integer>, V>> call(List<Tuple2<Tuple2<Integer, Integer>, V>> pairs){
+	    return pairs.iterator();
+	}
+    }
+
+    /**
+     * Joins all tiles of a partition after groupByKey() by one native context
+     * (see BatchedJoin)
+     * Native input: tileID \t setID \t setID \t id \t spatialObject
+     * (set ID takes place of both join index and set number)
+     * V: Per pair of datasets output of a tile
+     */
+    abstract class ResqueMultiBase<V>
+	extends BatchedJoin<Tuple2<Integer, Iterable<Tuple2<Integer, SpatialObject>>>, List<Tuple2<Tuple2<Integer, Integer>, V>>>{
+
+	private final int predicate;
+	protected final int[] geomIDs;
+	private final boolean planeSweep;
+	private final boolean dedup;
+	private final boolean matchedFlags;
+	/* native context handle (0 if none), see open() */
+	private transient long context = 0;
+
+	/**
+	 * @param matchedFlags If true, native join flags matched objects (see join())
+	 */
+	ResqueMultiBase(int predicate, int[] geomIDs, boolean planeSweep, boolean dedup, boolean matchedFlags){
+	    this.predicate = predicate;
+	    this.geomIDs = geomIDs;
+	    this.planeSweep = planeSweep;
+	    this.dedup = dedup;
+	    this.matchedFlags = matchedFlags;
+	}
+
+	/**
+	 * Create native context to be reused by all following tiles (until close())
+	 */
+	protected void open(){
+	    if (context == 0){
+		context = JNIWrapper.resqueCreateMulti(predicate, geomIDs);
+		JNIWrapper.resqueSetMatchedFlags(context, matchedFlags);
+	    }
+	}
+
+	/**
+	 * Release native context
+	 */
+	protected void close(){
+	    if (context != 0){
+		JNIWrapper.resqueRelease(context);
+		context = 0;
+	    }
+	}
+
+	/**
+	 * @param objects Filled with objects of tile, object ID is position in this list
+	 * @param setIDs Filled with set ID of each object of objects
+	 * @param matched If not null, matched[0] is set to matched flags of objects per pair
+	 *                of sets (see JNIWrapper.resqueGetMatchedFlags), requires matchedFlags
+	 * @return Native results: setID1, setID2, result values (see JNIWrapper.RESULT_FIELDS),
+	 * null if there is no pair of datasets in tile
+	 */
+	protected double[] joinTile(final Tuple2<Integer, Iterable<Tuple2<Integer, SpatialObject>>> tile,
+				    List<SpatialObject> objects, List<Integer> setIDs, boolean[][] matched){
+	    ArrayList<String> data = new ArrayList<String>();
+	    HashSet<Integer> sets = new HashSet<Integer>();
+	    for (Tuple2<Integer, SpatialObject> in : tile._2()){
+		data.add(tile._1() + "\t" + in._1() + "\t" + in._1() + "\t" + in._2().toString());
+		objects.add(in._2());
+		setIDs.add(in._1());
+		sets.add(in._1());
+	    }
+	    /* no pair in this tile */
+	    if (sets.size() < 2)
+		return null;
+
+	    final double[] region = new double[4];
+	    final boolean refPoint = dedup && ssidxBV.value().getReferenceRegion(tile._1(), region);
+	    final double[] results = JNIWrapper.resqueSPJMultiContext(
+								      context,
+								      data.toArray(new String[data.size()]),
+								      planeSweep,
+								      refPoint,
+								      region[0],
+								      region[1],
+								      region[2],
+								      region[3]
+								      );
+	    if (matched != null){
+		final int pairs = geomIDs.length * (geomIDs.length - 1) / 2;
+		matched[0] = new boolean[pairs * data.size()];
+		JNIWrapper.resqueGetMatchedFlags(context, matched[0]);
+	    }
+	    return results;
+	}
+    }
+
+    /**
+     * Resulting pairs of a tile split by pair of datasets
+     */
+    class ResqueMulti extends ResqueMultiBase<Iterable<JoinResult>>{
+
+	ResqueMulti(int predicate, int[] geomIDs, boolean planeSweep, boolean dedup){
+	    super(predicate, geomIDs, planeSweep, dedup, false);
+	}
+	protected List<Tuple2<Tuple2<Integer, Integer>, Iterable<JoinResult>>> join(
+										final Tuple2<Integer, Iterable<Tuple2<Integer, SpatialObject>>> tile
+										){
+	    List<Tuple2<Tuple2<Integer, Integer>, Iterable<JoinResult>>> ret =
+		new ArrayList<Tuple2<Tuple2<Integer, Integer>, Iterable<JoinResult>>>();
+	    List<SpatialObject> objects = new ArrayList<SpatialObject>();
+	    final double[] results = joinTile(tile, objects, new ArrayList<Integer>(), null);
+	    if (results == null)
+		return ret;
+	    /*
+	     * split results by pair: setID1, setID2, result values
+	     * native join reports later set first, results have object of earlier set first
+	     * (same as SparkSpatialJoin of pair)
+	     */
+	    final int fields = JNIWrapper.RESULT_FIELDS + 2;
+	    Map<Tuple2<Integer, Integer>, List<JoinResult>> byPair = new HashMap<Tuple2<Integer, Integer>, List<JoinResult>>();
+	    for (int i=0; i<results.length; i+=fields){
+		final Tuple2<Integer, Integer> pair = new Tuple2<Integer, Integer>(
+										   (int)results[i+1] - 1,
+										   (int)results[i] - 1
+										   );
+		List<JoinResult> pairResults = byPair.get(pair);
+		if (pairResults == null){
+		    pairResults = new ArrayList<JoinResult>();
+		    byPair.put(pair, pairResults);
+		}
+		pairResults.add(new JoinResult(
+					       objects.get((int)results[i+3]),
+					       objects.get((int)results[i+2]),
+					       tile._1(),
+					       results[i+5],
+					       results[i+4],
+					       results[i+6],
+					       results[i+7],
+					       results[i+8],
+					       projection
+					       ));
+	    }
+	    for (Map.Entry<Tuple2<Integer, Integer>, List<JoinResult>> e : byPair.entrySet())
+		ret.add(new Tuple2<Tuple2<Integer, Integer>, Iterable<JoinResult>>(e.getKey(), e.getValue()));
+	    return ret;
+	}
+    }
+
+    /**
+     * Aggregates of a tile per pair of datasets, no result objects are created
+     */
+    class ResqueMultiAggregate extends ResqueMultiBase<TileAggregate>{
+
+	private final boolean unmatched;
+	/**
+	 * @param unmatched If true, unmatched objects are counted as well
+	 */
+	ResqueMultiAggregate(int predicate, int[] geomIDs, boolean planeSweep, boolean dedup, boolean unmatched){
+	    super(predicate, geomIDs, planeSweep, dedup, unmatched);
+	    this.unmatched = unmatched;
+	}
+	protected List<Tuple2<Tuple2<Integer, Integer>, TileAggregate>> join(
+									     final Tuple2<Integer, Iterable<Tuple2<Integer, SpatialObject>>> tile
+									     ){
+	    List<Tuple2<Tuple2<Integer, Integer>, TileAggregate>> ret =
+		new ArrayList<Tuple2<Tuple2<Integer, Integer>, TileAggregate>>();
+	    List<Integer> setIDs = new ArrayList<Integer>();
+	    /* matched flags of objects per pair of sets, computed natively */
+	    final boolean[][] matched = unmatched ? new boolean[1][] : null;
+	    double[] results = joinTile(tile, new ArrayList<SpatialObject>(), setIDs, matched);
+	    /* single dataset in tile: all its objects are unmatched */
+	    if (results == null)
+		results = new double[0];
+	    Map<Tuple2<Integer, Integer>, TileAggregate> byPair = new HashMap<Tuple2<Integer, Integer>, TileAggregate>();
+	    final int fields = JNIWrapper.RESULT_FIELDS + 2;
+	    for (int i=0; i<results.length; i+=fields){
+		/* native join reports later set first */
+		final int s1 = (int)results[i+1];
+		final int s2 = (int)results[i];
+		final Tuple2<Integer, Integer> pair = new Tuple2<Integer, Integer>(s1 - 1, s2 - 1);
+		TileAggregate agg = byPair.get(pair);
+		if (agg == null){
+		    agg = new TileAggregate(tile._1());
+		    byPair.put(pair, agg);
+		}
+		agg.add(results[i+7], results[i+8]);
+	    }
+	    /* aggregates of all pairs having objects in tile */
+	    final int sets = geomIDs.length;
+	    int[] setSizes = new int[sets + 1];
+	    for (Integer setID : setIDs)
+		setSizes[setID]++;
+	    /* pairs in same order as native matched flags */
+	    int slot = -1;
+	    for (int s1=1; s1<=sets; ++s1){
+		for (int s2=s1+1; s2<=sets; ++s2){
+		    ++slot;
+		    if (setSizes[s1] + setSizes[s2] == 0)
+			continue;
+		    final Tuple2<Integer, Integer> pair = new Tuple2<Integer, Integer>(s1 - 1, s2 - 1);
+		    TileAggregate agg = byPair.get(pair);
+		    if (agg == null){
+			agg = new TileAggregate(tile._1());
+			byPair.put(pair, agg);
+		    }
+		    if (!unmatched)
+			continue;
+		    /* no flags if there is no pair of datasets in tile */
+		    final boolean[] flags = matched[0];
+		    final int offset = slot * setIDs.size();
+		    long u1 = 0, u2 = 0;
+		    for (int i=0; i<setIDs.size(); ++i){
+			if (flags != null && flags[offset + i])
+			    continue;
+			if (setIDs.get(i) == s1)
+			    u1++;
+			else if (setIDs.get(i) == s2)
+			    u2++;
+		    }
+		    agg.setUnmatched(u1, u2);
+		}
+	    }
+	    for (Map.Entry<Tuple2<Integer, Integer>, TileAggregate> e : byPair.entrySet())
+		ret.add(new Tuple2<Tuple2<Integer, Integer>, TileAggregate>(e.getKey(), e.getValue()));
+	    return ret;
+	}
+    }
+}
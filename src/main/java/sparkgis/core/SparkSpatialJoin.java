@@ -3,59 +3,77 @@ package sparkgis.core;
 import java.io.Serializable;
 /* Spark imports */
 import org.apache.spark.api.java.JavaRDD;
-import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.api.java.JavaPairRDD;
 import scala.Tuple2;
 /* Local imports */
 import sparkgis.data.DataConfig;
+import sparkgis.data.JoinResult;
+import sparkgis.data.TileAggregate;
+import sparkgis.data.SpatialObject;
 import sparkgis.enums.Predicate;
-import sparkgis.enums.PartitionMethod;
-import sparkgis.coordinator.SparkGISContext;
+import sparkgis.enums.JoinEngine;
+import sparkgis.enums.OutputProjection;
 import sparkgis.coordinator.SparkGISJobConf;
-import sparkgis.core.partitioning.Partitioner;
-import sparkgis.core.spatialindex.SparkSpatialIndex;
 
 /**
  * Spark Spatial Join
  */
-public class SparkSpatialJoin extends ASpatialJoin<Iterable<String>> implements Serializable{
+public class SparkSpatialJoin extends ASpatialJoin<Iterable<JoinResult>> implements Serializable{
+
+    private final OutputProjection projection;
 
     public SparkSpatialJoin(
 			    SparkGISJobConf sgjConf,
-			    DataConfig config1,
-			    DataConfig config2,
+			    DataConfig<SpatialObject> config1,
+			    DataConfig<SpatialObject> config2,
 			    Predicate predicate
 			    ){
 	super(sgjConf, config1, config2, predicate);
+	this.projection = sgjConf.getOutputProjection();
+    }
+
+    /**
+     * @param tiling Tiling shared by config1, config2 and possibly other datasets
+     */
+    public SparkSpatialJoin(
+			    SparkGISJobConf sgjConf,
+			    DataConfig<SpatialObject> config1,
+			    DataConfig<SpatialObject> config2,
+			    Predicate predicate,
+			    SpatialTiling<SpatialObject> tiling
+			    ){
+	this(sgjConf, config1, config2, predicate, tiling, sgjConf.getOutputProjection());
+    }
+
+    /**
+     * @param projection Fields of results, overrides projection of sgjConf
+     */
+    public SparkSpatialJoin(
+			    SparkGISJobConf sgjConf,
+			    DataConfig<SpatialObject> config1,
+			    DataConfig<SpatialObject> config2,
+			    Predicate predicate,
+			    SpatialTiling<SpatialObject> tiling,
+			    OutputProjection projection
+			    ){
+	super(sgjConf, config1, config2, predicate, tiling);
+	this.projection = projection;
     }
     
     /**
      * Performs spatial join operation on data configurations specified in constructor
-     * @return JavaRDD<String>. Each string contains information about resulting pair of
-     * polygons with some basic stats such as area union, intersecting area etc. The format
-     * is as follows
-     * <p> 
-     * polygon-id \t polygon-coordinates \t polygon-id \t polygon-coordinates \t tile-id \t Jaccard \t dice
+     * @return Per tile results. Each JoinResult contains resulting pair of polygons
+     * with some basic stats such as areas, intersecting area, Jaccard and Dice
      */
-    public JavaRDD<Iterable<String>> execute(){
-
-	/* 
-	 * Broadcast ssidx 
-	 * ssidx is not very big, will this help???
-	 */
-    	final SparkSpatialIndex ssidx = new SparkSpatialIndex();
-    	ssidx.build(partitionIDX);
-	ssidxBV = SparkGISContext.sparkContext.broadcast(ssidx);
+    public JavaRDD<Iterable<JoinResult>> execute(){
 
-	JavaPairRDD<Integer, Tuple2<Iterable<String>,Iterable<String>>>
+	/* spatial index is broadcast by tiling */
+	JavaPairRDD<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>>
 	    groupedMapData = getDataByTile();
 
-	JavaPairRDD<Integer, Iterable<String>> results = 
-	    groupedMapData.mapValues(new Resque(
-						predicate.value, 
-						config1.getGeomid(),
-						config2.getGeomid())
-				     );	
+	/* tiles of a partition are streamed through one engine (e.g. native context) */
+	JavaRDD<Iterable<JoinResult>> results = 
+	    groupedMapData.mapPartitions(new PartitionJoinResults(getJoinEngine()));	
 	// /* Native C++: Resque */
 	//     JavaPairRDD<Integer, String> results = 
 	// 	groupedMapData.flatMapValues(new Resque(
@@ -63,6 +81,52 @@ public class SparkSpatialJoin extends ASpatialJoin<Iterable<String>> implements
 	// 						config1.getGeomid(),
 	// 						config2.getGeomid())
 	// 				     );
-	return results.values();
+	return results;
+    }
+
+    /**
+     * Performs spatial join and aggregates Jaccard and Dice of resulting pairs
+     * within join task, no resulting pair is materialized
+     * @return One aggregate per joined tile. A tile is joined by exactly one task,
+     * hence aggregates are complete per tile without any further shuffle
+     */
+    public JavaRDD<TileAggregate> executeAggregate(){
+	return executeAggregate(false);
+    }
+
+    /**
+     * @param tileDice If true, dice of whole tile (HMType.TILEDICE) is computed
+     * by same join as well. Unmatched objects are counted only for tile distributions
+     * (see SparkGISJobConf.setTileDistributions)
+     */
+    public JavaRDD<TileAggregate> executeAggregate(boolean tileDice){
+	return getDataByTile().mapPartitions(new PartitionAggregate(getJoinEngine(), tileDice,
+								    sgjConf.isTileDistributions()));
+    }
+
+    /**
+     * Dice of whole tile (HMType.TILEDICE) only: objects are parsed but no pair
+     * is refined and no resulting pair is materialized
+     * @return One aggregate (tile dice only) per tile
+     */
+    public JavaRDD<TileAggregate> executeTileDice(){
+	return getDataByTile().mapPartitions(new PartitionTileDice(getJoinEngine()));
+    }
+
+    /**
+     * @return Engine configured by sgjConf to join objects within a tile
+     */
+    protected TileJoinEngine getJoinEngine(){
+	if (sgjConf.getJoinEngine() == JoinEngine.JTS)
+	    return new JTSJoinEngine(predicate, ssidxBV, sgjConf.isReferencePointDedup(predicate), projection);
+	return new Resque(
+			  predicate.value, 
+			  config1.getGeomid(),
+			  config2.getGeomid(),
+			  sgjConf.isPlaneSweep(),
+			  sgjConf.isReferencePointDedup(predicate),
+			  sgjConf.isPackedNative(),
+			  projection
+			  );
     }
 }
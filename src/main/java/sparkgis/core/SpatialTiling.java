@@ -0,0 +1,418 @@
+package sparkgis.core;
+/* Java imports */
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+/* Spark imports */
+import scala.Tuple2;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+/* Local imports */
+import sparkgis.data.Tile;
+import sparkgis.data.Space;
+import sparkgis.data.DataConfig;
+import sparkgis.data.SpatialObject;
+import sparkgis.data.EnvelopeScanner;
+import sparkgis.data.DensityHistogram;
+import sparkgis.enums.Predicate;
+import sparkgis.enums.PartitionMethod;
+import sparkgis.coordinator.SparkGISContext;
+import sparkgis.coordinator.SparkGISJobConf;
+import sparkgis.core.partitioning.Partitioner;
+import sparkgis.core.partitioning.HilbertCurve;
+import sparkgis.core.partitioning.UniformGrid;
+import sparkgis.core.partitioning.ContiguousTilePartitioner;
+import sparkgis.core.partitioning.SpatialTilePartitioner;
+import sparkgis.core.spatialindex.SparkSpatialIndex;
+
+/**
+ * Tiling shared by spatial joins over a set of datasets (e.g. all algorithms of a slide)
+ * Tiles, spatial index (broadcast) and tile partitioner are generated once from the
+ * combined space of all datasets. Each dataset is mapped to tiles and shuffled with the
+ * tile partitioner once; joins of any two datasets of this tiling are then narrow
+ * (co-partitioned) cogroups. Driver side only
+ * T: Spatial data type (SpatialObject OR byte[])
+ */
+public class SpatialTiling<T>{
+
+    /* Number of MBBs sampled for data driven partitioning */
+    private static final int SAMPLE_SIZE = 100000;
+
+    private final SparkGISJobConf sgjConf;
+    private final Predicate predicate;
+    private final List<? extends DataConfig<T>> configs;
+    private final Space combinedSpace;
+
+    private List<Tile> partitionIDX;
+    /* only set for HILBERT_CURVE partitioning */
+    private HilbertCurve hilbertCurve = null;
+    /* sampled MBBs */
+    private List<Tile> sample = null;
+
+    private Broadcast<SparkSpatialIndex> ssidxBV = null;
+    private org.apache.spark.Partitioner tilePartitioner = null;
+    /* tile keyed data of each dataset */
+    private final Map<DataConfig<T>, JavaPairRDD<Integer, T>> tiledData =
+	new IdentityHashMap<DataConfig<T>, JavaPairRDD<Integer, T>>();
+
+    /**
+     * @param configs Prepared datasets sharing this tiling
+     * @param predicate Join predicate of all joins sharing this tiling
+     */
+    public SpatialTiling(SparkGISJobConf sgjConf, List<? extends DataConfig<T>> configs, Predicate predicate){
+	this.sgjConf = sgjConf;
+	this.predicate = predicate;
+	this.configs = configs;
+	combinedSpace = new Space();
+	/* set combined data configuration */
+	double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+	double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+	long count = 0;
+	for (DataConfig<T> config : configs){
+	    minX = Math.min(minX, config.space.getMinX());
+	    minY = Math.min(minY, config.space.getMinY());
+	    maxX = Math.max(maxX, config.space.getMaxX());
+	    maxY = Math.max(maxY, config.space.getMaxY());
+	    count += config.space.getSpaceObjects();
+	}
+	combinedSpace.setMinX(minX);
+	combinedSpace.setMinY(minY);
+	combinedSpace.setMaxX(maxX);
+	combinedSpace.setMaxY(maxY);
+	combinedSpace.setSpaceObjects(count);
+
+	generateTiles();
+    }
+
+    /**
+     * @return Combined space of all datasets
+     */
+    public Space getCombinedSpace(){return this.combinedSpace;}
+
+    /**
+     * @return Datasets sharing this tiling
+     */
+    public List<? extends DataConfig<T>> getConfigs(){return this.configs;}
+
+    /**
+     * @return Generated tiles
+     */
+    public List<Tile> getTiles(){return this.partitionIDX;}
+
+    /**
+     * @return Broadcast spatial index for tile assignment (built on first call)
+     */
+    public Broadcast<SparkSpatialIndex> getSpatialIndex(){
+	if (ssidxBV == null)
+	    ssidxBV = SparkGISContext.sparkContext.broadcast(buildSpatialIndex());
+	return ssidxBV;
+    }
+
+    /**
+     * @return Spark partitioner for tile keyed data (built on first call)
+     */
+    public org.apache.spark.Partitioner getTilePartitioner(){
+	if (tilePartitioner == null)
+	    tilePartitioner = buildTilePartitioner();
+	return tilePartitioner;
+    }
+
+    /**
+     * Spatial objects of a dataset keyed by tileID and partitioned with tile partitioner
+     * An object is replicated to all tiles its MBB overlaps. If this tiling is shared by
+     * more than two datasets, tiled data is cached so that it is shuffled only once
+     * @param config One of the datasets of this tiling
+     */
+    public JavaPairRDD<Integer, T> getTiledData(DataConfig<T> config){
+	JavaPairRDD<Integer, T> tiled = tiledData.get(config);
+	if (tiled == null){
+	    tiled = config.getData()
+		.flatMapToPair(new TileMapper<T>(getSpatialIndex()))
+		.partitionBy(getTilePartitioner());
+	    if (configs.size() > 2)
+		tiled = tiled.cache();
+	    tiledData.put(config, tiled);
+	}
+	return tiled;
+    }
+
+    /**
+     * Release cached tiled data once all joins of this tiling are done
+     */
+    public void unpersist(){
+	for (JavaPairRDD<Integer, T> tiled : tiledData.values())
+	    tiled.unpersist();
+	tiledData.clear();
+    }
+
+    private void generateTiles(){
+	if (this.sgjConf.getPartitionMethod() == PartitionMethod.FIXED_GRID){
+	    partitionIDX = Partitioner.fixedGrid(
+						 combinedSpace.getSpanX(), 
+						 combinedSpace.getSpanY(), 
+						 this.sgjConf.getPartitionSize(),
+						 combinedSpace.getSpaceObjects()
+						 );
+	    denormalizePartitionIDX(
+				    partitionIDX,
+				    combinedSpace.getMinX(),
+				    combinedSpace.getMinY(),
+				    combinedSpace.getSpanX(), 
+				    combinedSpace.getSpanY()
+				    );
+	}
+	else if (this.sgjConf.getPartitionMethod() == PartitionMethod.FIXED_GRID_HM){
+	    partitionIDX = Partitioner.fixedGridHM(
+						   combinedSpace.getMinX(), 
+						   combinedSpace.getMinY(), 
+						   combinedSpace.getMaxX(),
+						   combinedSpace.getMaxY(),
+						   this.sgjConf.getPartitionSize()
+						   );
+	}
+	else if (this.sgjConf.getPartitionMethod() == PartitionMethod.QUAD_TREE){
+	    partitionIDX = Partitioner.quadTree(
+						combinedSpace.getMinX(), 
+						combinedSpace.getMinY(), 
+						combinedSpace.getMaxX(),
+						combinedSpace.getMaxY(),
+						sampleMBBs(),
+						this.sgjConf.getPartitionSize(),
+						combinedSpace.getSpaceObjects()
+						);
+	}
+	else if (this.sgjConf.getPartitionMethod() == PartitionMethod.SORT_TILE_RECURSIVE){
+	    partitionIDX = Partitioner.sortTileRecursive(
+							 combinedSpace.getMinX(), 
+							 combinedSpace.getMinY(), 
+							 combinedSpace.getMaxX(),
+							 combinedSpace.getMaxY(),
+							 sampleMBBs(),
+							 this.sgjConf.getPartitionSize(),
+							 combinedSpace.getSpaceObjects()
+							 );
+	}
+	else if (this.sgjConf.getPartitionMethod() == PartitionMethod.STRIP){
+	    partitionIDX = Partitioner.strip(
+					     combinedSpace.getMinX(), 
+					     combinedSpace.getMinY(), 
+					     combinedSpace.getMaxX(),
+					     combinedSpace.getMaxY(),
+					     sampleMBBs(),
+					     this.sgjConf.getPartitionSize(),
+					     combinedSpace.getSpaceObjects()
+					     );
+	}
+	else if (this.sgjConf.getPartitionMethod() == PartitionMethod.BINARY_SPACE){
+	    partitionIDX = Partitioner.binarySpace(
+						   combinedSpace.getMinX(), 
+						   combinedSpace.getMinY(), 
+						   combinedSpace.getMaxX(),
+						   combinedSpace.getMaxY(),
+						   sampleMBBs(),
+						   this.sgjConf.getPartitionSize(),
+						   combinedSpace.getSpaceObjects()
+						   );
+	}
+	else if (this.sgjConf.getPartitionMethod() == PartitionMethod.HILBERT_CURVE){
+	    hilbertCurve = Partitioner.hilbertCurve(
+						    combinedSpace.getMinX(), 
+						    combinedSpace.getMinY(), 
+						    combinedSpace.getMaxX(),
+						    combinedSpace.getMaxY(),
+						    sampleMBBs(),
+						    this.sgjConf.getPartitionSize(),
+						    combinedSpace.getSpaceObjects()
+						    );
+	    partitionIDX = hilbertCurve.getTiles();
+	}
+	else{
+	    throw new java.lang.RuntimeException("Invalid paritioner method");
+	}
+    }
+
+    /**
+     * Sample MBBs from all datasets proportional to their sizes
+     */
+    private List<Tile> sampleMBBs(){
+	if (sample == null){
+	    final long total = Math.max(combinedSpace.getSpaceObjects(), 1);
+	    sample = new ArrayList<Tile>();
+	    for (DataConfig<T> config : configs)
+		sample.addAll(config.sampleMBBs((int)(SAMPLE_SIZE * config.space.getSpaceObjects() / total)));
+	}
+	return sample;
+    }
+
+    /**
+     * Build spatial index for tile assignment of generated partitions
+     */
+    private SparkSpatialIndex buildSpatialIndex(){
+	final SparkSpatialIndex ssidx = new SparkSpatialIndex();
+	final UniformGrid grid = (this.sgjConf.getPartitionMethod() == PartitionMethod.FIXED_GRID ||
+				  this.sgjConf.getPartitionMethod() == PartitionMethod.FIXED_GRID_HM) ?
+	    UniformGrid.fromTiles(partitionIDX) : null;
+	if (hilbertCurve != null)
+	    ssidx.build(hilbertCurve);
+	else if (grid != null)
+	    ssidx.build(grid);
+	else
+	    ssidx.build(partitionIDX);
+	/* HILBERT_CURVE with deduplication is rejected by SparkGISJobConf */
+	if (this.sgjConf.isReferencePointDedup(predicate) && hilbertCurve == null && grid == null)
+	    ssidx.buildReferenceRegions(partitionIDX);
+	return ssidx;
+    }
+
+    private org.apache.spark.Partitioner buildTilePartitioner(){
+	if (hilbertCurve != null){
+	    /* keep neighbouring tiles (consecutive ranges on curve) in same Spark partition */
+	    return new ContiguousTilePartitioner(
+						 SparkGISContext.sparkContext.defaultParallelism(),
+						 hilbertCurve.getTileCount()
+						 );
+	}
+	/* balance estimated tile loads across Spark partitions */
+	final long[] tileIDs = new long[partitionIDX.size()];
+	for (int i=0; i<tileIDs.length; ++i)
+	    tileIDs[i] = partitionIDX.get(i).tileID;
+	return new SpatialTilePartitioner(
+					  SparkGISContext.sparkContext.defaultParallelism(),
+					  tileIDs,
+					  estimateTileCosts()
+					  );
+    }
+
+    /**
+     * Estimate cost of each tile in partitionIDX as number of objects of all datasets
+     * From density histograms collected in prepare stage if available, otherwise from
+     * sampled MBBs (counting replication of objects across tiles)
+     * Every tile costs at least 1 (per tile join overhead)
+     */
+    private double[] estimateTileCosts(){
+	final double[] costs = new double[partitionIDX.size()];
+	boolean histograms = true;
+	for (DataConfig<T> config : configs)
+	    histograms &= (config.space.getDensityHistogram() != null);
+	if (histograms){
+	    for (int i=0; i<costs.length; ++i){
+		final Tile t = partitionIDX.get(i);
+		costs[i] = 1;
+		for (DataConfig<T> config : configs)
+		    costs[i] += config.space.getDensityHistogram().estimateCount(t);
+	    }
+	    return costs;
+	}
+	final List<Tile> mbbs = sampleMBBs();
+	final double scale = (double)combinedSpace.getSpaceObjects() / Math.max(mbbs.size(), 1);
+	/* tileID -> position in partitionIDX */
+	Map<Long, Integer> positions = new HashMap<Long, Integer>();
+	for (int i=0; i<costs.length; ++i){
+	    positions.put(partitionIDX.get(i).tileID, i);
+	    costs[i] = 1;
+	}
+	final SparkSpatialIndex ssidx = getSpatialIndex().value();
+	long[] tileIDs = new long[16];
+	for (Tile mbb : mbbs){
+	    int count = ssidx.getIntersectingIndexTiles(mbb, tileIDs);
+	    if (count > tileIDs.length){
+		tileIDs = new long[count];
+		ssidx.getIntersectingIndexTiles(mbb, tileIDs);
+	    }
+	    for (int i=0; i<count; ++i){
+		final Integer pos = positions.get(tileIDs[i]);
+		if (pos != null)
+		    costs[pos] += scale;
+	    }
+	}
+	return costs;
+    }
+
+    /**
+     * Maps each spatial object (SpatialObject OR w.k.b) to all tiles overlapped by its MBB
+     * @return tileID,spatialObject
+     */
+    static class TileMapper<T> implements PairFlatMapFunction<T, Integer, T>{
+	private final Broadcast<SparkSpatialIndex> ssidxBV;
+	/* tile IDs of current object, reused by all objects of a task */
+	private transient long[] tileIDs = null;
+
+	TileMapper(Broadcast<SparkSpatialIndex> ssidxBV){
+	    this.ssidxBV = ssidxBV;
+	}
+    	public Iterator<Tuple2<Integer, T>> call (final T s){
+
+    	    /* get spatial index from braodcast variable */
+    	    final SparkSpatialIndex ssidx = ssidxBV.value();
+	    
+    	    List<Tuple2<Integer, T>> ret = new ArrayList<Tuple2<Integer, T>>();
+    	    final Tile mbb = getMBB(s);
+    	    if (mbb == null)
+    		return ret.iterator();
+    	    final UniformGrid grid = ssidx.getUniformGrid();
+    	    if (grid != null){
+    		/* uniform grid: covered cell range directly, no index query or boxing */
+    		final int[] range = new int[4];
+    		if (grid.getCellRange(mbb.minX, mbb.minY, mbb.maxX, mbb.maxY, range)){
+    		    for (int x=range[0]; x<=range[2]; ++x){
+    			for (int y=range[1]; y<=range[3]; ++y)
+    			    ret.add(new Tuple2<Integer, T>(grid.getTileID(x, y), s));
+    		    }
+    		}
+    		return ret.iterator();
+    	    }
+    	    if (tileIDs == null)
+    		tileIDs = new long[16];
+    	    int count = ssidx.getIntersectingIndexTiles(mbb, tileIDs);
+    	    if (count > tileIDs.length){
+    		/* grow once, kept for following objects */
+    		tileIDs = new long[2*count];
+    		ssidx.getIntersectingIndexTiles(mbb, tileIDs);
+    	    }
+    	    for (int i=0; i<count; ++i)
+    		ret.add(new Tuple2<Integer, T>((int)tileIDs[i], s));
+    	    return ret.iterator();
+    	}
+
+	/**
+	 * @return Precomputed or scanned MBB of spatial object, null if it could not be extracted
+	 */
+	private static Tile getMBB(Object s){
+	    if (s instanceof SpatialObject){
+		final SpatialObject so = (SpatialObject)s;
+		return (so.getMBB() != null) ? so.getMBB() : EnvelopeScanner.getMBB(so.getSpatialData());
+	    }
+	    if (s instanceof byte[])
+		return EnvelopeScanner.getMBB((byte[])s);
+	    return null;
+	}
+    }
+
+    /**
+     * PARTFILE DENORMALIZATION
+     * ADD TO NEWER VERSION
+     * @param gMinX Global minimum x
+     * @param gMinY Global minimum y
+     * @param gSpanX Global span x
+     * @param gSpanY Global span y
+     * @return denormalized partition index
+     */
+    private void denormalizePartitionIDX(
+					 List<Tile> partitionIDX, 
+					 double gMinX,
+					 double gMinY,
+					 double gSpanX,
+					 double gSpanY
+					 ){
+	for (Tile t:partitionIDX){
+	    t.minX = t.minX * gSpanX + gMinX;
+	    t.maxX = t.maxX * gSpanX + gMinX;
+	    t.minY = t.minY * gSpanY + gMinY;
+	    t.maxY = t.maxY * gSpanY + gMinY;
+	}
+    }
+}
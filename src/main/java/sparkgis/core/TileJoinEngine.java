@@ -0,0 +1,45 @@
+package sparkgis.core;
+/* Java imports */
+import java.io.Serializable;
+/* Spark imports */
+import org.apache.spark.api.java.function.Function;
+import scala.Tuple2;
+/* Local imports */
+import sparkgis.data.JoinResult;
+import sparkgis.data.TileAggregate;
+import sparkgis.data.SpatialObject;
+
+/**
+ * Joins objects of both datasets within a single tile (key after cogroup())
+ * Implementations: ASpatialJoin.Resque (native) and JTSJoinEngine (pure JVM)
+ * An engine object is used by one task at a time. open() and close() bracket
+ * all tiles of a task so that per-task state can be reused across tiles
+ */
+public interface TileJoinEngine
+    extends Function<Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>>, Iterable<JoinResult>>, Serializable{
+
+    /**
+     * Join objects of both datasets in given tile
+     */
+    public Iterable<JoinResult> call(Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile);
+    /**
+     * Join objects of both datasets in given tile, results are only aggregated
+     * @param tileDice If true, dice of whole tile is computed as well
+     * @param unmatched If true, unmatched objects are counted as well (see TileAggregate.setUnmatched)
+     */
+    public TileAggregate aggregate(Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile,
+				   boolean tileDice, boolean unmatched);
+    /**
+     * Dice of whole tile (all objects of both datasets), no pair is refined
+     * @return -1 if either dataset is empty or dice can not be computed
+     */
+    public double tileDice(Tuple2<Integer, Tuple2<Iterable<SpatialObject>,Iterable<SpatialObject>>> tile);
+    /**
+     * Allocate state to be reused by following tiles
+     */
+    public void open();
+    /**
+     * Release state allocated by open()
+     */
+    public void close();
+}
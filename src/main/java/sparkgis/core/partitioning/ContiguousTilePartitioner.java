@@ -0,0 +1,44 @@
+package sparkgis.core.partitioning;
+
+/**
+ * Spark partitioner that places blocks of consecutive tileIDs in the same Spark partition.
+ * With locality preserving tile numbering (e.g. Hilbert curve) neighbouring tiles are
+ * processed by the same task, unlike default hash partitioning which scatters them
+ */
+public class ContiguousTilePartitioner extends org.apache.spark.Partitioner
+{
+    private final int numPartitions;
+    private final long tileCount;
+
+    /**
+     * @param numPartitions Number of Spark partitions
+     * @param tileCount Number of tiles, tileIDs are expected to be in [1, tileCount]
+     */
+    public ContiguousTilePartitioner(int numPartitions, long tileCount){
+	this.numPartitions = Math.max(numPartitions, 1);
+	this.tileCount = Math.max(tileCount, 1);
+    }
+
+    @Override
+    public int numPartitions(){return numPartitions;}
+
+    @Override
+    public int getPartition(Object key){
+	final long tileID = ((Integer)key).longValue();
+	final int p = (int)((tileID - 1) * numPartitions / tileCount);
+	return Math.min(Math.max(p, 0), numPartitions-1);
+    }
+
+    @Override
+    public boolean equals(Object other){
+	if (!(other instanceof ContiguousTilePartitioner))
+	    return false;
+	ContiguousTilePartitioner p = (ContiguousTilePartitioner) other;
+	return (p.numPartitions == numPartitions) && (p.tileCount == tileCount);
+    }
+
+    @Override
+    public int hashCode(){
+	return 31 * numPartitions + (int)tileCount;
+    }
+}
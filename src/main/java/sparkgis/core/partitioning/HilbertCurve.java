@@ -0,0 +1,188 @@
+package sparkgis.core.partitioning;
+/* Java imports */
+import java.util.List;
+import java.util.BitSet;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.io.Serializable;
+/* Local imports */
+import sparkgis.data.Tile;
+
+/**
+ * Hilbert curve partitioning
+ * Space is divided into a 2^order x 2^order grid of cells ordered along a Hilbert curve.
+ * Each tile is a contiguous range of curve keys, ranges are cut so that every tile has
+ * nearly equal number of (sampled) objects. An object is assigned to all tiles whose
+ * ranges contain the keys of cells overlapped by its MBB (binary search over range splits)
+ */
+public class HilbertCurve implements Serializable
+{
+    /* smallest normal double (Double.MIN_NORMAL) */
+    private static final double MIN_EXTENT = 0x1.0p-1022;
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int order;
+    /* range i covers keys [splits[i-1], splits[i]) */
+    private final long[] splits;
+
+    HilbertCurve(double minX, double minY, double maxX, double maxY, int order, long[] splits){
+	this.minX = minX;
+	this.minY = minY;
+	this.order = order;
+	this.cellWidth = Math.max(maxX - minX, MIN_EXTENT) / (1 << order);
+	this.cellHeight = Math.max(maxY - minY, MIN_EXTENT) / (1 << order);
+	this.splits = splits;
+    }
+
+    /**
+     * @return Number of tiles i.e. key ranges
+     */
+    public int getTileCount(){return splits.length + 1;}
+
+    /**
+     * @return Hilbert key of the cell containing given point
+     */
+    public long getKey(double x, double y){
+	return key(cellX(x), cellY(y), order);
+    }
+
+    /**
+     * @return ID of tile whose key range contains given key
+     */
+    public long getTileID(long key){
+	int idx = Arrays.binarySearch(splits, key);
+	/* key equal to a split starts next range */
+	return (idx >= 0) ? idx + 2 : -idx;
+    }
+
+    /**
+     * IDs of all tiles whose key ranges contain cells overlapped by given MBB,
+     * allocation free unless out is too small
+     * @param out Output tile IDs in ascending order, filled up to its length
+     * @return Number of tiles (may exceed out.length, in which case the query
+     *         should be repeated with a larger array)
+     */
+    public int getIntersectingTiles(double mbbMinX, double mbbMinY, double mbbMaxX, double mbbMaxY, long[] out){
+	final int x1 = cellX(mbbMinX), x2 = cellX(mbbMaxX);
+	final int y1 = cellY(mbbMinY), y2 = cellY(mbbMaxY);
+	int count = 0;
+	long last = 0;
+	for (int x=x1; x<=x2; ++x){
+	    for (int y=y1; y<=y2; ++y){
+		final long id = getTileID(key(x, y, order));
+		/* neighboring cells mostly fall in same range */
+		if (id == last)
+		    continue;
+		last = id;
+		count = insert(out, count, id);
+		if (count > out.length)
+		    return countTiles(x1, y1, x2, y2);
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Insert id in sorted IDs out[0..count) unless present
+     * @return New count, out.length + 1 if id does not fit
+     */
+    private static int insert(long[] out, int count, long id){
+	/* binary search over out[0..count) */
+	int lo = 0, hi = count;
+	while (lo < hi){
+	    final int mid = (lo + hi) >>> 1;
+	    if (out[mid] < id)
+		lo = mid + 1;
+	    else if (out[mid] > id)
+		hi = mid;
+	    else
+		return count;
+	}
+	if (count == out.length)
+	    return count + 1;
+	final int idx = lo;
+	System.arraycopy(out, idx, out, idx + 1, count - idx);
+	out[idx] = id;
+	return count + 1;
+    }
+
+    /**
+     * @return Number of tiles whose key ranges contain cells (x1,y1)..(x2,y2)
+     */
+    private int countTiles(int x1, int y1, int x2, int y2){
+	BitSet tiles = new BitSet(getTileCount() + 1);
+	for (int x=x1; x<=x2; ++x){
+	    for (int y=y1; y<=y2; ++y)
+		tiles.set((int)getTileID(key(x, y, order)));
+	}
+	return tiles.cardinality();
+    }
+
+    /**
+     * Tile geometry for each key range i.e. MBB of all cells in range
+     * @return List of tiles ordered by tileID
+     */
+    public List<Tile> getTiles(){
+	final int n = 1 << order;
+	Tile[] tiles = new Tile[getTileCount()];
+	for (int x=0; x<n; ++x){
+	    for (int y=0; y<n; ++y){
+		final int idx = (int)getTileID(key(x, y, order)) - 1;
+		final double cMinX = minX + x*cellWidth;
+		final double cMinY = minY + y*cellHeight;
+		Tile t = tiles[idx];
+		if (t == null){
+		    t = new Tile();
+		    t.tileID = idx + 1;
+		    t.minX = cMinX;
+		    t.minY = cMinY;
+		    t.maxX = cMinX + cellWidth;
+		    t.maxY = cMinY + cellHeight;
+		    tiles[idx] = t;
+		}
+		else{
+		    t.minX = Math.min(t.minX, cMinX);
+		    t.minY = Math.min(t.minY, cMinY);
+		    t.maxX = Math.max(t.maxX, cMinX + cellWidth);
+		    t.maxY = Math.max(t.maxY, cMinY + cellHeight);
+		}
+	    }
+	}
+	return new ArrayList<Tile>(Arrays.asList(tiles));
+    }
+
+    private int cellX(double x){
+	return clamp((int)Math.floor((x - minX) / cellWidth));
+    }
+    private int cellY(double y){
+	return clamp((int)Math.floor((y - minY) / cellHeight));
+    }
+    private int clamp(int c){
+	return Math.min(Math.max(c, 0), (1 << order) - 1);
+    }
+
+    /**
+     * Hilbert key of cell (x,y) in a 2^order x 2^order grid
+     */
+    static long key(int x, int y, int order){
+	long d = 0;
+	for (int s = 1 << (order-1); s > 0; s >>= 1){
+	    final int rx = ((x & s) > 0) ? 1 : 0;
+	    final int ry = ((y & s) > 0) ? 1 : 0;
+	    d += (long)s * s * ((3 * rx) ^ ry);
+	    /* rotate quadrant */
+	    if (ry == 0){
+		if (rx == 1){
+		    x = s - 1 - x;
+		    y = s - 1 - y;
+		}
+		final int t = x;
+		x = y;
+		y = t;
+	    }
+	}
+	return d;
+    }
+}
@@ -1,13 +1,20 @@
 package sparkgis.core.partitioning;
 /* Java imports */
 import java.util.List;
+import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.lang.Math;
 /* Local imports */
 import sparkgis.data.Tile;
 
 public class Partitioner
 {
+    /* Recursion limit for data driven partitioners (guards against duplicate points) */
+    private static final int MAX_DEPTH = 32;
+    /* Hilbert grid is at most 2^12 x 2^12 cells (tile geometries are computed on driver) */
+    private static final int MAX_HILBERT_ORDER = 12;
+
     /**
      * Method: fixed-grid partitioning
      * @param spaceXSpan (maxX - minX)
@@ -78,4 +85,284 @@ public class Partitioner
 	}
 	return partitions;
     }
+
+    /**
+     * Quad-tree partitioning from a sample of object MBBs
+     * Space is recursively split into four quadrants until each leaf holds
+     * about partitionSize objects (estimated from sample)
+     * NOTE: DONT DENORMALIZE IF USING THIS FUNCTION
+     * @param sample Sample of object MBBs
+     * @param partitionSize Bucket size for this partitioning
+     * @param numObjects Total objects count
+     * @return List of leaf tiles covering whole space
+     */
+    public static List<Tile> quadTree(double minX, double minY, double maxX, double maxY,
+				      List<Tile> sample, int partitionSize, long numObjects){
+	final double[] cx = new double[sample.size()];
+	final double[] cy = new double[sample.size()];
+	final int[] members = new int[sample.size()];
+	for (int i=0; i<sample.size(); ++i){
+	    Tile t = sample.get(i);
+	    cx[i] = (t.minX + t.maxX)/2;
+	    cy[i] = (t.minY + t.maxY)/2;
+	    members[i] = i;
+	}
+	List<Tile> partitions = new ArrayList<Tile>();
+	quadTreeSplit(minX, minY, maxX, maxY, cx, cy, members,
+		      leafCapacity(sample.size(), partitionSize, numObjects), 0, partitions);
+	return assignIDs(partitions);
+    }
+
+    private static void quadTreeSplit(double minX, double minY, double maxX, double maxY,
+				      double[] cx, double[] cy, int[] members,
+				      int capacity, int depth, List<Tile> leaves){
+	if (members.length <= capacity || depth >= MAX_DEPTH){
+	    leaves.add(newTile(minX, minY, maxX, maxY));
+	    return;
+	}
+	final double midX = (minX + maxX)/2;
+	final double midY = (minY + maxY)/2;
+	/* quadrant counts: 0:SW 1:SE 2:NW 3:NE */
+	int[] counts = new int[4];
+	for (int m : members)
+	    counts[quadrant(cx[m], cy[m], midX, midY)]++;
+	int[][] quads = new int[4][];
+	for (int q=0; q<4; ++q)
+	    quads[q] = new int[counts[q]];
+	int[] pos = new int[4];
+	for (int m : members){
+	    int q = quadrant(cx[m], cy[m], midX, midY);
+	    quads[q][pos[q]++] = m;
+	}
+	quadTreeSplit(minX, minY, midX, midY, cx, cy, quads[0], capacity, depth+1, leaves);
+	quadTreeSplit(midX, minY, maxX, midY, cx, cy, quads[1], capacity, depth+1, leaves);
+	quadTreeSplit(minX, midY, midX, maxY, cx, cy, quads[2], capacity, depth+1, leaves);
+	quadTreeSplit(midX, midY, maxX, maxY, cx, cy, quads[3], capacity, depth+1, leaves);
+    }
+
+    /**
+     * Sort-Tile-Recursive (STR) partitioning from a sample of object MBBs
+     * Sampled MBB centers are sorted by x and cut into vertical slabs, each slab is then
+     * sorted by y and cut into tiles. Tiles have nearly equal object counts and do not overlap
+     * NOTE: DONT DENORMALIZE IF USING THIS FUNCTION
+     * @param sample Sample of object MBBs
+     * @param partitionSize Bucket size for this partitioning
+     * @param numObjects Total objects count
+     * @return List of tiles covering whole space
+     */
+    public static List<Tile> sortTileRecursive(double minX, double minY, double maxX, double maxY,
+					       List<Tile> sample, int partitionSize, long numObjects){
+	List<Tile> partitions = new ArrayList<Tile>();
+	final int n = sample.size();
+	if (n == 0){
+	    partitions.add(newTile(minX, minY, maxX, maxY));
+	    return assignIDs(partitions);
+	}
+	final int capacity = leafCapacity(n, partitionSize, numObjects);
+	final int tileCount = (int)Math.ceil((double)n / capacity);
+	final int slabCount = (int)Math.ceil(Math.sqrt(tileCount));
+	final int slabSize = (int)Math.ceil((double)n / slabCount);
+
+	double[][] centers = new double[n][2];
+	for (int i=0; i<n; ++i){
+	    Tile t = sample.get(i);
+	    centers[i][0] = (t.minX + t.maxX)/2;
+	    centers[i][1] = (t.minY + t.maxY)/2;
+	}
+	Arrays.sort(centers, new CenterComparator(0));
+
+	for (int start=0; start<n; start+=slabSize){
+	    final int end = Math.min(start + slabSize, n);
+	    final double slabMinX = (start == 0) ? minX : (centers[start-1][0] + centers[start][0])/2;
+	    final double slabMaxX = (end == n) ? maxX : (centers[end-1][0] + centers[end][0])/2;
+
+	    double[][] slab = new double[end - start][];
+	    System.arraycopy(centers, start, slab, 0, slab.length);
+	    Arrays.sort(slab, new CenterComparator(1));
+	    final int tileSize = (int)Math.ceil((double)slab.length / slabCount);
+	    for (int ts=0; ts<slab.length; ts+=tileSize){
+		final int te = Math.min(ts + tileSize, slab.length);
+		final double tileMinY = (ts == 0) ? minY : (slab[ts-1][1] + slab[ts][1])/2;
+		final double tileMaxY = (te == slab.length) ? maxY : (slab[te-1][1] + slab[te][1])/2;
+		partitions.add(newTile(slabMinX, tileMinY, slabMaxX, tileMaxY));
+	    }
+	}
+	return assignIDs(partitions);
+    }
+
+    /**
+     * Strip partitioning from a sample of object MBBs
+     * Space is cut into vertical strips with nearly equal number of (sampled) objects,
+     * each strip spans whole y range of space. Suited for thin, tall scans and for
+     * plane-sweep joins along y axis within each strip
+     * NOTE: DONT DENORMALIZE IF USING THIS FUNCTION
+     * @param sample Sample of object MBBs
+     * @param partitionSize Bucket size for this partitioning
+     * @param numObjects Total objects count
+     * @return List of strips covering whole space
+     */
+    public static List<Tile> strip(double minX, double minY, double maxX, double maxY,
+				   List<Tile> sample, int partitionSize, long numObjects){
+	final int n = sample.size();
+	final int capacity = leafCapacity(n, partitionSize, numObjects);
+	double[] centers = new double[n];
+	for (int i=0; i<n; ++i){
+	    Tile t = sample.get(i);
+	    centers[i] = (t.minX + t.maxX)/2;
+	}
+	Arrays.sort(centers);
+
+	List<Tile> partitions = new ArrayList<Tile>();
+	double stripMinX = minX;
+	for (int end=capacity; end<n; end+=capacity){
+	    final double split = (centers[end-1] + centers[end])/2;
+	    /* skip empty strips due to duplicate x values */
+	    if (split > stripMinX){
+		partitions.add(newTile(stripMinX, minY, split, maxY));
+		stripMinX = split;
+	    }
+	}
+	partitions.add(newTile(stripMinX, minY, maxX, maxY));
+	return assignIDs(partitions);
+    }
+
+    /**
+     * Binary space partitioning (k-d style) from a sample of object MBBs
+     * Space is recursively bisected at the median of sampled MBB centers, alternating
+     * between x and y axis, until each bucket holds about partitionSize objects
+     * NOTE: DONT DENORMALIZE IF USING THIS FUNCTION
+     * @param sample Sample of object MBBs
+     * @param partitionSize Bucket size for this partitioning
+     * @param numObjects Total objects count
+     * @return List of tiles covering whole space
+     */
+    public static List<Tile> binarySpace(double minX, double minY, double maxX, double maxY,
+					 List<Tile> sample, int partitionSize, long numObjects){
+	final int n = sample.size();
+	double[][] centers = new double[n][2];
+	for (int i=0; i<n; ++i){
+	    Tile t = sample.get(i);
+	    centers[i][0] = (t.minX + t.maxX)/2;
+	    centers[i][1] = (t.minY + t.maxY)/2;
+	}
+	List<Tile> partitions = new ArrayList<Tile>();
+	binarySpaceSplit(new double[]{minX, minY}, new double[]{maxX, maxY}, centers, 0, n,
+			 leafCapacity(n, partitionSize, numObjects), 0, partitions);
+	return assignIDs(partitions);
+    }
+
+    /**
+     * Split centers[from, to) lying in region {min, max} at median along axis (depth % 2)
+     */
+    private static void binarySpaceSplit(double[] min, double[] max, double[][] centers,
+					 int from, int to, int capacity, int depth, List<Tile> leaves){
+	if (to - from <= capacity || depth >= MAX_DEPTH){
+	    leaves.add(newTile(min[0], min[1], max[0], max[1]));
+	    return;
+	}
+	final int axis = depth % 2;
+	Arrays.sort(centers, from, to, new CenterComparator(axis));
+	final int mid = (from + to) >>> 1;
+	final double split = (centers[mid-1][axis] + centers[mid][axis])/2;
+
+	double[] leftMax = max.clone();
+	leftMax[axis] = split;
+	double[] rightMin = min.clone();
+	rightMin[axis] = split;
+	binarySpaceSplit(min, leftMax, centers, from, mid, capacity, depth+1, leaves);
+	binarySpaceSplit(rightMin, max, centers, mid, to, capacity, depth+1, leaves);
+    }
+
+    /**
+     * Hilbert curve partitioning from a sample of object MBBs
+     * Sampled MBB centers are mapped to Hilbert keys and the sorted key distribution
+     * is cut into equal-count ranges, one range per tile. Neighbouring tiles get
+     * consecutive tileIDs. Use HilbertCurve.getTiles() for tile geometries
+     * @param sample Sample of object MBBs
+     * @param partitionSize Bucket size for this partitioning
+     * @param numObjects Total objects count
+     * @return Hilbert curve with tile key ranges
+     */
+    public static HilbertCurve hilbertCurve(double minX, double minY, double maxX, double maxY,
+					    List<Tile> sample, int partitionSize, long numObjects){
+	final int n = sample.size();
+	final int capacity = leafCapacity(n, partitionSize, numObjects);
+	final int tileCount = Math.max((int)Math.ceil((double)n / capacity), 1);
+	/* 
+	 * Grid resolution: cells of the order of (median) object size so that an object 
+	 * overlaps only a few cells, but fine enough to cut requested number of ranges
+	 */
+	int order = (int)Math.ceil(Math.log(tileCount)/Math.log(4)) + 2;
+	if (n > 0){
+	    double[] sizes = new double[n];
+	    for (int i=0; i<n; ++i){
+		Tile t = sample.get(i);
+		sizes[i] = Math.max(t.maxX - t.minX, t.maxY - t.minY);
+	    }
+	    Arrays.sort(sizes);
+	    final double span = Math.max(maxX - minX, maxY - minY);
+	    if (sizes[n/2] > 0)
+		order = Math.max(order, (int)Math.floor(Math.log(span / sizes[n/2])/Math.log(2)));
+	}
+	order = Math.min(Math.max(order, 1), MAX_HILBERT_ORDER);
+
+	HilbertCurve grid = new HilbertCurve(minX, minY, maxX, maxY, order, new long[0]);
+	long[] keys = new long[n];
+	for (int i=0; i<n; ++i){
+	    Tile t = sample.get(i);
+	    keys[i] = grid.getKey((t.minX + t.maxX)/2, (t.minY + t.maxY)/2);
+	}
+	Arrays.sort(keys);
+	/* equal-count ranges, skip duplicate splits due to skewed keys */
+	long[] splits = new long[tileCount-1];
+	int count = 0;
+	for (int i=1; i<tileCount; ++i){
+	    final long split = keys[(int)((long)i * n / tileCount)];
+	    if (split > 0 && (count == 0 || split > splits[count-1]))
+		splits[count++] = split;
+	}
+	long[] ranges = new long[count];
+	System.arraycopy(splits, 0, ranges, 0, count);
+	return new HilbertCurve(minX, minY, maxX, maxY, order, ranges);
+    }
+
+    /**
+     * Orders MBB centers {x, y} by given axis
+     */
+    private static class CenterComparator implements Comparator<double[]>{
+	private final int axis;
+	CenterComparator(int axis){this.axis = axis;}
+	public int compare(double[] c1, double[] c2){
+	    return Double.compare(c1[axis], c2[axis]);
+	}
+    }
+
+    private static int quadrant(double x, double y, double midX, double midY){
+	return ((x < midX) ? 0 : 1) + ((y < midY) ? 0 : 2);
+    }
+
+    /**
+     * Number of sampled objects corresponding to partitionSize objects in actual data
+     */
+    private static int leafCapacity(int sampleSize, int partitionSize, long numObjects){
+	if (numObjects <= 0)
+	    return Math.max(sampleSize, 1);
+	return (int)Math.max(Math.ceil((double)partitionSize * sampleSize / numObjects), 1.0);
+    }
+
+    private static Tile newTile(double minX, double minY, double maxX, double maxY){
+	Tile t = new Tile();
+	t.minX = minX;
+	t.minY = minY;
+	t.maxX = maxX;
+	t.maxY = maxY;
+	return t;
+    }
+
+    private static List<Tile> assignIDs(List<Tile> partitions){
+	long id = 0;
+	for (Tile t : partitions)
+	    t.tileID = ++id;
+	return partitions;
+    }
 }
@@ -0,0 +1,93 @@
+package sparkgis.core.partitioning;
+/* Java imports */
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Load balancing Spark partitioner for tile keyed data
+ * Tiles are assigned to Spark partitions with Longest-Processing-Time-first schedule:
+ * tiles are taken in decreasing order of estimated cost, each going to the partition
+ * with least total cost so far. Both sides of a cogroup partitioned with the same
+ * instance are co-partitioned, tiles unknown to the partitioner are hash partitioned
+ */
+public class SpatialTilePartitioner extends org.apache.spark.Partitioner
+{
+    private final int numPartitions;
+    /* sorted tileIDs and partition of each */
+    private final long[] tileIDs;
+    private final int[] partitions;
+
+    /**
+     * @param numPartitions Number of Spark partitions
+     * @param tileIDs IDs of all tiles
+     * @param costs Estimated cost (e.g. object count) of each tile
+     */
+    public SpatialTilePartitioner(int numPartitions, long[] tileIDs, final double[] costs){
+	this.numPartitions = Math.max(numPartitions, 1);
+	final int n = tileIDs.length;
+	/* longest processing time first */
+	Integer[] order = new Integer[n];
+	for (int i=0; i<n; ++i)
+	    order[i] = i;
+	Arrays.sort(order, new Comparator<Integer>(){
+		public int compare(Integer a, Integer b){
+		    return Double.compare(costs[b], costs[a]);
+		}
+	    });
+	final double[] loads = new double[this.numPartitions];
+	final int[] assigned = new int[n];
+	for (int i : order){
+	    int min = 0;
+	    for (int p=1; p<loads.length; ++p){
+		if (loads[p] < loads[min])
+		    min = p;
+	    }
+	    assigned[i] = min;
+	    loads[min] += costs[i];
+	}
+	/* sort by tileID for lookup */
+	Integer[] byID = new Integer[n];
+	for (int i=0; i<n; ++i)
+	    byID[i] = i;
+	final long[] ids = tileIDs;
+	Arrays.sort(byID, new Comparator<Integer>(){
+		public int compare(Integer a, Integer b){
+		    return (ids[a] < ids[b]) ? -1 : ((ids[a] == ids[b]) ? 0 : 1);
+		}
+	    });
+	this.tileIDs = new long[n];
+	this.partitions = new int[n];
+	for (int i=0; i<n; ++i){
+	    this.tileIDs[i] = ids[byID[i]];
+	    this.partitions[i] = assigned[byID[i]];
+	}
+    }
+
+    @Override
+    public int numPartitions(){return numPartitions;}
+
+    @Override
+    public int getPartition(Object key){
+	final long tileID = ((Number)key).longValue();
+	final int idx = Arrays.binarySearch(tileIDs, tileID);
+	if (idx >= 0)
+	    return partitions[idx];
+	final int mod = (int)(tileID % numPartitions);
+	return (mod < 0) ? mod + numPartitions : mod;
+    }
+
+    @Override
+    public boolean equals(Object other){
+	if (!(other instanceof SpatialTilePartitioner))
+	    return false;
+	SpatialTilePartitioner p = (SpatialTilePartitioner) other;
+	return (p.numPartitions == numPartitions) &&
+	    Arrays.equals(p.tileIDs, tileIDs) &&
+	    Arrays.equals(p.partitions, partitions);
+    }
+
+    @Override
+    public int hashCode(){
+	return 31 * numPartitions + Arrays.hashCode(partitions);
+    }
+}
@@ -0,0 +1,129 @@
+package sparkgis.core.partitioning;
+/* Java imports */
+import java.util.List;
+import java.io.Serializable;
+/* Local imports */
+import sparkgis.data.Tile;
+
+/**
+ * Arithmetic tile assignment for uniform grids (FIXED_GRID, FIXED_GRID_HM)
+ * Cell (x,y) covers [originX + x*strideX, originX + x*strideX + width] along x
+ * (similarly along y) and has tileID x*ySplit + y + 1. Cells may overlap when
+ * width > stride (FIXED_GRID_HM with fractional steps). Covered cell range of
+ * an MBB is computed in O(1) without any index query or boxing
+ */
+public class UniformGrid implements Serializable
+{
+    /* relative tolerance when checking that tiles form a uniform grid */
+    private static final double EPSILON = 1e-9;
+
+    private final double originX;
+    private final double originY;
+    private final double strideX;
+    private final double strideY;
+    private final double width;
+    private final double height;
+    private final int xSplit;
+    private final int ySplit;
+
+    private UniformGrid(double originX, double originY, double strideX, double strideY,
+			double width, double height, int xSplit, int ySplit){
+	this.originX = originX;
+	this.originY = originY;
+	this.strideX = strideX;
+	this.strideY = strideY;
+	this.width = width;
+	this.height = height;
+	this.xSplit = xSplit;
+	this.ySplit = ySplit;
+    }
+
+    /**
+     * Recognize a uniform grid from generated partitions
+     * @param tiles Partitions in x-major order with tileIDs 1..n
+     * @return Uniform grid equivalent to given tiles OR null if tiles are not a uniform grid
+     */
+    public static UniformGrid fromTiles(List<Tile> tiles){
+	final int n = tiles.size();
+	if (n == 0)
+	    return null;
+	final Tile first = tiles.get(0);
+	/* number of cells along y: tiles sharing first column */
+	int ySplit = 1;
+	while (ySplit < n && tiles.get(ySplit).minX == first.minX)
+	    ySplit++;
+	if (n % ySplit != 0)
+	    return null;
+	final int xSplit = n / ySplit;
+	final double width = first.maxX - first.minX;
+	final double height = first.maxY - first.minY;
+	final double strideX = (xSplit > 1) ? tiles.get(ySplit).minX - first.minX : width;
+	final double strideY = (ySplit > 1) ? tiles.get(1).minY - first.minY : height;
+	if (!(strideX > 0) || !(strideY > 0) || width < strideX*(1-EPSILON) || height < strideY*(1-EPSILON))
+	    return null;
+
+	UniformGrid grid = new UniformGrid(first.minX, first.minY, strideX, strideY,
+					   width, height, xSplit, ySplit);
+	/* every tile must match its arithmetic cell */
+	final double tolX = EPSILON * Math.max(Math.abs(first.minX) + strideX*xSplit, 1);
+	final double tolY = EPSILON * Math.max(Math.abs(first.minY) + strideY*ySplit, 1);
+	for (int i=0; i<n; ++i){
+	    final Tile t = tiles.get(i);
+	    final int x = i / ySplit;
+	    final int y = i % ySplit;
+	    if (t.tileID != grid.getTileID(x, y) ||
+		Math.abs(t.minX - (first.minX + x*strideX)) > tolX ||
+		Math.abs(t.minY - (first.minY + y*strideY)) > tolY ||
+		Math.abs((t.maxX - t.minX) - width) > tolX ||
+		Math.abs((t.maxY - t.minY) - height) > tolY)
+		return null;
+	}
+	return grid;
+    }
+
+    /**
+     * Covered cell range of an MBB i.e. all cells intersecting it (boundaries inclusive)
+     * @param range Output: range[0]=first x, range[1]=first y, range[2]=last x, range[3]=last y
+     * @return False if MBB does not intersect grid, range is unspecified in this case
+     */
+    public boolean getCellRange(double minX, double minY, double maxX, double maxY, int[] range){
+	range[0] = Math.max(firstCell(minX, originX, strideX, width), 0);
+	range[1] = Math.max(firstCell(minY, originY, strideY, height), 0);
+	range[2] = Math.min(lastCell(maxX, originX, strideX), xSplit - 1);
+	range[3] = Math.min(lastCell(maxY, originY, strideY), ySplit - 1);
+	return (range[0] <= range[2]) && (range[1] <= range[3]);
+    }
+
+    /**
+     * @return tileID of cell (x,y)
+     */
+    public int getTileID(int x, int y){
+	return x*ySplit + y + 1;
+    }
+
+    public int getTileCount(){return xSplit * ySplit;}
+
+    /**
+     * Region owned by a tile for duplicate avoidance: [min, min+stride) of its cell
+     * along each axis. Owned regions do not overlap even if cells do, outer cells
+     * extend to infinity so that owned regions cover whole plane
+     * @param region Output: minX, minY, maxX, maxY
+     */
+    public void getOwnedRegion(long tileID, double[] region){
+	final int x = (int)((tileID - 1) / ySplit);
+	final int y = (int)((tileID - 1) % ySplit);
+	region[0] = (x == 0) ? Double.NEGATIVE_INFINITY : originX + x*strideX;
+	region[1] = (y == 0) ? Double.NEGATIVE_INFINITY : originY + y*strideY;
+	region[2] = (x == xSplit-1) ? Double.POSITIVE_INFINITY : originX + (x+1)*strideX;
+	region[3] = (y == ySplit-1) ? Double.POSITIVE_INFINITY : originY + (y+1)*strideY;
+    }
+
+    /* first cell k with origin + k*stride + size >= value */
+    private static int firstCell(double value, double origin, double stride, double size){
+	return (int)Math.max(Math.ceil((value - origin - size) / stride), -1);
+    }
+    /* last cell k with origin + k*stride <= value */
+    private static int lastCell(double value, double origin, double stride){
+	return (int)Math.min(Math.floor((value - origin) / stride), Integer.MAX_VALUE);
+    }
+}
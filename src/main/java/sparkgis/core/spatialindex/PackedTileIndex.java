@@ -0,0 +1,136 @@
+package sparkgis.core.spatialindex;
+/* Java imports */
+import java.util.List;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.io.Serializable;
+/* Local imports */
+import sparkgis.data.Tile;
+
+/**
+ * Immutable packed R-tree over tile MBBs stored in flat primitive arrays
+ * Tiles are sorted in Sort-Tile-Recursive order and grouped bottom-up into
+ * nodes of NODE_SIZE entries. Node i has bounding box boxes[4i..4i+3]; leaves
+ * (i < tileIDs.length) carry tileIDs[i], internal nodes point to their first child
+ * in firstChild[i]. Cheap to broadcast and Kryo-serialize, queries allocate nothing
+ */
+public class PackedTileIndex implements Serializable
+{
+    private static final int NODE_SIZE = 16;
+
+    /* minX, minY, maxX, maxY of all nodes, leaves first and root last */
+    private final double[] boxes;
+    /* first child of each node (unused for leaves) */
+    private final int[] firstChild;
+    /* tile ID of each leaf */
+    private final long[] tileIDs;
+    /* levelEnds[k]: end (exclusive) of nodes of level k, level 0 are leaves */
+    private final int[] levelEnds;
+
+    public PackedTileIndex(List<Tile> tiles){
+	final int n = tiles.size();
+	final Tile[] sorted = strOrder(tiles);
+
+	/* number of nodes per level */
+	int levels = 1;
+	int total = n;
+	for (int count = n; count > 1; ++levels){
+	    count = (count + NODE_SIZE - 1) / NODE_SIZE;
+	    total += count;
+	}
+	levelEnds = new int[levels];
+	boxes = new double[4*total];
+	firstChild = new int[total];
+	tileIDs = new long[n];
+
+	for (int i=0; i<n; ++i){
+	    tileIDs[i] = sorted[i].tileID;
+	    boxes[4*i] = sorted[i].minX;
+	    boxes[4*i+1] = sorted[i].minY;
+	    boxes[4*i+2] = sorted[i].maxX;
+	    boxes[4*i+3] = sorted[i].maxY;
+	}
+	levelEnds[0] = n;
+	/* build parent levels by grouping consecutive nodes */
+	int node = n;
+	for (int level=1; level<levels; ++level){
+	    final int start = (level == 1) ? 0 : levelEnds[level-2];
+	    final int end = levelEnds[level-1];
+	    for (int child=start; child<end; child+=NODE_SIZE, ++node){
+		firstChild[node] = child;
+		boxes[4*node] = Double.POSITIVE_INFINITY;
+		boxes[4*node+1] = Double.POSITIVE_INFINITY;
+		boxes[4*node+2] = Double.NEGATIVE_INFINITY;
+		boxes[4*node+3] = Double.NEGATIVE_INFINITY;
+		for (int c=child; c<Math.min(child+NODE_SIZE, end); ++c){
+		    boxes[4*node] = Math.min(boxes[4*node], boxes[4*c]);
+		    boxes[4*node+1] = Math.min(boxes[4*node+1], boxes[4*c+1]);
+		    boxes[4*node+2] = Math.max(boxes[4*node+2], boxes[4*c+2]);
+		    boxes[4*node+3] = Math.max(boxes[4*node+3], boxes[4*c+3]);
+		}
+	    }
+	    levelEnds[level] = node;
+	}
+    }
+
+    /**
+     * IDs of all tiles intersecting given MBB (boundaries inclusive), allocation free
+     * @param out Output tile IDs, filled up to its length
+     * @return Number of intersecting tiles (may exceed out.length, in which case
+     *         the query should be repeated with a larger array)
+     */
+    public int query(double minX, double minY, double maxX, double maxY, long[] out){
+	if (tileIDs.length == 0)
+	    return 0;
+	return search(root(), levelEnds.length-1, minX, minY, maxX, maxY, out, 0);
+    }
+
+    public int getTileCount(){return tileIDs.length;}
+
+    /* root is the last node, only node of top level */
+    private int root(){return boxes.length/4 - 1;}
+
+    private int search(int node, int level, double minX, double minY, double maxX, double maxY, long[] out, int count){
+	if (!intersects(node, minX, minY, maxX, maxY))
+	    return count;
+	if (level == 0){
+	    if (count < out.length)
+		out[count] = tileIDs[node];
+	    return count + 1;
+	}
+	final int end = Math.min(firstChild[node] + NODE_SIZE, levelEnds[level-1]);
+	for (int c=firstChild[node]; c<end; ++c)
+	    count = search(c, level-1, minX, minY, maxX, maxY, out, count);
+	return count;
+    }
+
+    private boolean intersects(int node, double minX, double minY, double maxX, double maxY){
+	final int b = 4*node;
+	return !(boxes[b] > maxX || boxes[b+1] > maxY || boxes[b+2] < minX || boxes[b+3] < minY);
+    }
+
+    /**
+     * Sort-Tile-Recursive order: vertical slices by center x, each slice by center y
+     */
+    private static Tile[] strOrder(List<Tile> tiles){
+	final Tile[] sorted = tiles.toArray(new Tile[tiles.size()]);
+	final int leaves = (sorted.length + NODE_SIZE - 1) / NODE_SIZE;
+	final int sliceSize = (int)Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+	Arrays.sort(sorted, new CenterComparator(true));
+	for (int start=0; start<sorted.length; start+=sliceSize)
+	    Arrays.sort(sorted, start, Math.min(start+sliceSize, sorted.length), new CenterComparator(false));
+	return sorted;
+    }
+
+    private static class CenterComparator implements Comparator<Tile>{
+	private final boolean xAxis;
+	CenterComparator(boolean xAxis){
+	    this.xAxis = xAxis;
+	}
+	public int compare(Tile a, Tile b){
+	    return xAxis ?
+		Double.compare(a.minX + a.maxX, b.minX + b.maxX) :
+		Double.compare(a.minY + a.maxY, b.minY + b.maxY);
+	}
+    }
+}
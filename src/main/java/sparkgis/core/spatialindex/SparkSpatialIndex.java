@@ -1,12 +1,12 @@
 package sparkgis.core.spatialindex;
 /* Java imports */
 import java.util.List;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.io.Serializable;
 /* JTS imports */
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.WKTReader;
-import com.vividsolutions.jts.io.WKBReader;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.GeometryFactory; 
 import com.vividsolutions.jts.geom.PrecisionModel;
@@ -15,7 +15,10 @@ import com.vividsolutions.jts.index.SpatialIndex;
 import com.vividsolutions.jts.io.ParseException;
 /* Local imports */
 import sparkgis.data.Tile;
+import sparkgis.data.EnvelopeScanner;
 import sparkgis.coordinator.SparkGISContext;
+import sparkgis.core.partitioning.HilbertCurve;
+import sparkgis.core.partitioning.UniformGrid;
 
 public class SparkSpatialIndex implements Serializable{
     
@@ -26,40 +29,102 @@ public class SparkSpatialIndex implements Serializable{
     private final String DASH = "-";
     private final String BAR = "|";
     
+    /* tile index for partitions */
+    private PackedTileIndex tileIndex;
+    /* geometry index, see build(Iterable<String>, int) */
     private STRtree spidx;
+    /* range based tile assignment, used instead of spidx if set */
+    private HilbertCurve hilbertCurve;
+    /* arithmetic tile assignment, used instead of spidx if set */
+    private UniformGrid grid;
+    /* regions owned by tiles for duplicate avoidance, see buildReferenceRegions() */
+    private long[] refTileIDs;
+    private double[] refRegions;
     /**
-     * Two-stage process
-     * 1: Generate tiles from partitions
-     * 2: Build index from tiles
-     * Input: Tab Seperated list of Strings: id, minx, miny, maxx, maxy
+     * Build packed tile index from partitions
+     * Input: Tiles with id, minx, miny, maxx, maxy
      */
     public void build(List<Tile> partitions){
-	
-	GeometryFactory gf = new GeometryFactory(new PrecisionModel(), 0);
-	WKTReader reader = new WKTReader(gf);
-	spidx = new STRtree();
+	List<Tile> tiles = new ArrayList<Tile>(partitions.size());
+	for (Tile tile:partitions){
+	    if (tile != null)
+		tiles.add(tile);
+	}
+	tileIndex = new PackedTileIndex(tiles);
+    }
+    /**
+     * Build index from Hilbert curve partitioning. Tiles are assigned by 
+     * binary search over curve key ranges instead of querying an STRtree
+     */
+    public void build(HilbertCurve curve){
+	this.hilbertCurve = curve;
+    }
 
+    /**
+     * Build index from uniform grid partitioning. Tiles are assigned by
+     * arithmetic on grid origin and step instead of querying an STRtree
+     */
+    public void build(UniformGrid grid){
+	this.grid = grid;
+    }
+
+    /**
+     * Compute region owned by each tile for reference point duplicate avoidance
+     * Owned region of a tile is [min, max) along each axis, tiles on the boundary
+     * of partitioned space extend to infinity. Required only for tiles indexed
+     * with build(List<Tile>), owned regions of uniform grids are computed arithmetically
+     * @param partitions Non-overlapping tiles covering whole space
+     */
+    public void buildReferenceRegions(List<Tile> partitions){
+	double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+	double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+	List<Tile> tiles = new ArrayList<Tile>(partitions.size());
 	for (Tile tile:partitions){
-	    if (tile != null){		
-		String geomString = shapeBegin + tile.minX + SPACE + tile.minY + COMMA
-		    + tile.minX + SPACE + tile.maxY + COMMA
-		    + tile.maxX + SPACE + tile.maxY + COMMA
-		    + tile.maxX + SPACE + tile.minY + COMMA
-		    + tile.minX + SPACE + tile.minY + shapeEnd;		
-		/* create tile geometry */
-		try{
-		    Geometry geom = reader.read(geomString);
-		    /* 
-		     * IndexedGeometry.java object with key and geometry
-		     * key can be used later when doing query and getting intersecting polygon from index: Job5
-		     */
-		    IndexedGeometry iGeom = new IndexedGeometry(tile.tileID, geom);
-		    /* add to index */
-		    spidx.insert(geom.getEnvelopeInternal(), iGeom);
-		}catch (ParseException e) {e.printStackTrace();}
-	    }
+	    if (tile == null)
+		continue;
+	    tiles.add(tile);
+	    minX = Math.min(minX, tile.minX);
+	    minY = Math.min(minY, tile.minY);
+	    maxX = Math.max(maxX, tile.maxX);
+	    maxY = Math.max(maxY, tile.maxY);
+	}
+	refTileIDs = new long[tiles.size()];
+	for (int i=0; i<tiles.size(); ++i)
+	    refTileIDs[i] = tiles.get(i).tileID;
+	Arrays.sort(refTileIDs);
+	refRegions = new double[4*tiles.size()];
+	for (Tile tile:tiles){
+	    final int i = 4*Arrays.binarySearch(refTileIDs, tile.tileID);
+	    refRegions[i] = (tile.minX == minX) ? Double.NEGATIVE_INFINITY : tile.minX;
+	    refRegions[i+1] = (tile.minY == minY) ? Double.NEGATIVE_INFINITY : tile.minY;
+	    refRegions[i+2] = (tile.maxX == maxX) ? Double.POSITIVE_INFINITY : tile.maxX;
+	    refRegions[i+3] = (tile.maxY == maxY) ? Double.POSITIVE_INFINITY : tile.maxY;
+	}
+    }
+
+    /**
+     * @param region Output: minX, minY, maxX, maxY of region owned by given tile
+     * @return False if owned regions are not available for this index
+     */
+    public boolean getReferenceRegion(long tileID, double[] region){
+	if (grid != null){
+	    grid.getOwnedRegion(tileID, region);
+	    return true;
 	}
+	if (refRegions == null)
+	    return false;
+	final int idx = Arrays.binarySearch(refTileIDs, tileID);
+	if (idx < 0)
+	    return false;
+	System.arraycopy(refRegions, 4*idx, region, 0, 4);
+	return true;
     }
+
+    /**
+     * @return Uniform grid used for tile assignment OR null if tiles are indexed otherwise
+     */
+    public UniformGrid getUniformGrid(){return this.grid;}
+    
     /**
      * Build index from list of strings
      */
@@ -85,25 +150,11 @@ public class SparkSpatialIndex implements Serializable{
      * @return List of IDs of index tiles overlapped by this polygon
      */
     public List<Long> getIntersectingIndexTiles(String polygonString){
-	List<Long> tileIDs = new ArrayList<Long>();
-	try{
-	    /* create geometry for this polygon */
-	    WKTReader reader = new WKTReader();
-	    Geometry geometry = reader.read(polygonString);
-	    Envelope env = geometry.getEnvelopeInternal();
-	    /* get all intersecting polygons from index for this geometry */
-	    if (env != null){
-		List<?> list = spidx.query(env);
-		
-		for (Object o : list){
-		    IndexedGeometry iGeom = (IndexedGeometry) o;		    
-		    tileIDs.add(iGeom.getKey());
-		}
-	    }
-	}catch (ParseException e) {
-	    e.printStackTrace();
-	}
-	return tileIDs;
+	/* only envelope is required: scan coordinates without creating geometry */
+	final double[] env = new double[4];
+	if (!EnvelopeScanner.scanWKT(polygonString, env))
+	    return new ArrayList<Long>();
+	return queryTiles(env[0], env[1], env[2], env[3]);
     }
 
     /**
@@ -111,24 +162,63 @@ public class SparkSpatialIndex implements Serializable{
      * @return List of IDs of index tiles overlapped by this polygon
      */
     public List<Long> getIntersectingIndexTiles(byte[] polygonByteArray){
-	List<Long> tileIDs = new ArrayList<Long>();
-	try{
-	    /* create geometry for this polygon */
-	    WKBReader reader = new WKBReader();
-	    Geometry geometry = reader.read(polygonByteArray);
-	    Envelope env = geometry.getEnvelopeInternal();
-	    /* get all intersecting polygons from index for this geometry */
-	    if (env != null){
-		List<?> list = spidx.query(env);
-		
-		for (Object o : list){
-		    IndexedGeometry iGeom = (IndexedGeometry) o;		    
-		    tileIDs.add(iGeom.getKey());
+	final double[] env = new double[4];
+	if (!EnvelopeScanner.scanWKB(polygonByteArray, env))
+	    return new ArrayList<Long>();
+	return queryTiles(env[0], env[1], env[2], env[3]);
+    }
+
+    /**
+     * Allocation free tile assignment of a precomputed MBB
+     * @param out Output tile IDs, filled up to its length (reused by caller)
+     * @return Number of index tiles overlapped by MBB. If it exceeds out.length,
+     * out is incomplete and the query has to be repeated with a larger array
+     */
+    public int getIntersectingIndexTiles(Tile mbb, long[] out){
+	return queryTiles(mbb.minX, mbb.minY, mbb.maxX, mbb.maxY, out);
+    }
+
+    private List<Long> queryTiles(double minX, double minY, double maxX, double maxY){
+	long[] out = new long[16];
+	int count = queryTiles(minX, minY, maxX, maxY, out);
+	if (count > out.length){
+	    out = new long[count];
+	    queryTiles(minX, minY, maxX, maxY, out);
+	}
+	List<Long> tileIDs = new ArrayList<Long>(count);
+	for (int i=0; i<count; ++i)
+	    tileIDs.add(out[i]);
+	return tileIDs;
+    }
+
+    private int queryTiles(double minX, double minY, double maxX, double maxY, long[] out){
+	if (grid != null){
+	    final int[] range = new int[4];
+	    if (!grid.getCellRange(minX, minY, maxX, maxY, range))
+		return 0;
+	    int count = 0;
+	    for (int x=range[0]; x<=range[2]; ++x){
+		for (int y=range[1]; y<=range[3]; ++y, ++count){
+		    if (count < out.length)
+			out[count] = grid.getTileID(x, y);
 		}
 	    }
-	}catch (ParseException e) {
-	    e.printStackTrace();
+	    return count;
 	}
-	return tileIDs;
+	if (hilbertCurve != null)
+	    return hilbertCurve.getIntersectingTiles(minX, minY, maxX, maxY, out);
+	if (tileIndex != null)
+	    return tileIndex.query(minX, minY, maxX, maxY, out);
+	return copy(spidx.query(new Envelope(minX, maxX, minY, maxY)), out);
+    }
+
+    /**
+     * Copy tile IDs of indexed tiles (IndexedGeometry) to out
+     * @return Number of tile IDs
+     */
+    private static int copy(List<?> tiles, long[] out){
+	for (int i=0; i<Math.min(tiles.size(), out.length); ++i)
+	    out[i] = ((IndexedGeometry)tiles.get(i)).getKey();
+	return tiles.size();
     }
 }
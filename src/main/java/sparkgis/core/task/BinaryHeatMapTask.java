@@ -2,16 +2,19 @@ package sparkgis.core.task;
 /* Java imports */
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.concurrent.Callable;
 /* Spark imports */
 import org.apache.spark.api.java.JavaRDD;
 /* Local imports */
 import sparkgis.enums.HMType;
 import sparkgis.data.TileStats;
+import sparkgis.data.TileDistribution;
 import sparkgis.data.DataConfig;
 import sparkgis.data.BinaryDataConfig;
 import sparkgis.enums.Predicate;
 import sparkgis.SparkGISConfig;
+import sparkgis.core.SpatialTiling;
 import sparkgis.coordinator.SparkGISContext;
 import sparkgis.pia.SparkSpatialJoinHMBinary;
 
@@ -21,22 +24,44 @@ public class BinaryHeatMapTask extends Task implements Callable<String>{
     
     private final List<String> algos;
     private final Predicate predicate;
-    private final HMType type;
+    /* metrics computed by one join, one heatmap per metric */
+    private final List<HMType> types;
     private final String result_analysis_exe_id;
 
     private int algoCount;
     
+    public BinaryHeatMapTask(SparkGISContext sgc,
+			     String caseID,
+			     List<String> algos,
+			     Predicate predicate,
+			     HMType hmType){
+	this(sgc, caseID, algos, predicate, hmType, null);
+    }
+
     public BinaryHeatMapTask(SparkGISContext sgc,
 			     String caseID,
 			     List<String> algos,
 			     Predicate predicate,
 			     HMType hmType,
 			     String result_analysis_exe_id){
+	this(sgc, caseID, algos, predicate, Collections.singletonList(hmType), result_analysis_exe_id);
+    }
+
+    /**
+     * Multi-metric mode: all metrics are computed by a single join per algorithm pair
+     * @param hmTypes Metrics, at least one
+     */
+    public BinaryHeatMapTask(SparkGISContext sgc,
+			     String caseID,
+			     List<String> algos,
+			     Predicate predicate,
+			     List<HMType> hmTypes,
+			     String result_analysis_exe_id){
 	super(sgc, caseID);
 	
 	this.algos = algos;
 	this.predicate = predicate;
-	this.type = hmType;
+	this.types = hmTypes;
 	algoCount = algos.size();
 	this.result_analysis_exe_id = result_analysis_exe_id;
     }
@@ -45,19 +70,37 @@ public class BinaryHeatMapTask extends Task implements Callable<String>{
      * Each HeatMapTask consists of 2 steps
      *   1. Generate configurations for algorithm pairs of input data (parallel)
      *   2. Generate heatmap from configurations
+     * More than two algorithms are handed to HeatMapTask, which joins all pairs
+     * in a single pass (multi-way join) instead of one binary join per pair
      */
     @Override
     public String call(){
-	List<JavaRDD<TileStats>> results = new ArrayList<JavaRDD<TileStats>>();
+	if (algoCount > 2)
+	    return new HeatMapTask(sgc, super.data, algos, predicate, types).call();
+
+	/* per algorithm pair, per metric */
+	List<List<JavaRDD<TileStats>>> results = new ArrayList<List<JavaRDD<TileStats>>>();
+	/* per algorithm pair, written only if configured */
+	final boolean withDistributions = sgc.getJobConf().isTileDistributions();
+	List<List<TileDistribution>> distributions = new ArrayList<List<TileDistribution>>();
 	
-	List<BinaryDataConfig> configs = sgc.prepareBinaryData(this.generateDataPaths());
+	List<BinaryDataConfig> configs = sgc.prepareBinaryData(this.generateDataPaths(), this.generatePreparedDataPaths());
 
+	/* tiles and tiled data shared by all algorithm pairs */
+	final SpatialTiling<byte[]> tiling = generateBinaryTiling(configs, predicate);
 	final List<Integer> pairs = generatePairs(algoCount);
+	List<String> pairNames = new ArrayList<String>();
 	for (int i=0; i<pairs.size(); i+=2){
 	    /* Step-2: Generate heatmap from configurations */
-	    if ((configs.get(i) != null) && (configs.get(i+1) != null)){
+	    final BinaryDataConfig config1 = configs.get(pairs.get(i));
+	    final BinaryDataConfig config2 = configs.get(pairs.get(i+1));
+	    if ((config1 != null) && (config2 != null)){
 		/* generate heatmap based from algo1 and algo2 data configurations */
-		results.add(generateHeatMap(configs.get(i), configs.get(i+1)));
+		final List<TileDistribution> pairDistributions =
+		    withDistributions ? new ArrayList<TileDistribution>() : null;
+		results.add(generateHeatMap(config1, config2, tiling, pairDistributions));
+		pairNames.add(algos.get(pairs.get(i)) + "-" + algos.get(pairs.get(i+1)));
+		distributions.add(pairDistributions);
 	    }
 	    else
 		System.out.println("Unexpected data configurations for caseID:"+super.data);
@@ -74,16 +117,19 @@ public class BinaryHeatMapTask extends Task implements Callable<String>{
 	
 	String caseID = configs.get(0).getID();
 	String orig_analysis_exe_id = algos.get(0);
-	String title = "Spark-" + type.strValue + "-";
+	String title = "Spark-" + toString(types) + "-";
 	for (String algo:algos)
 	    title = title + algo + ":";
 	// remove last ':' from tile
 	title = title.substring(0, title.length()-1);
 	String ret = "";
 
-	for (JavaRDD<TileStats> result:results){
-	    result.saveAsTextFile(resultsDir + super.data);
-	}
+	/* one output directory per metric and algorithm pair if more than one */
+	saveHeatMaps(resultsDir + super.data, results, pairNames, types);
+	if (withDistributions)
+	    saveDistributions(resultsDir + super.data, distributions, pairNames);
+	if (tiling != null)
+	    tiling.unpersist();
 	return resultsDir;
     }
 
@@ -101,16 +147,36 @@ public class BinaryHeatMapTask extends Task implements Callable<String>{
 	return dataPaths;
     }
     
+    /**
+     * Generate HDFS string paths for prepared datasets
+     * @return null if prepared datasets are not configured
+     */
+    private List<String> generatePreparedDataPaths(){
+	if (SparkGISConfig.hdfsPreparedData == null)
+	    return null;
+	List<String> preparedPaths = new ArrayList<String>();
+	final String preparedDir = hdfsPrefix + SparkGISConfig.hdfsPreparedData;
+
+	for (int i=0; i<algoCount; ++i){
+	    preparedPaths.add(preparedDir + "/" + algos.get(i) + "/" + super.data);
+	}
+	return preparedPaths;
+    }
+    
     /**
      * Stage-2: Generate heatmap from data configurations
      */
-    private JavaRDD<TileStats> generateHeatMap(BinaryDataConfig config1, BinaryDataConfig config2){
+    private List<JavaRDD<TileStats>> generateHeatMap(BinaryDataConfig config1,
+					       BinaryDataConfig config2,
+					       SpatialTiling<byte[]> tiling,
+					       List<TileDistribution> distributions){
 	SparkSpatialJoinHMBinary heatmap1 =
 	    new SparkSpatialJoinHMBinary(sgc.getJobConf(),
 					 config1,
 					 config2,
 					 predicate,
-					 type);
-	return heatmap1.execute();
+					 types,
+					 tiling);
+	return heatmap1.executeAll(distributions);
     }
 }
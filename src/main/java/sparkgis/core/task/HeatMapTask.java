@@ -2,15 +2,24 @@ package sparkgis.core.task;
 /* Java imports */
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.concurrent.Callable;
 /* Spark imports */
+import scala.Tuple2;
 import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaPairRDD;
 /* Local imports */
 import sparkgis.enums.HMType;
 import sparkgis.data.TileStats;
+import sparkgis.data.TileDistribution;
+import sparkgis.data.TileAggregate;
 import sparkgis.data.DataConfig;
+import sparkgis.data.SpatialObject;
 import sparkgis.enums.Predicate;
 import sparkgis.SparkGISConfig;
+import sparkgis.pia.Coefficient;
+import sparkgis.core.SpatialTiling;
+import sparkgis.core.SparkMultiSpatialJoin;
 import sparkgis.coordinator.SparkGISContext;
 import sparkgis.pia.SparkSpatialJoinHM_Cogroup;
 
@@ -20,7 +29,8 @@ public class HeatMapTask extends Task implements Callable<String>{
     
     private final List<String> algos;
     private final Predicate predicate;
-    private final HMType type;
+    /* metrics computed by one join, one heatmap per metric */
+    private final List<HMType> types;
 
     private int algoCount;
     
@@ -29,11 +39,23 @@ public class HeatMapTask extends Task implements Callable<String>{
 		       List<String> algos,
 		       Predicate predicate,
 		       HMType hmType){
+	this(sgc, caseID, algos, predicate, Collections.singletonList(hmType));
+    }
+
+    /**
+     * Multi-metric mode: all metrics are computed by a single join per algorithm pair
+     * @param hmTypes Metrics, at least one
+     */
+    public HeatMapTask(SparkGISContext sgc,
+		       String caseID,
+		       List<String> algos,
+		       Predicate predicate,
+		       List<HMType> hmTypes){
 	super(sgc, caseID);
 	
 	this.algos = algos;
 	this.predicate = predicate;
-	this.type = hmType;
+	this.types = hmTypes;
 	algoCount = algos.size();
     }
     
@@ -44,16 +66,45 @@ public class HeatMapTask extends Task implements Callable<String>{
      */
     @Override
     public String call(){
-	List<JavaRDD<TileStats>> results = new ArrayList<JavaRDD<TileStats>>();
+	/* per algorithm pair, per metric */
+	List<List<JavaRDD<TileStats>>> results = new ArrayList<List<JavaRDD<TileStats>>>();
+	/* per algorithm pair, written only if configured */
+	final boolean withDistributions = sgc.getJobConf().isTileDistributions();
+	List<List<TileDistribution>> distributions = new ArrayList<List<TileDistribution>>();
 	
-	List<DataConfig> configs = sgc.prepareData(this.generateDataPaths());
+	List<DataConfig> configs =
+	    sgc.prepareData(this.generateDataPaths(), this.generatePreparedDataPaths());
 
+	/* tiles and tiled data shared by all algorithm pairs */
+	final SpatialTiling<SpatialObject> tiling = generateTiling(configs, predicate);
+	/*
+	 * all algorithm pairs joined in a single pass over tiles
+	 * (multi-way join does not compute tile dice)
+	 */
+	final JavaPairRDD<Tuple2<Integer, Integer>, TileAggregate> multiResults =
+	    (isMultiway(configs, tiling) && !types.contains(HMType.TILEDICE)) ?
+	    new SparkMultiSpatialJoin(sgc.getJobConf(), tiling, predicate).executeAggregate().cache() : null;
 	final List<Integer> pairs = generatePairs(algoCount);
+	List<String> pairNames = new ArrayList<String>();
 	for (int i=0; i<pairs.size(); i+=2){
 	    /* Step-2: Generate heatmap from configurations */
-	    if ((configs.get(i) != null) && (configs.get(i+1) != null)){
+	    final DataConfig<SpatialObject> config1 = spatialConfig(configs, pairs.get(i));
+	    final DataConfig<SpatialObject> config2 = spatialConfig(configs, pairs.get(i+1));
+	    if ((config1 != null) && (config2 != null)){
 		/* generate heatmap based from algo1 and algo2 data configurations */
-		results.add(generateHeatMap(configs.get(i), configs.get(i+1)));
+		final List<TileDistribution> pairDistributions =
+		    withDistributions ? new ArrayList<TileDistribution>() : null;
+		if (multiResults != null)
+		    results.add(Coefficient.executeAggregated(
+							      SparkMultiSpatialJoin.getPairAggregates(multiResults, pairs.get(i), pairs.get(i+1)),
+						    tiling.getTiles(),
+						    types,
+						    pairDistributions
+						    ));
+		else
+		    results.add(generateHeatMap(config1, config2, tiling, pairDistributions));
+		pairNames.add(algos.get(pairs.get(i)) + "-" + algos.get(pairs.get(i+1)));
+		distributions.add(pairDistributions);
 	    }
 	    else
 		System.out.println("Unexpected data configurations for caseID:"+super.data);
@@ -70,16 +121,21 @@ public class HeatMapTask extends Task implements Callable<String>{
 	
 	String caseID = configs.get(0).getID();
 	String orig_analysis_exe_id = algos.get(0);
-	String title = "Spark-" + type.strValue + "-";
+	String title = "Spark-" + toString(types) + "-";
 	for (String algo:algos)
 	    title = title + algo + ":";
 	// remove last ':' from tile
 	title = title.substring(0, title.length()-1);
 	String ret = "";
 
-	for (JavaRDD<TileStats> result:results){
-	    result.saveAsTextFile(resultsDir + super.data);
-	}
+	/* one output directory per metric and algorithm pair if more than one */
+	saveHeatMaps(resultsDir + super.data, results, pairNames, types);
+	if (withDistributions)
+	    saveDistributions(resultsDir + super.data, distributions, pairNames);
+	if (multiResults != null)
+	    multiResults.unpersist();
+	if (tiling != null)
+	    tiling.unpersist();
 	return resultsDir;
     }
 
@@ -97,17 +153,35 @@ public class HeatMapTask extends Task implements Callable<String>{
 	return dataPaths;
     }
     
+    /**
+     * Generate HDFS string paths for prepared datasets
+     * @return null if prepared datasets are not configured
+     */
+    private List<String> generatePreparedDataPaths(){
+	if (SparkGISConfig.hdfsPreparedData == null)
+	    return null;
+	List<String> preparedPaths = new ArrayList<String>();
+	final String preparedDir = hdfsPrefix + SparkGISConfig.hdfsPreparedData;
+
+	for (int i=0; i<algoCount; ++i){
+	    preparedPaths.add(preparedDir + "/" + algos.get(i) + "/" + super.data);
+	}
+	return preparedPaths;
+    }
+    
     /**
      * Stage-2: Generate heatmap from data configurations
      */
-    private JavaRDD<TileStats> generateHeatMap(DataConfig config1, DataConfig config2){
+    private List<JavaRDD<TileStats>> generateHeatMap(DataConfig<SpatialObject> config1, DataConfig<SpatialObject> config2,
+						     SpatialTiling<SpatialObject> tiling, List<TileDistribution> distributions){
 	SparkSpatialJoinHM_Cogroup heatmap1 =
 	    new SparkSpatialJoinHM_Cogroup(sgc.getJobConf(),
 					   config1,
 					   config2,
 					   predicate,
-					   type
+					   types,
+					   tiling
 					   );
-	return heatmap1.execute();
+	return heatmap1.executeAll(distributions);
     }
 }
@@ -8,11 +8,15 @@ import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaPairRDD;
 /* Local imports */
 import sparkgis.data.DataConfig;
+import sparkgis.data.JoinResult;
+import sparkgis.data.SpatialObject;
 import sparkgis.enums.Predicate;
+import sparkgis.core.SpatialTiling;
 import sparkgis.core.SparkSpatialJoin;
+import sparkgis.core.SparkMultiSpatialJoin;
 import sparkgis.coordinator.SparkGISContext;
 
-public class SpatialJoinTask extends Task implements Callable<JavaRDD<Iterable<String>>>{
+public class SpatialJoinTask extends Task implements Callable<JavaRDD<Iterable<JoinResult>>>{
 
     private final List<String> datasetPaths;
     private final Predicate predicate;
@@ -39,22 +43,29 @@ public class SpatialJoinTask extends Task implements Callable<JavaRDD<Iterable<S
      *   2. Perform pairwise spatial join on all datasets
      */
     @Override
-    public JavaRDD<Iterable<String>> call(){
+    public JavaRDD<Iterable<JoinResult>> call(){
 	List<DataConfig> configs = sgc.prepareData(this.datasetPaths);
 
 	return call(configs);
     }
 
-    public JavaRDD<Iterable<String>> call(List<DataConfig> configs){
+    public JavaRDD<Iterable<JoinResult>> call(List<DataConfig> configs){
 	SparkSpatialJoin spj = null;
 	/* generate pairs of all datasets */
 	final List<Integer> pairs = super.generatePairs(configs.size());
-	List<JavaRDD<Iterable<String>>> results = new ArrayList<JavaRDD<Iterable<String>>>(pairs.size());
+	List<JavaRDD<Iterable<JoinResult>>> results = new ArrayList<JavaRDD<Iterable<JoinResult>>>(pairs.size());
+	/* tiles and tiled data shared by all pairs */
+	final SpatialTiling<SpatialObject> tiling = generateTiling(configs, predicate);
+	/* all pairs joined in a single pass over tiles */
+	if (isMultiway(configs, tiling))
+	    return new SparkMultiSpatialJoin(sgc.getJobConf(), tiling, predicate).execute().values();
 	
 	for (int i=0; i<pairs.size(); i+=2){
 	    /* perform spatial join from configuration pairs */
-	    if ((configs.get(i) != null) && (configs.get(i+1) != null)){
-		spj = new SparkSpatialJoin(sgc.getJobConf(), configs.get(i), configs.get(i+1), predicate);
+	    final DataConfig<SpatialObject> config1 = spatialConfig(configs, pairs.get(i));
+	    final DataConfig<SpatialObject> config2 = spatialConfig(configs, pairs.get(i+1));
+	    if ((config1 != null) && (config2 != null)){
+		spj = new SparkSpatialJoin(sgc.getJobConf(), config1, config2, predicate, tiling);
 		results.add(spj.execute());
 	    }
 	    else
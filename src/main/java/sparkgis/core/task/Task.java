@@ -2,7 +2,18 @@ package sparkgis.core.task;
 /* Java imports */
 import java.util.List;
 import java.util.ArrayList;
+/* Spark imports */
+import org.apache.spark.api.java.JavaRDD;
 /* Local imports*/
+import sparkgis.enums.HMType;
+import sparkgis.enums.Predicate;
+import sparkgis.enums.JoinEngine;
+import sparkgis.data.TileStats;
+import sparkgis.data.TileDistribution;
+import sparkgis.data.DataConfig;
+import sparkgis.data.SpatialObject;
+import sparkgis.data.BinaryDataConfig;
+import sparkgis.core.SpatialTiling;
 import sparkgis.coordinator.SparkGISContext;
 
 public class Task{
@@ -24,4 +35,106 @@ public class Task{
     	}
     	return ret;
     }
+
+    /**
+     * Single tiling shared by all pairs of given configurations so that each
+     * dataset is shuffled to tiles only once
+     * @param configs Configurations created by SparkGISContext.prepareData()
+     * @param predicate Join predicate of all joins sharing tiling
+     * @return null if less than 2 configurations are available
+     */
+    @SuppressWarnings("unchecked")
+    protected SpatialTiling<SpatialObject> generateTiling(List<DataConfig> configs, Predicate predicate){
+	List<DataConfig<SpatialObject>> available = new ArrayList<DataConfig<SpatialObject>>();
+	for (DataConfig<?> config : configs){
+	    /* prepareData() only creates configurations of spatial objects */
+	    if (config != null)
+		available.add((DataConfig<SpatialObject>)config);
+	}
+	if (available.size() < 2)
+	    return null;
+	return new SpatialTiling<SpatialObject>(sgc.getJobConf(), available, predicate);
+    }
+
+    /**
+     * @param configs Configurations created by SparkGISContext.prepareData()
+     * @return Configuration at given index, null if not available
+     */
+    @SuppressWarnings("unchecked")
+    protected static DataConfig<SpatialObject> spatialConfig(List<DataConfig> configs, int index){
+	/* prepareData() only creates configurations of spatial objects */
+	return (DataConfig<SpatialObject>)configs.get(index);
+    }
+
+    /**
+     * Same as generateTiling for binary (w.k.b) datasets
+     */
+    protected SpatialTiling<byte[]> generateBinaryTiling(List<BinaryDataConfig> configs, Predicate predicate){
+	List<BinaryDataConfig> available = new ArrayList<BinaryDataConfig>();
+	for (BinaryDataConfig config : configs){
+	    if (config != null)
+		available.add(config);
+	}
+	if (available.size() < 2)
+	    return null;
+	return new SpatialTiling<byte[]>(sgc.getJobConf(), available, predicate);
+    }
+
+    /**
+     * Multi-way join (all pairs in a single pass) is used for more than two
+     * datasets if all of them are available i.e. tiling indexes match configs.
+     * Multi-way join is native only, JTS engine joins pairwise
+     */
+    protected boolean isMultiway(List<DataConfig> configs, SpatialTiling<?> tiling){
+	if (sgc.getJobConf().getJoinEngine() == JoinEngine.JTS)
+	    return false;
+	return (tiling != null) && (configs.size() > 2) && (tiling.getConfigs().size() == configs.size());
+    }
+
+    /**
+     * Save heatmaps of all algorithm pairs and metrics
+     * Output: dir [/metric if more than one metric] [/pair if more than one pair]
+     * @param results Heatmaps per pair, per metric (same order as pairNames and hmTypes)
+     */
+    protected void saveHeatMaps(String dir,
+				List<List<JavaRDD<TileStats>>> results,
+				List<String> pairNames,
+				List<HMType> hmTypes){
+	for (int i=0; i<results.size(); ++i){
+	    for (int m=0; m<hmTypes.size(); ++m){
+		String path = dir;
+		if (hmTypes.size() > 1)
+		    path = path + "/" + hmTypes.get(m).strValue;
+		if (results.size() > 1)
+		    path = path + "/" + pairNames.get(i);
+		results.get(i).get(m).saveAsTextFile(path);
+	    }
+	}
+    }
+
+    /**
+     * Save per tile distributions of all algorithm pairs
+     * Output: dir/distribution [/pair if more than one pair]
+     * @param distributions Distributions per pair (same order as pairNames)
+     */
+    protected void saveDistributions(String dir,
+				     List<List<TileDistribution>> distributions,
+				     List<String> pairNames){
+	for (int i=0; i<distributions.size(); ++i){
+	    String path = dir + "/distribution";
+	    if (distributions.size() > 1)
+		path = path + "/" + pairNames.get(i);
+	    SparkGISContext.sparkContext.parallelize(distributions.get(i), 1).saveAsTextFile(path);
+	}
+    }
+
+    /**
+     * @return Names of given metrics joined by '+'
+     */
+    protected static String toString(List<HMType> hmTypes){
+	String ret = "";
+	for (HMType t : hmTypes)
+	    ret = (ret.length() == 0) ? t.strValue : ret + "+" + t.strValue;
+	return ret;
+    }
 }
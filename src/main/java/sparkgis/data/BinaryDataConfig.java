@@ -4,11 +4,6 @@ import java.io.Serializable;
 /* Spark imports */
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.Function;
-/* JTS imports */
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.WKBReader;
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.io.ParseException;
 
 /**
  * Contains all data components required for querying. Populated and returned by SparkPrepareData
@@ -42,24 +37,12 @@ public class BinaryDataConfig extends DataConfig<byte[]> implements Serializable
 
     /**
      * Minimum Bounding Box Extraction for binary spatial data
+     * Scans WKB coordinates without constructing geometry
      */
     class MBBExtractor implements Function<byte[], Tile>{
 	public Tile call(byte[] s){
-	    Tile ret = new Tile();
-	    try{
-		WKBReader reader = new WKBReader();
-		Geometry geometry = reader.read(s);
-		Envelope env = geometry.getEnvelopeInternal();
-		
-		if (env != null){
-		    ret.minX = env.getMinX();
-		    ret.minY = env.getMinY();
-		    ret.maxX = env.getMaxX();
-		    ret.maxY = env.getMaxY();
-		}
-	    }catch (ParseException e) {e.printStackTrace();}
-	
-	    return ret;
+	    Tile ret = EnvelopeScanner.getMBB(s);
+	    return (ret != null) ? ret : new Tile();
 	}
     }
 }
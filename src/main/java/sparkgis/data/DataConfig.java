@@ -1,5 +1,6 @@
 package sparkgis.data;
 /* Java imports */
+import java.util.List;
 import java.io.Serializable;
 /* Spark imports */
 import org.apache.spark.api.java.JavaRDD;
@@ -41,26 +42,68 @@ public abstract class DataConfig<T> implements Serializable
      * Preprocess spatial data for further spatial querying
      * (1) IO
      * (2) Extract MBBs
-     * (3) Extract Space parameters
+     * (3) Extract Space parameters i.e. bounds, object count and density histogram
+     * All space parameters are computed in a single Spark job
      */
     public void prepare(){
-	Tile spaceDims = extractMBBs().reduce(new Function2<Tile, Tile, Tile>(){
-		public Tile call (Tile t1, Tile t2){
-		    Tile ret = new Tile();
-		    ret.minX = (t1.minX < t2.minX) ? t1.minX : t2.minX;
-		    ret.minY = (t1.minY < t2.minY) ? t1.minY : t2.minY;
-		    ret.maxX = (t1.maxX > t2.maxX) ? t1.maxX : t2.maxX;
-		    ret.maxY = (t1.maxY > t2.maxY) ? t1.maxY : t2.maxY;
-		    ret.count = t1.count + t2.count;
-		    return ret;
+	SpaceAggregate spaceDims = extractMBBs().aggregate(
+	    new SpaceAggregate(),
+	    new Function2<SpaceAggregate, Tile, SpaceAggregate>(){
+		public SpaceAggregate call (SpaceAggregate agg, Tile t){
+		    agg.bounds.minX = (agg.bounds.minX < t.minX) ? agg.bounds.minX : t.minX;
+		    agg.bounds.minY = (agg.bounds.minY < t.minY) ? agg.bounds.minY : t.minY;
+		    agg.bounds.maxX = (agg.bounds.maxX > t.maxX) ? agg.bounds.maxX : t.maxX;
+		    agg.bounds.maxY = (agg.bounds.maxY > t.maxY) ? agg.bounds.maxY : t.maxY;
+		    agg.bounds.count++;
+		    agg.histogram.add(t);
+		    return agg;
+		}
+	    },
+	    new Function2<SpaceAggregate, SpaceAggregate, SpaceAggregate>(){
+		public SpaceAggregate call (SpaceAggregate a1, SpaceAggregate a2){
+		    a1.bounds.minX = (a1.bounds.minX < a2.bounds.minX) ? a1.bounds.minX : a2.bounds.minX;
+		    a1.bounds.minY = (a1.bounds.minY < a2.bounds.minY) ? a1.bounds.minY : a2.bounds.minY;
+		    a1.bounds.maxX = (a1.bounds.maxX > a2.bounds.maxX) ? a1.bounds.maxX : a2.bounds.maxX;
+		    a1.bounds.maxY = (a1.bounds.maxY > a2.bounds.maxY) ? a1.bounds.maxY : a2.bounds.maxY;
+		    a1.bounds.count += a2.bounds.count;
+		    a1.histogram.merge(a2.histogram);
+		    return a1;
 		}
 	    });
-	this.space.setMinX(spaceDims.minX);
-	this.space.setMinY(spaceDims.minY);
-	this.space.setMaxX(spaceDims.maxX);
-	this.space.setMaxY(spaceDims.maxY);
+	this.space.setMinX(spaceDims.bounds.minX);
+	this.space.setMinY(spaceDims.bounds.minY);
+	this.space.setMaxX(spaceDims.bounds.maxX);
+	this.space.setMaxY(spaceDims.bounds.maxY);
+
+	this.space.setSpaceObjects(spaceDims.bounds.count);
+	this.space.setDensityHistogram(spaceDims.histogram);
+    }
 
-	this.space.setSpaceObjects(spaceDims.count);
+    /**
+     * Random sample of object MBBs, used by data driven partitioners
+     * NOTE: prepare() must be called before calling this
+     * @param sampleSize Approximate number of MBBs to sample
+     */
+    public List<Tile> sampleMBBs(int sampleSize){
+	final long count = this.space.getSpaceObjects();
+	if (count <= sampleSize)
+	    return extractMBBs().collect();
+	return extractMBBs().sample(false, (double)sampleSize/count).collect();
+    }
+
+    /**
+     * Partial space parameters of a subset of data
+     */
+    static class SpaceAggregate implements Serializable{
+	final Tile bounds = new Tile();
+	final DensityHistogram histogram = new DensityHistogram();
+	SpaceAggregate(){
+	    bounds.minX = Double.MAX_VALUE;
+	    bounds.minY = Double.MAX_VALUE;
+	    bounds.maxX = -Double.MAX_VALUE;
+	    bounds.maxY = -Double.MAX_VALUE;
+	    bounds.count = 0;
+	}
     }
     
     /********************* Space Stuff *******************/
@@ -0,0 +1,132 @@
+package sparkgis.data;
+/* Java imports */
+import java.util.Map;
+import java.util.HashMap;
+import java.io.Serializable;
+
+/**
+ * Coarse, mergeable density histogram of spatial objects (MBB centers)
+ * Cells are squares of size 2^level aligned to origin so that histograms
+ * built independently (e.g. per data partition) can be merged exactly.
+ * Cell size starts at the scale of the first object and doubles whenever
+ * the number of non-empty cells exceeds maxCells
+ */
+public class DensityHistogram implements Serializable
+{
+    private static final double MAX_INDEX = (double)(1 << 30);
+    /* smallest normal double (Double.MIN_NORMAL) */
+    private static final double MIN_SIZE = 0x1.0p-1022;
+
+    private final int maxCells;
+    private int level = Integer.MIN_VALUE;
+    private final Map<Long, Long> cells = new HashMap<Long, Long>();
+
+    public DensityHistogram(){
+	this(1024);
+    }
+    public DensityHistogram(int maxCells){
+	this.maxCells = maxCells;
+    }
+
+    /**
+     * Add an object to histogram
+     * @param mbb MBB of spatial object
+     */
+    public void add(Tile mbb){
+	if (level == Integer.MIN_VALUE){
+	    /* initial cell size of the order of object size */
+	    final double size = Math.max(Math.max(mbb.maxX-mbb.minX, mbb.maxY-mbb.minY), MIN_SIZE);
+	    level = exponent(size);
+	}
+	final double x = (mbb.minX+mbb.maxX)/2;
+	final double y = (mbb.minY+mbb.maxY)/2;
+	/* keep cell indexes within int range */
+	while (Math.max(Math.abs(x), Math.abs(y)) / getCellSize() >= MAX_INDEX)
+	    coarsen();
+	increment(key(x/getCellSize(), y/getCellSize()), 1);
+	while (cells.size() > maxCells)
+	    coarsen();
+    }
+
+    /**
+     * Merge other histogram into this histogram
+     * @return this histogram
+     */
+    public DensityHistogram merge(DensityHistogram other){
+	if (other.level == Integer.MIN_VALUE)
+	    return this;
+	if (this.level == Integer.MIN_VALUE)
+	    this.level = other.level;
+	while (this.level < other.level)
+	    coarsen();
+	final int shift = this.level - other.level;
+	for (Map.Entry<Long, Long> e : other.cells.entrySet()){
+	    final long key = e.getKey();
+	    increment(key(cellX(key) >> shift, cellY(key) >> shift), e.getValue());
+	}
+	while (cells.size() > maxCells)
+	    coarsen();
+	return this;
+    }
+
+    /**
+     * Estimate number of objects in a region from histogram
+     * i.e. count of each cell weighted by fraction of cell area overlapped by region
+     */
+    public double estimateCount(Tile region){
+	final double cellSize = getCellSize();
+	double count = 0;
+	for (Map.Entry<Long, Long> e : cells.entrySet()){
+	    final double cMinX = cellX(e.getKey()) * cellSize;
+	    final double cMinY = cellY(e.getKey()) * cellSize;
+	    final double w = Math.min(cMinX + cellSize, region.maxX) - Math.max(cMinX, region.minX);
+	    final double h = Math.min(cMinY + cellSize, region.maxY) - Math.max(cMinY, region.minY);
+	    if (w > 0 && h > 0)
+		count += e.getValue() * (w / cellSize) * (h / cellSize);
+	}
+	return count;
+    }
+
+    /**
+     * @return Side length of a histogram cell
+     */
+    public double getCellSize(){return Math.pow(2, level);}
+    /**
+     * @return Non-empty cells. Key encodes cell x,y index (use cellX(), cellY()), value is object count
+     */
+    public Map<Long, Long> getCells(){return this.cells;}
+
+    public static int cellX(long key){return (int)(key >> 32);}
+    public static int cellY(long key){return (int)key;}
+
+    private static long key(double x, double y){
+	return key((int)Math.floor(x), (int)Math.floor(y));
+    }
+    private static long key(int cx, int cy){
+	return ((long)cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private void increment(long key, long count){
+	final Long current = cells.get(key);
+	cells.put(key, (current == null) ? count : current + count);
+    }
+
+    /* double cell size */
+    private void coarsen(){
+	Map<Long, Long> old = new HashMap<Long, Long>(cells);
+	cells.clear();
+	level++;
+	for (Map.Entry<Long, Long> e : old.entrySet()){
+	    final long key = e.getKey();
+	    increment(key(cellX(key) >> 1, cellY(key) >> 1), e.getValue());
+	}
+    }
+
+    /**
+     * Same as Math.getExponent for normal (positive) numbers
+     * @return Unbiased binary exponent of d
+     */
+    private static int exponent(double d){
+	return (int)((Double.doubleToRawLongBits(d) >>> 52) & 0x7ff) - 1023;
+    }
+}
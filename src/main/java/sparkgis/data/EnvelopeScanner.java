@@ -0,0 +1,281 @@
+package sparkgis.data;
+
+/**
+ * Streaming envelope extraction from WKT text or WKB bytes
+ * Coordinates are scanned in place and only min/max are tracked,
+ * no geometry (or any other object) is constructed
+ * Envelope is returned in env[]: minX, minY, maxX, maxY
+ */
+public class EnvelopeScanner
+{
+    /* WKB geometry types */
+    private static final int WKB_POINT = 1;
+    private static final int WKB_LINESTRING = 2;
+    private static final int WKB_POLYGON = 3;
+    /* EWKB flags */
+    private static final int EWKB_Z = 0x80000000;
+    private static final int EWKB_M = 0x40000000;
+    private static final int EWKB_SRID = 0x20000000;
+
+    /* exact powers of ten for fast path number parsing */
+    private static final double[] POW10 = {
+	1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+	1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /* 2^53: largest integer range represented exactly by double */
+    private static final long MAX_EXACT = 1L << 53;
+
+    /**
+     * @param wkt Well known text of a geometry
+     * @param env Output envelope (length 4)
+     * @return False if geometry is empty or text could not be scanned
+     */
+    public static boolean scanWKT(String wkt, double[] env){
+	reset(env);
+	int i = wkt.indexOf('(');
+	if (i < 0)
+	    return false;
+	try{
+	    return scanWKTCoordinates(wkt, i, env);
+	}catch (NumberFormatException e){
+	    return false;
+	}
+    }
+
+    private static boolean scanWKTCoordinates(String wkt, int i, double[] env){
+	final int len = wkt.length();
+	/* ordinate position within current coordinate tuple */
+	int ordinate = 0;
+	double x = 0;
+	while (i < len){
+	    final char c = wkt.charAt(i);
+	    if (c == ',' || c == '(' || c == ')'){
+		ordinate = 0;
+		++i;
+	    }
+	    else if (c == ' ' || c == '\t' || c == '\n' || c == '\r'){
+		++i;
+	    }
+	    else if (isNumberStart(c)){
+		final int end = numberEnd(wkt, i);
+		if (ordinate == 0)
+		    x = parseDouble(wkt, i, end);
+		else if (ordinate == 1)
+		    expand(env, x, parseDouble(wkt, i, end));
+		/* z and m ordinates are ignored */
+		ordinate++;
+		i = end;
+	    }
+	    else if (ordinate == 0 && Character.isLetter(c)){
+		/* nested type names (GEOMETRYCOLLECTION) and EMPTY */
+		while (i < len && Character.isLetter(wkt.charAt(i)))
+		    ++i;
+	    }
+	    else
+		return false;
+	}
+	return env[0] <= env[2];
+    }
+
+    /**
+     * @param wkb Well known binary (or PostGIS EWKB) of a geometry
+     * @param env Output envelope (length 4)
+     * @return False if geometry is empty or bytes could not be scanned
+     */
+    public static boolean scanWKB(byte[] wkb, double[] env){
+	reset(env);
+	try{
+	    scanWKBGeometry(wkb, 0, env);
+	}catch (ArrayIndexOutOfBoundsException e){
+	    return false;
+	}
+	return env[0] <= env[2];
+    }
+
+    /**
+     * Convenience method for MBB extraction
+     * @return MBB of given well known text OR null if it could not be extracted
+     */
+    public static Tile getMBB(String wkt){
+	final double[] env = new double[4];
+	return scanWKT(wkt, env) ? toTile(env) : null;
+    }
+
+    /**
+     * Convenience method for MBB extraction
+     * @return MBB of given well known binary OR null if it could not be extracted
+     */
+    public static Tile getMBB(byte[] wkb){
+	final double[] env = new double[4];
+	return scanWKB(wkb, env) ? toTile(env) : null;
+    }
+
+    private static Tile toTile(double[] env){
+	Tile t = new Tile();
+	t.minX = env[0];
+	t.minY = env[1];
+	t.maxX = env[2];
+	t.maxY = env[3];
+	return t;
+    }
+
+    /* @return position after scanned geometry */
+    private static int scanWKBGeometry(byte[] b, int pos, double[] env){
+	final boolean little = (b[pos] == 1);
+	int type = readInt(b, pos+1, little);
+	pos += 5;
+	int dims = 2;
+	if ((type & EWKB_Z) != 0) dims++;
+	if ((type & EWKB_M) != 0) dims++;
+	if ((type & EWKB_SRID) != 0) pos += 4;
+	type &= 0x0fffffff;
+	/* ISO types: 1000s Z, 2000s M, 3000s ZM */
+	final int iso = type / 1000;
+	if (iso == 1 || iso == 2) dims++;
+	else if (iso == 3) dims += 2;
+	type %= 1000;
+
+	switch (type){
+	case WKB_POINT:
+	    return scanWKBPoints(b, pos, 1, dims, little, env);
+	case WKB_LINESTRING:
+	    return scanWKBPoints(b, pos+4, readInt(b, pos, little), dims, little, env);
+	case WKB_POLYGON:{
+	    final int rings = readInt(b, pos, little);
+	    pos += 4;
+	    for (int r=0; r<rings; ++r)
+		pos = scanWKBPoints(b, pos+4, readInt(b, pos, little), dims, little, env);
+	    return pos;
+	}
+	default:{
+	    /* multi geometries and collections: each part has its own header */
+	    final int parts = readInt(b, pos, little);
+	    pos += 4;
+	    for (int p=0; p<parts; ++p)
+		pos = scanWKBGeometry(b, pos, env);
+	    return pos;
+	}
+	}
+    }
+
+    private static int scanWKBPoints(byte[] b, int pos, int n, int dims, boolean little, double[] env){
+	for (int k=0; k<n; ++k){
+	    final double x = Double.longBitsToDouble(readLong(b, pos, little));
+	    final double y = Double.longBitsToDouble(readLong(b, pos+8, little));
+	    /* empty point is encoded as NaN coordinates */
+	    if (x == x && y == y)
+		expand(env, x, y);
+	    pos += 8*dims;
+	}
+	return pos;
+    }
+
+    static int readInt(byte[] b, int pos, boolean little){
+	if (little)
+	    return (b[pos] & 0xff) | (b[pos+1] & 0xff) << 8 | (b[pos+2] & 0xff) << 16 | (b[pos+3] & 0xff) << 24;
+	return (b[pos] & 0xff) << 24 | (b[pos+1] & 0xff) << 16 | (b[pos+2] & 0xff) << 8 | (b[pos+3] & 0xff);
+    }
+
+    static long readLong(byte[] b, int pos, boolean little){
+	final long first = readInt(b, pos, little) & 0xffffffffL;
+	final long second = readInt(b, pos+4, little) & 0xffffffffL;
+	return little ? (second << 32) | first : (first << 32) | second;
+    }
+
+    private static void reset(double[] env){
+	env[0] = Double.POSITIVE_INFINITY;
+	env[1] = Double.POSITIVE_INFINITY;
+	env[2] = Double.NEGATIVE_INFINITY;
+	env[3] = Double.NEGATIVE_INFINITY;
+    }
+
+    private static void expand(double[] env, double x, double y){
+	if (x < env[0]) env[0] = x;
+	if (y < env[1]) env[1] = y;
+	if (x > env[2]) env[2] = x;
+	if (y > env[3]) env[3] = y;
+    }
+
+    static boolean isNumberStart(char c){
+	return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+    }
+
+    static int numberEnd(String s, int i){
+	final int len = s.length();
+	while (i < len){
+	    final char c = s.charAt(i);
+	    if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E')
+		++i;
+	    else
+		break;
+	}
+	return i;
+    }
+
+    /**
+     * Parse decimal number in s[start, end) without creating a substring
+     * Numbers with at most 15 significant digits and small exponents are parsed
+     * exactly (correctly rounded), anything else falls back to Double.parseDouble
+     * @throws NumberFormatException If s[start, end) has no digits (e.g. bare '-' or '.')
+     */
+    static double parseDouble(String s, int start, int end){
+	int i = start;
+	boolean negative = false;
+	char c = s.charAt(i);
+	if (c == '-' || c == '+'){
+	    negative = (c == '-');
+	    ++i;
+	}
+	long mantissa = 0;
+	int digits = 0;
+	int exponent = 0;
+	boolean fraction = false;
+	boolean anyDigit = false;
+	for (; i < end; ++i){
+	    c = s.charAt(i);
+	    if (c >= '0' && c <= '9'){
+		anyDigit = true;
+		if (mantissa != 0 || c != '0')
+		    digits++;
+		if (digits > 15)
+		    return Double.parseDouble(s.substring(start, end));
+		mantissa = mantissa*10 + (c - '0');
+		if (fraction)
+		    exponent--;
+	    }
+	    else if (c == '.' && !fraction)
+		fraction = true;
+	    else if ((c == 'e' || c == 'E') && anyDigit){
+		exponent += parseExponent(s, i+1, end);
+		i = end;
+	    }
+	    else
+		return Double.parseDouble(s.substring(start, end));
+	}
+	if (!anyDigit)
+	    throw new NumberFormatException(s.substring(start, end));
+	if (mantissa >= MAX_EXACT || exponent < -22 || exponent > 22)
+	    return Double.parseDouble(s.substring(start, end));
+	final double value = (exponent < 0) ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+	return negative ? -value : value;
+    }
+
+    private static int parseExponent(String s, int i, int end){
+	final int start = i;
+	boolean negative = false;
+	if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')){
+	    negative = (s.charAt(i) == '-');
+	    ++i;
+	}
+	if (i == end)
+	    throw new NumberFormatException(s.substring(start, end));
+	int exponent = 0;
+	for (; i < end && exponent < 10000; ++i){
+	    final char c = s.charAt(i);
+	    if (c < '0' || c > '9')
+		throw new NumberFormatException(s.substring(i, end));
+	    exponent = exponent*10 + (c - '0');
+	}
+	return negative ? -exponent : exponent;
+    }
+}
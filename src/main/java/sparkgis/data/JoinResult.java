@@ -0,0 +1,102 @@
+package sparkgis.data;
+/* Java imports */
+import java.io.Serializable;
+/* Local imports */
+import sparkgis.enums.OutputProjection;
+
+/**
+ * Resulting pair of spatial join with its statistics
+ * Object 1 is from first dataset of join, object 2 from second dataset
+ * Statistics are kept as primitives, string is formatted for output only (toString())
+ */
+public class JoinResult implements Serializable
+{
+    private final String id1;
+    private final String spatialData1;
+    private final String id2;
+    private final String spatialData2;
+    private final int tileID;
+    private final double area1;
+    private final double area2;
+    private final double intersectionArea;
+    private final double jaccard;
+    private final double dice;
+    /* false if statistics are not reported in output */
+    private final boolean stats;
+
+    /**
+     * @param id1 ID of object 1, null if not known (e.g. binary data)
+     * @param spatialData1 Geometry of object 1, null if not required
+     */
+    public JoinResult(String id1, String spatialData1, String id2, String spatialData2, int tileID,
+		      double area1, double area2, double intersectionArea, double jaccard, double dice){
+	this(id1, spatialData1, id2, spatialData2, tileID, area1, area2, intersectionArea, jaccard, dice, true);
+    }
+
+    /**
+     * @param stats If false, statistics are not reported in output (toString())
+     */
+    public JoinResult(String id1, String spatialData1, String id2, String spatialData2, int tileID,
+		      double area1, double area2, double intersectionArea, double jaccard, double dice,
+		      boolean stats){
+	this.id1 = id1;
+	this.spatialData1 = spatialData1;
+	this.id2 = id2;
+	this.spatialData2 = spatialData2;
+	this.tileID = tileID;
+	this.area1 = area1;
+	this.area2 = area2;
+	this.intersectionArea = intersectionArea;
+	this.jaccard = jaccard;
+	this.dice = dice;
+	this.stats = stats;
+    }
+
+    /**
+     * @param projection Fields of objects and statistics to be kept
+     */
+    public JoinResult(SpatialObject obj1, SpatialObject obj2, int tileID,
+		      double area1, double area2, double intersectionArea, double jaccard, double dice,
+		      OutputProjection projection){
+	this(obj1.getId(), (projection == OutputProjection.FULL) ? obj1.getSpatialData() : null,
+	     obj2.getId(), (projection == OutputProjection.FULL) ? obj2.getSpatialData() : null,
+	     tileID, area1, area2, intersectionArea, jaccard, dice,
+	     projection != OutputProjection.IDS);
+    }
+
+    public String getId1(){return this.id1;}
+    public String getSpatialData1(){return this.spatialData1;}
+    public String getId2(){return this.id2;}
+    public String getSpatialData2(){return this.spatialData2;}
+    public int getTileID(){return this.tileID;}
+    public double getArea1(){return this.area1;}
+    public double getArea2(){return this.area2;}
+    public double getIntersectionArea(){return this.intersectionArea;}
+    public double getJaccard(){return this.jaccard;}
+    public double getDice(){return this.dice;}
+    public boolean hasStats(){return this.stats;}
+
+    /**
+     * Output format:
+     * id-1 \t geometry-1 \t id-2 \t geometry-2 \t area-1 \t area-2 \t Jaccard \t Dice \t tileID
+     * (missing ids and geometries are skipped, statistics are skipped if not reported)
+     */
+    public String toString(){
+	StringBuilder sb = new StringBuilder();
+	appendObject(sb, id1, spatialData1);
+	appendObject(sb, id2, spatialData2);
+	if (stats){
+	    sb.append(area1).append('\t').append(area2).append('\t');
+	    sb.append(jaccard).append('\t').append(dice).append('\t');
+	}
+	sb.append(tileID);
+	return sb.toString();
+    }
+
+    private static void appendObject(StringBuilder sb, String id, String spatialData){
+	if (id != null && id.length() > 0)
+	    sb.append(id).append('\t');
+	if (spatialData != null)
+	    sb.append(spatialData).append('\t');
+    }
+}
@@ -0,0 +1,171 @@
+package sparkgis.data;
+/* Java imports */
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
+
+/**
+ * Spatial objects of a tile packed in a direct ByteBuffer (native byte order)
+ * for zero-copy native processing (JNIWrapper.resqueSPJPackedContext)
+ * Record: int setID, int objectID, int polygons,
+ *         per polygon: int rings, per ring: int points, points*(double x, double y)
+ * Coordinates are streamed from w.k.t text without constructing geometry.
+ * Buffer is reused (and grown if required) across tiles
+ */
+public class PackedRecords
+{
+    private static final int INT_BYTES = 4;
+    private static final int DOUBLE_BYTES = 8;
+
+    private ByteBuffer buffer;
+    private int count = 0;
+
+    public PackedRecords(int capacity){
+	buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Remove all records, buffer is kept for reuse
+     */
+    public void clear(){
+	buffer.clear();
+	count = 0;
+    }
+
+    /**
+     * Append a POLYGON or MULTIPOLYGON record
+     * @return False if geometry type is not supported or text could not be scanned,
+     *         nothing is appended in this case
+     */
+    public boolean add(int setID, int objectID, String wkt){
+	/* coordinate pair (16 bytes) takes at least 4 characters, counts at most 2 bytes per character */
+	ensureCapacity(3*INT_BYTES + 8*wkt.length());
+	final int start = buffer.position();
+	try{
+	    if (write(setID, objectID, wkt)){
+		count++;
+		return true;
+	    }
+	}catch (NumberFormatException e){}
+	buffer.position(start);
+	return false;
+    }
+
+    /**
+     * @return Direct buffer holding records in [0, size())
+     */
+    public ByteBuffer getBuffer(){return this.buffer;}
+    /**
+     * @return Number of bytes used by records
+     */
+    public int size(){return buffer.position();}
+    /**
+     * @return Number of records
+     */
+    public int getCount(){return this.count;}
+
+    private boolean write(int setID, int objectID, String wkt){
+	final int len = wkt.length();
+	int i = 0;
+	while (i < len && Character.isWhitespace(wkt.charAt(i)))
+	    ++i;
+	/* nesting depth of rings: POLYGON ((ring)), MULTIPOLYGON (((ring))) */
+	final int ringDepth;
+	if (wkt.regionMatches(true, i, "MULTIPOLYGON", 0, 12))
+	    ringDepth = 3;
+	else if (wkt.regionMatches(true, i, "POLYGON", 0, 7))
+	    ringDepth = 2;
+	else
+	    return false;
+
+	buffer.putInt(setID);
+	buffer.putInt(objectID);
+	final int polygonsPos = buffer.position();
+	buffer.putInt(0);
+	int polygons = 0, rings = 0, points = 0;
+	int ringsPos = -1, pointsPos = -1;
+	int depth = 0;
+	/* ordinate position within current coordinate tuple */
+	int ordinate = 0;
+	double x = 0;
+	i = wkt.indexOf('(', i);
+	if (i < 0)
+	    /* EMPTY */
+	    return true;
+	while (i < len){
+	    final char c = wkt.charAt(i);
+	    if (c == '('){
+		depth++;
+		if (depth == ringDepth-1){
+		    polygons++;
+		    rings = 0;
+		    ringsPos = buffer.position();
+		    buffer.putInt(0);
+		}
+		else if (depth == ringDepth){
+		    if (ringsPos < 0)
+			return false;
+		    rings++;
+		    points = 0;
+		    pointsPos = buffer.position();
+		    buffer.putInt(0);
+		}
+		else if (depth > ringDepth)
+		    return false;
+		ordinate = 0;
+		++i;
+	    }
+	    else if (c == ')'){
+		if (depth == ringDepth)
+		    buffer.putInt(pointsPos, points);
+		else if (depth == ringDepth-1)
+		    buffer.putInt(ringsPos, rings);
+		depth--;
+		ordinate = 0;
+		++i;
+	    }
+	    else if (c == ','){
+		ordinate = 0;
+		++i;
+	    }
+	    else if (c == ' ' || c == '\t' || c == '\n' || c == '\r'){
+		++i;
+	    }
+	    else if (EnvelopeScanner.isNumberStart(c)){
+		if (depth != ringDepth)
+		    return false;
+		final int end = EnvelopeScanner.numberEnd(wkt, i);
+		if (ordinate == 0)
+		    x = EnvelopeScanner.parseDouble(wkt, i, end);
+		else if (ordinate == 1){
+		    buffer.putDouble(x);
+		    buffer.putDouble(EnvelopeScanner.parseDouble(wkt, i, end));
+		    points++;
+		}
+		/* z and m ordinates are ignored */
+		ordinate++;
+		i = end;
+	    }
+	    else if (ordinate == 0 && Character.isLetter(c)){
+		/* EMPTY parts */
+		while (i < len && Character.isLetter(wkt.charAt(i)))
+		    ++i;
+	    }
+	    else
+		return false;
+	}
+	if (depth != 0)
+	    return false;
+	buffer.putInt(polygonsPos, polygons);
+	return true;
+    }
+
+    private void ensureCapacity(int bytes){
+	if (buffer.remaining() >= bytes)
+	    return;
+	final int capacity = Math.max(2*buffer.capacity(), buffer.position() + bytes);
+	ByteBuffer grown = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	buffer.flip();
+	grown.put(buffer);
+	buffer = grown;
+    }
+}
@@ -11,6 +11,8 @@ public class Space implements Serializable{
     private double dataMaxX;
     private double dataMaxY;
     private long numObjects = 0;
+    /* only required on driver for partitioning decisions */
+    private transient DensityHistogram histogram;
 
     public double getSpanX(){
 	return (this.dataMaxX - this.dataMinX);
@@ -24,11 +26,16 @@ public class Space implements Serializable{
     public double getMaxX() {return this.dataMaxX;}
     public double getMaxY() {return this.dataMaxY;}
     public long getSpaceObjects() {return this.numObjects;}
+    /**
+     * @return Coarse density histogram of objects OR null if not computed
+     */
+    public DensityHistogram getDensityHistogram() {return this.histogram;}
 
     public void setMinX(double minX){this.dataMinX = minX;}
     public void setMinY(double minY){this.dataMinY = minY;}
     public void setMaxX(double maxX){this.dataMaxX = maxX;}
     public void setMaxY(double maxY){this.dataMaxY = maxY;}
     public void setSpaceObjects(long count){this.numObjects = count;}
+    public void setDensityHistogram(DensityHistogram histogram){this.histogram = histogram;}
     
 }
@@ -6,19 +6,40 @@ public class SpatialObject implements Serializable
 {
     protected final String id;
     protected final String spatialDataString;
+    /* precomputed MBB, null if not extracted yet */
+    protected final Tile mbb;
+    /* precomputed area, negative if not computed */
+    protected final double area;
     
     public SpatialObject(String spatialDataString){
 	this.id = sparkgis.coordinator.SparkGISJobConf.DUMMY_ID;
 	this.spatialDataString = spatialDataString;
-	
+	this.mbb = null;
+	this.area = -1;
     }
     public SpatialObject(String id, String spatialDataString){
+	this(id, spatialDataString, null);
+    }
+    public SpatialObject(String id, String spatialDataString, Tile mbb){
+	this(id, spatialDataString, mbb, -1);
+    }
+    public SpatialObject(String id, String spatialDataString, Tile mbb, double area){
 	this.id = id;
 	this.spatialDataString = spatialDataString;
+	this.mbb = mbb;
+	this.area = area;
     }
 
     public String getId(){return this.id;}
     public String getSpatialData(){return this.spatialDataString;}
+    /**
+     * @return MBB of this object if it was extracted during preparation, null otherwise
+     */
+    public Tile getMBB(){return this.mbb;}
+    /**
+     * @return Area of this object if it was stored with a prepared dataset, negative otherwise
+     */
+    public double getArea(){return this.area;}
 
     public String toString(){
 	if (id == "") return getSpatialData();
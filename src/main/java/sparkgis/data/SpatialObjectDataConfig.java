@@ -4,11 +4,6 @@ import java.io.Serializable;
 /* Spark imports */
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.Function;
-/* JTS imports */
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.WKTReader;
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.io.ParseException;
 
 public class SpatialObjectDataConfig extends DataConfig<SpatialObject> implements Serializable
 {
@@ -38,24 +33,15 @@ public class SpatialObjectDataConfig extends DataConfig<SpatialObject> implement
 
     /**
      * Minimum Bounding Box Extraction
+     * Reuses MBB if already extracted while reading data, otherwise
+     * scans coordinates without constructing geometry
      */
     class MBBExtractor implements Function<SpatialObject, Tile>{
 	public Tile call(SpatialObject s){
-	    Tile ret = new Tile();
-	    try{
-		WKTReader reader = new WKTReader();
-		Geometry geometry = reader.read(s.getSpatialData());
-		Envelope env = geometry.getEnvelopeInternal();
-		
-		if (env != null){
-		    ret.minX = env.getMinX();
-		    ret.minY = env.getMinY();
-		    ret.maxX = env.getMaxX();
-		    ret.maxY = env.getMaxY();
-		}
-	    }catch (ParseException e) {e.printStackTrace();}
-	
-	    return ret;
+	    if (s.getMBB() != null)
+		return s.getMBB();
+	    Tile ret = EnvelopeScanner.getMBB(s.getSpatialData());
+	    return (ret != null) ? ret : new Tile();
 	}
     }
 }
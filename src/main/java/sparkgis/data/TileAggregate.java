@@ -0,0 +1,131 @@
+package sparkgis.data;
+/* Java imports */
+import java.io.Serializable;
+/* Local imports */
+import sparkgis.enums.HMType;
+
+/**
+ * Per tile aggregate of spatial join results, computed in join task
+ * Each tile is joined by exactly one task, hence aggregates of a tile
+ * are complete without any further combine (shuffle)
+ * Besides sums, distribution of Jaccard and Dice is kept as fixed bin
+ * histograms over [0, 1] which are merged by adding bins
+ */
+public class TileAggregate implements Serializable
+{
+    /* number of (equal width) histogram bins over [0, 1] */
+    public static final int HISTOGRAM_BINS = 10;
+
+    private final int tileID;
+    private long count = 0;
+    private double jaccardSum = 0;
+    private double diceSum = 0;
+    private final long[] jaccardHistogram = new long[HISTOGRAM_BINS];
+    private final long[] diceHistogram = new long[HISTOGRAM_BINS];
+    /* objects of each dataset of tile without any resulting pair in tile */
+    private long unmatched1 = 0;
+    private long unmatched2 = 0;
+    /* dice of whole tile (all objects of both datasets), -1 if not computed */
+    private double tileDice = -1;
+
+    public TileAggregate(int tileID){
+	this.tileID = tileID;
+    }
+
+    /**
+     * Add a resulting pair
+     */
+    public void add(double jaccard, double dice){
+	count++;
+	jaccardSum += jaccard;
+	diceSum += dice;
+	jaccardHistogram[bin(jaccard)]++;
+	diceHistogram[bin(dice)]++;
+    }
+
+    /**
+     * @return Histogram bin of value in [0, 1]
+     */
+    public static int bin(double value){
+	final int bin = (int)(value * HISTOGRAM_BINS);
+	return Math.max(0, Math.min(bin, HISTOGRAM_BINS - 1));
+    }
+
+    /**
+     * Objects crossing tile boundaries are counted in each of their tiles. An object
+     * is matched in a tile even if its pairs are reported by a neighboring tile
+     * (reference point duplicate avoidance). Only set if requested, 0 otherwise
+     * @param unmatched1 Objects of dataset 1 without any resulting pair in tile
+     * @param unmatched2 Objects of dataset 2 without any resulting pair in tile
+     */
+    public void setUnmatched(long unmatched1, long unmatched2){
+	this.unmatched1 = unmatched1;
+	this.unmatched2 = unmatched2;
+    }
+
+    /**
+     * @param matched Matched flag of each object of tile, dataset 1 objects first
+     * @param count1 Number of objects of dataset 1
+     */
+    public void setUnmatched(boolean[] matched, int count1){
+	long u1 = 0, u2 = 0;
+	for (int i=0; i<matched.length; ++i){
+	    if (matched[i])
+		continue;
+	    if (i < count1)
+		u1++;
+	    else
+		u2++;
+	}
+	setUnmatched(u1, u2);
+    }
+
+    /**
+     * @param tileDice Dice of whole tile, -1 if not computed
+     */
+    public void setTileDice(double tileDice){
+	this.tileDice = tileDice;
+    }
+
+    public int getTileID(){return this.tileID;}
+    /**
+     * @return Number of resulting pairs
+     */
+    public long getCount(){return this.count;}
+    public double getJaccardSum(){return this.jaccardSum;}
+    public double getDiceSum(){return this.diceSum;}
+    public double getTileDice(){return this.tileDice;}
+    public long[] getJaccardHistogram(){return this.jaccardHistogram;}
+    public long[] getDiceHistogram(){return this.diceHistogram;}
+    public long getUnmatched1(){return this.unmatched1;}
+    public long getUnmatched2(){return this.unmatched2;}
+
+    /**
+     * @return Sum of metric of given heatmap type
+     * (tile dice is a single value per tile, 0 if not computed)
+     */
+    public double getSum(HMType hmType){
+	switch (hmType){
+	case DICE:
+	    return diceSum;
+	case TILEDICE:
+	    return (tileDice >= 0) ? tileDice : 0;
+	default:
+	    return jaccardSum;
+	}
+    }
+
+    /**
+     * @return Number of values summed by getSum(hmType)
+     */
+    public long getCount(HMType hmType){
+	if (hmType == HMType.TILEDICE)
+	    return (tileDice >= 0) ? 1 : 0;
+	return count;
+    }
+
+    public String toString(){
+	return tileID + "\t" + count + "\t" + jaccardSum + "\t" + diceSum + "\t" + tileDice +
+	    "\t" + unmatched1 + "\t" + unmatched2;
+    }
+}
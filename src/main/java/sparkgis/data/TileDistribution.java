@@ -0,0 +1,42 @@
+package sparkgis.data;
+/* Java imports */
+import java.io.Serializable;
+
+/**
+ * Per tile distribution of spatial join results (quality assurance)
+ * Histograms of Jaccard and Dice over [0, 1] (see TileAggregate.HISTOGRAM_BINS)
+ * and number of objects of each dataset without any resulting pair
+ */
+public class TileDistribution implements Serializable
+{
+    public Tile tile;
+    public long pairs;
+    public long unmatched1;
+    public long unmatched2;
+    public long[] jaccardHistogram;
+    public long[] diceHistogram;
+
+    /**
+     * Output format:
+     * pairs \t unmatched-1 \t unmatched-2 \t jaccard-bins (comma separated) \t dice-bins \t tile
+     */
+    public String toString(){
+	StringBuilder sb = new StringBuilder();
+	sb.append(pairs).append('\t');
+	sb.append(unmatched1).append('\t');
+	sb.append(unmatched2).append('\t');
+	appendHistogram(sb, jaccardHistogram);
+	appendHistogram(sb, diceHistogram);
+	sb.append(tile.toString());
+	return sb.toString();
+    }
+
+    private static void appendHistogram(StringBuilder sb, long[] histogram){
+	for (int i=0; i<histogram.length; ++i){
+	    if (i > 0)
+		sb.append(',');
+	    sb.append(histogram[i]);
+	}
+	sb.append('\t');
+    }
+}
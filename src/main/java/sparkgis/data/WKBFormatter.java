@@ -0,0 +1,151 @@
+package sparkgis.data;
+
+/**
+ * Streaming conversion of WKB (or PostGIS EWKB) to WKT
+ * Coordinates are copied from bytes to text directly, no geometry is constructed
+ * Only x and y are written, z and m ordinates are dropped
+ */
+public class WKBFormatter
+{
+    /* WKB geometry types */
+    private static final int WKB_POINT = 1;
+    private static final int WKB_LINESTRING = 2;
+    private static final int WKB_POLYGON = 3;
+    private static final int WKB_MULTIPOINT = 4;
+    private static final int WKB_MULTILINESTRING = 5;
+    private static final int WKB_MULTIPOLYGON = 6;
+    /* EWKB flags */
+    private static final int EWKB_Z = 0x80000000;
+    private static final int EWKB_M = 0x40000000;
+    private static final int EWKB_SRID = 0x20000000;
+    /* integral coordinates below this are written without fraction */
+    private static final double MAX_INTEGRAL = 1e15;
+
+    /**
+     * @param wkb Well known binary of a geometry
+     * @return Well known text of geometry OR null if bytes could not be read
+     */
+    public static String toWKT(byte[] wkb){
+	StringBuilder sb = new StringBuilder(wkb.length);
+	try{
+	    writeGeometry(wkb, 0, sb, true);
+	}catch (ArrayIndexOutOfBoundsException e){
+	    return null;
+	}
+	return sb.toString();
+    }
+
+    /**
+     * @param tagged If true, geometry type name is written (false for parts of multi geometries)
+     * @return position after written geometry
+     */
+    private static int writeGeometry(byte[] b, int pos, StringBuilder sb, boolean tagged){
+	final boolean little = (b[pos] == 1);
+	int type = EnvelopeScanner.readInt(b, pos+1, little);
+	pos += 5;
+	int dims = 2;
+	if ((type & EWKB_Z) != 0) dims++;
+	if ((type & EWKB_M) != 0) dims++;
+	if ((type & EWKB_SRID) != 0) pos += 4;
+	type &= 0x0fffffff;
+	/* ISO types: 1000s Z, 2000s M, 3000s ZM */
+	final int iso = type / 1000;
+	if (iso == 1 || iso == 2) dims++;
+	else if (iso == 3) dims += 2;
+	type %= 1000;
+
+	switch (type){
+	case WKB_POINT:{
+	    if (tagged)
+		sb.append("POINT ");
+	    final double x = Double.longBitsToDouble(EnvelopeScanner.readLong(b, pos, little));
+	    /* empty point is encoded as NaN coordinates */
+	    if (x != x)
+		sb.append("EMPTY");
+	    else
+		writePoints(b, pos, 1, dims, little, sb);
+	    return pos + 8*dims;
+	}
+	case WKB_LINESTRING:
+	    if (tagged)
+		sb.append("LINESTRING ");
+	    return writePoints(b, pos+4, EnvelopeScanner.readInt(b, pos, little), dims, little, sb);
+	case WKB_POLYGON:{
+	    if (tagged)
+		sb.append("POLYGON ");
+	    final int rings = EnvelopeScanner.readInt(b, pos, little);
+	    pos += 4;
+	    /* empty shell (written by JTS for empty polygons) */
+	    if (rings == 0 || EnvelopeScanner.readInt(b, pos, little) == 0){
+		sb.append("EMPTY");
+		for (int r=0; r<rings; ++r)
+		    pos += 4 + 8*dims*EnvelopeScanner.readInt(b, pos, little);
+		return pos;
+	    }
+	    sb.append('(');
+	    for (int r=0; r<rings; ++r){
+		if (r > 0)
+		    sb.append(", ");
+		pos = writePoints(b, pos+4, EnvelopeScanner.readInt(b, pos, little), dims, little, sb);
+	    }
+	    sb.append(')');
+	    return pos;
+	}
+	default:{
+	    /* multi geometries and collections: each part has its own header */
+	    final boolean collection = (type != WKB_MULTIPOINT && type != WKB_MULTILINESTRING && type != WKB_MULTIPOLYGON);
+	    if (tagged)
+		sb.append(name(type)).append(' ');
+	    final int parts = EnvelopeScanner.readInt(b, pos, little);
+	    pos += 4;
+	    if (parts == 0){
+		sb.append("EMPTY");
+		return pos;
+	    }
+	    sb.append('(');
+	    for (int p=0; p<parts; ++p){
+		if (p > 0)
+		    sb.append(", ");
+		pos = writeGeometry(b, pos, sb, collection);
+	    }
+	    sb.append(')');
+	    return pos;
+	}
+	}
+    }
+
+    private static String name(int type){
+	switch (type){
+	case WKB_MULTIPOINT: return "MULTIPOINT";
+	case WKB_MULTILINESTRING: return "MULTILINESTRING";
+	case WKB_MULTIPOLYGON: return "MULTIPOLYGON";
+	default: return "GEOMETRYCOLLECTION";
+	}
+    }
+
+    /* @return position after written points */
+    private static int writePoints(byte[] b, int pos, int n, int dims, boolean little, StringBuilder sb){
+	if (n == 0){
+	    sb.append("EMPTY");
+	    return pos;
+	}
+	sb.append('(');
+	for (int k=0; k<n; ++k){
+	    if (k > 0)
+		sb.append(", ");
+	    writeOrdinate(Double.longBitsToDouble(EnvelopeScanner.readLong(b, pos, little)), sb);
+	    sb.append(' ');
+	    writeOrdinate(Double.longBitsToDouble(EnvelopeScanner.readLong(b, pos+8, little)), sb);
+	    pos += 8*dims;
+	}
+	sb.append(')');
+	return pos;
+    }
+
+    private static void writeOrdinate(double v, StringBuilder sb){
+	if (v == Math.rint(v) && Math.abs(v) < MAX_INTEGRAL)
+	    sb.append((long)v);
+	else
+	    sb.append(v);
+    }
+}
@@ -0,0 +1,11 @@
+package sparkgis.enums;
+
+/**
+ * Engine used to refine candidate pairs of a tile in spatial join
+ * NATIVE: RESQUE (GEOS, libspatialindex) through JNI, requires lib/libgis.so
+ * JTS:    Pure JVM implementation (sparkgis.core.JTSJoinEngine)
+ */
+public enum JoinEngine{
+    NATIVE,
+    JTS;
+}
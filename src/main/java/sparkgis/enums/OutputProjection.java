@@ -0,0 +1,13 @@
+package sparkgis.enums;
+
+/**
+ * Fields of spatial join results (sparkgis.data.JoinResult)
+ * IDS:       Object IDs only
+ * IDS_STATS: Object IDs with areas, Jaccard and Dice
+ * FULL:      Object IDs, geometries and statistics
+ */
+public enum OutputProjection{
+    IDS,
+    IDS_STATS,
+    FULL;
+}
@@ -29,4 +29,13 @@ public enum Predicate{
     private Predicate(int value){
 	this.value = value;
     }
+
+    /**
+     * Reference point duplicate avoidance requires MBBs of resulting pairs to
+     * intersect, which is not the case for DWITHIN (expanded MBBs)
+     * @return True if duplicates of this predicate can be avoided by reference point
+     */
+    public boolean isReferencePointSafe(){
+	return this != DWITHIN && this != NEAREST && this != NEAREST_2;
+    }
 }
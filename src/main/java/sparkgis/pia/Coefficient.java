@@ -19,6 +19,9 @@ import org.apache.spark.api.java.function.PairFlatMapFunction;
 import sparkgis.data.Tile;
 import sparkgis.enums.HMType;
 import sparkgis.data.TileStats;
+import sparkgis.data.JoinResult;
+import sparkgis.data.TileAggregate;
+import sparkgis.data.TileDistribution;
 import sparkgis.coordinator.SparkGISContext;
 
 public class Coefficient implements Serializable{
@@ -26,26 +29,24 @@ public class Coefficient implements Serializable{
     private static final int numPartitions = 100;
 
     public static JavaRDD<TileStats> execute(
-					     JavaRDD<Iterable<String>> data,
+					     JavaRDD<Iterable<JoinResult>> data,
 					     List<Tile> partfile,
 					     final HMType hmType
 					     ){
 
     	// make variable final to pass to inner class
-    	final int index = hmType.value;
+    	final boolean dice = (hmType == HMType.DICE);
     	// map data to Tuple <tileID,Jaccard Coefficient>
     	JavaPairRDD<Integer, Double> pairs =
-    	    data.flatMapToPair(new PairFlatMapFunction<Iterable<String>, Integer, Double>(){
-    		    public Iterator<Tuple2<Integer, Double>> call (Iterable<String> is){
+    	    data.flatMapToPair(new PairFlatMapFunction<Iterable<JoinResult>, Integer, Double>(){
+    		    public Iterator<Tuple2<Integer, Double>> call (Iterable<JoinResult> is){
 			List<Tuple2<Integer, Double>> ret = new ArrayList<Tuple2<Integer, Double>>();
 
-			for (String s : is){
-			    String[] fields = s.split("\t");
-			    int len = fields.length;
+			for (JoinResult r : is){
 			    Tuple2<Integer, Double> t =
 				new Tuple2<Integer, Double>(
-							    Integer.parseInt(fields[len-1].trim()),
-							    Double.parseDouble(fields[len-index].trim())
+							    r.getTileID(),
+							    dice ? r.getDice() : r.getJaccard()
 							    );
 				ret.add(t);
 			}
@@ -97,6 +98,219 @@ public class Coefficient implements Serializable{
 	return mapResultsToTile(partfile, avgByKey, hmType);
     }
 
+    /**
+     * Per tile average from aggregates computed in join tasks (map side)
+     * A tile is aggregated by exactly one task, hence no combineByKey (shuffle) is required
+     * @param data Per tile aggregates
+     * @return Per tile stats sorted by statistics (descending) in a single partition
+     */
+    public static JavaRDD<TileStats> executeAggregated(
+						       JavaRDD<TileAggregate> data,
+						       List<Tile> partfile,
+						       final HMType hmType
+						       ){
+	return executeAggregated(data, partfile, Collections.singletonList(hmType)).get(0);
+    }
+
+    /**
+     * Multiple metrics from same aggregates in a single pass over data
+     * @return Per tile stats of each of hmTypes (same order)
+     */
+    public static List<JavaRDD<TileStats>> executeAggregated(
+							     JavaRDD<TileAggregate> data,
+							     List<Tile> partfile,
+							     final List<HMType> hmTypes
+							     ){
+	return executeAggregated(data, partfile, hmTypes, null);
+    }
+
+    /**
+     * @param distributions If not null, filled with per tile distributions
+     * computed in same pass over data
+     */
+    public static List<JavaRDD<TileStats>> executeAggregated(
+							     JavaRDD<TileAggregate> data,
+							     List<Tile> partfile,
+							     final List<HMType> hmTypes,
+							     List<TileDistribution> distributions
+							     ){
+	List<JavaRDD<TileStats>> ret = new ArrayList<JavaRDD<TileStats>>();
+	for (List<TileStats> stats : collectTileStats(data, partfile, hmTypes, distributions))
+	    ret.add(SparkGISContext.sparkContext.parallelize(stats, 1));
+	return ret;
+    }
+
+    /**
+     * Sums of all aggregates are collected in dense arrays indexed by tile ID
+     * (treeAggregate, no shuffle) and mapped to tiles of partfile on driver
+     * @param partfile Tile information, can be extracted from DataConfig
+     * @return Per tile stats of each of hmTypes (same order), sorted by statistics
+     * (descending). Tiles without any result have statistics 0
+     */
+    public static List<List<TileStats>> collectTileStats(
+							 JavaRDD<TileAggregate> data,
+							 List<Tile> partfile,
+							 final List<HMType> hmTypes
+							 ){
+	return collectTileStats(data, partfile, hmTypes, null);
+    }
+
+    /**
+     * @param distributions If not null, filled with per tile distributions (histograms
+     * and unmatched objects, merged in same dense arrays) in order of partfile
+     */
+    public static List<List<TileStats>> collectTileStats(
+							 JavaRDD<TileAggregate> data,
+							 List<Tile> partfile,
+							 final List<HMType> hmTypes,
+							 List<TileDistribution> distributions
+							 ){
+	int maxTileID = 0;
+	for (Tile tile : partfile)
+	    maxTileID = Math.max(maxTileID, (int)tile.tileID);
+
+	final HMType[] types = hmTypes.toArray(new HMType[hmTypes.size()]);
+	final TileSums sums = data.treeAggregate(
+						 new TileSums(types.length, maxTileID + 1, distributions != null),
+						 new Function2<TileSums, TileAggregate, TileSums>(){
+						     public TileSums call (TileSums a, TileAggregate b){
+							 return a.add(b, types);
+						     }
+						 },
+						 new Function2<TileSums, TileSums, TileSums>(){
+						     public TileSums call (TileSums a, TileSums b){
+							 return a.merge(b);
+						     }
+						 });
+
+	if (distributions != null){
+	    for (Tile tile : partfile)
+		distributions.add(sums.distribution(tile));
+	}
+
+	List<List<TileStats>> ret = new ArrayList<List<TileStats>>();
+	for (int m=0; m<types.length; ++m){
+	    List<TileStats> stats = new ArrayList<TileStats>(partfile.size());
+	    for (Tile tile : partfile){
+		TileStats t = new TileStats();
+		t.tile = tile;
+		t.type = types[m].toString();
+		t.statistics = sums.average(m, (int)tile.tileID);
+		stats.add(t);
+	    }
+	    /* TileStats are ordered by statistics, descending */
+	    Collections.sort(stats);
+	    ret.add(stats);
+	}
+	return ret;
+    }
+
+    /**
+     * @return Per tile stats sorted by statistics (descending)
+     */
+    public static List<TileStats> collectTileStats(
+						   JavaRDD<TileAggregate> data,
+						   List<Tile> partfile,
+						   final HMType hmType
+						   ){
+	return collectTileStats(data, partfile, Collections.singletonList(hmType)).get(0);
+    }
+
+    /**
+     * Per metric and tile sum and count, indexed by metric and tile ID
+     * Optionally per tile distributions: histograms (tile ID * bins + bin) and unmatched objects
+     */
+    static class TileSums implements Serializable{
+	private static final int BINS = TileAggregate.HISTOGRAM_BINS;
+
+	private final double[][] sums;
+	private final long[][] counts;
+	/* null if distributions are not collected */
+	private final long[] pairs;
+	private final long[] jaccardHistograms;
+	private final long[] diceHistograms;
+	private final long[] unmatched1;
+	private final long[] unmatched2;
+
+	TileSums(int metrics, int size, boolean distributions){
+	    this.sums = new double[metrics][size];
+	    this.counts = new long[metrics][size];
+	    this.pairs = distributions ? new long[size] : null;
+	    this.jaccardHistograms = distributions ? new long[size * BINS] : null;
+	    this.diceHistograms = distributions ? new long[size * BINS] : null;
+	    this.unmatched1 = distributions ? new long[size] : null;
+	    this.unmatched2 = distributions ? new long[size] : null;
+	}
+
+	TileSums add(TileAggregate agg, HMType[] types){
+	    final int id = agg.getTileID();
+	    /* tile not in partfile */
+	    if (id < 0 || id >= sums[0].length)
+		return this;
+	    for (int m=0; m<types.length; ++m){
+		sums[m][id] += agg.getSum(types[m]);
+		counts[m][id] += agg.getCount(types[m]);
+	    }
+	    if (pairs != null){
+		pairs[id] += agg.getCount();
+		unmatched1[id] += agg.getUnmatched1();
+		unmatched2[id] += agg.getUnmatched2();
+		for (int b=0; b<BINS; ++b){
+		    jaccardHistograms[id * BINS + b] += agg.getJaccardHistogram()[b];
+		    diceHistograms[id * BINS + b] += agg.getDiceHistogram()[b];
+		}
+	    }
+	    return this;
+	}
+
+	TileSums merge(TileSums other){
+	    for (int m=0; m<sums.length; ++m){
+		for (int i=0; i<sums[m].length; ++i){
+		    sums[m][i] += other.sums[m][i];
+		    counts[m][i] += other.counts[m][i];
+		}
+	    }
+	    if (pairs != null){
+		add(pairs, other.pairs);
+		add(unmatched1, other.unmatched1);
+		add(unmatched2, other.unmatched2);
+		add(jaccardHistograms, other.jaccardHistograms);
+		add(diceHistograms, other.diceHistograms);
+	    }
+	    return this;
+	}
+
+	double average(int metric, int id){
+	    if (id < 0 || id >= sums[metric].length || counts[metric][id] == 0)
+		return 0.0;
+	    return sums[metric][id]/counts[metric][id];
+	}
+
+	/**
+	 * @return Distribution of given tile, all zero for tiles without any result
+	 */
+	TileDistribution distribution(Tile tile){
+	    final int id = (int)tile.tileID;
+	    TileDistribution d = new TileDistribution();
+	    d.tile = tile;
+	    d.jaccardHistogram = new long[BINS];
+	    d.diceHistogram = new long[BINS];
+	    if (id < 0 || id >= pairs.length)
+		return d;
+	    d.pairs = pairs[id];
+	    d.unmatched1 = unmatched1[id];
+	    d.unmatched2 = unmatched2[id];
+	    System.arraycopy(jaccardHistograms, id * BINS, d.jaccardHistogram, 0, BINS);
+	    System.arraycopy(diceHistograms, id * BINS, d.diceHistogram, 0, BINS);
+	    return d;
+	}
+
+	private static void add(long[] a, long[] b){
+	    for (int i=0; i<a.length; ++i)
+		a[i] += b[i];
+	}
+    }
+
     /**
      * @param partfile      Tile information, can be extracted from DataConfig
      * @param resultByTile  Results values ordered by tile-id to be mapped to approriate tile from
@@ -2,53 +2,52 @@ package sparkgis.pia;
 /* Java imports */
 import java.util.List;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.io.Serializable;
 /* Spark imports */
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.api.java.JavaPairRDD;
-import org.apache.spark.api.java.function.Function;
-import org.apache.spark.api.java.function.FlatMapFunction;
-import org.apache.spark.api.java.function.PairFunction;
-import org.apache.spark.api.java.function.PairFlatMapFunction;
-import org.apache.spark.api.java.function.Function2;
 import scala.Tuple2;
 /* Local imports */
 import jni.JNIWrapper;
 import sparkgis.data.Tile;
 import sparkgis.enums.HMType;
 import sparkgis.data.TileStats;
-import sparkgis.data.Space;
+import sparkgis.data.TileAggregate;
+import sparkgis.data.TileDistribution;
 import sparkgis.data.BinaryDataConfig;
 import sparkgis.enums.Predicate;
-import sparkgis.data.SpatialObject;
-import sparkgis.core.ASpatialJoin;
-import sparkgis.coordinator.SparkGISContext;
+import sparkgis.core.BatchedJoin;
+import sparkgis.core.SpatialTiling;
 import sparkgis.coordinator.SparkGISJobConf;
-import sparkgis.core.partitioning.Partitioner;
 import sparkgis.core.spatialindex.SparkSpatialIndex;
 
 /**
- * Spark Spatial Join for HeatMap Generation
+ * Spark Spatial Join for HeatMap Generation on binary (w.k.b) data
+ * Geometries are shuffled and passed to native code as bytes, no
+ * w.k.t String is created or parsed anywhere on the join path
  */
 public class SparkSpatialJoinHMBinary implements Serializable{
 
     private final SparkGISJobConf sgjConf;
-    private final HMType hmType;
+    /* metrics computed by one join, at least one */
+    private final List<HMType> hmTypes;
     private final Predicate predicate;
     private final BinaryDataConfig config1;
     private final BinaryDataConfig config2;
-    private final Space combinedSpace;
 
-    /* 
-     * Combined configuration values removed from DataConfig 
-     * No need to inflate DataConfig object 
+    /*
+     * Combined configuration values removed from DataConfig
+     * No need to inflate DataConfig object
      * since it has to be transferred over to workers
      */
-    private Broadcast<SparkSpatialIndex> ssidxBV = null;
-    
+    private final Broadcast<SparkSpatialIndex> ssidxBV;
+    private final List<Tile> partitionIDX;
+    /* tiling (possibly shared with other joins), driver only */
+    private final transient SpatialTiling<byte[]> tiling;
+
     public SparkSpatialJoinHMBinary(
 				    SparkGISJobConf sgjConf,
 				    BinaryDataConfig config1,
@@ -56,215 +55,186 @@ public class SparkSpatialJoinHMBinary implements Serializable{
 				    Predicate predicate,
 				    HMType hmType
 				  ){
+	this(sgjConf, config1, config2, predicate, hmType,
+	     new SpatialTiling<byte[]>(sgjConf, Arrays.asList(config1, config2), predicate));
+    }
+
+    /**
+     * @param tiling Tiling shared by config1, config2 and possibly other datasets
+     */
+    public SparkSpatialJoinHMBinary(
+				    SparkGISJobConf sgjConf,
+				    BinaryDataConfig config1,
+				    BinaryDataConfig config2,
+				    Predicate predicate,
+				    HMType hmType,
+				    SpatialTiling<byte[]> tiling
+				  ){
+	this(sgjConf, config1, config2, predicate, Collections.singletonList(hmType), tiling);
+    }
+
+    /**
+     * @param hmTypes Metrics to be computed by a single join, one heatmap per metric
+     * (HMType.TILEDICE is not supported on binary data)
+     * @param tiling Tiling shared by config1, config2 and possibly other datasets
+     */
+    public SparkSpatialJoinHMBinary(
+				    SparkGISJobConf sgjConf,
+				    BinaryDataConfig config1,
+				    BinaryDataConfig config2,
+				    Predicate predicate,
+				    List<HMType> hmTypes,
+				    SpatialTiling<byte[]> tiling
+				  ){
+	if (hmTypes.contains(HMType.TILEDICE))
+	    throw new UnsupportedOperationException("Tile dice is not supported for binary data");
 	this.sgjConf = sgjConf;
 	this.predicate = predicate;
-	this.hmType = hmType; 
+	this.hmTypes = hmTypes;
 	this.config1 = config1;
 	this.config2 = config2;
+	this.tiling = tiling;
+	this.partitionIDX = tiling.getTiles();
+	this.ssidxBV = tiling.getSpatialIndex();
+    }
 
-	combinedSpace = new Space();
-	/* set combined data configuration */
-	final double minX = (config1.space.getMinX() < config2.space.getMinX())?config1.space.getMinX():config2.space.getMinX();
-	final double minY = (config1.space.getMinY() < config2.space.getMinY())?config1.space.getMinY():config2.space.getMinY();
-	final double maxX = (config1.space.getMaxX() > config2.space.getMaxX())?config1.space.getMaxX():config2.space.getMaxX();
-	final double maxY = (config1.space.getMaxY() > config2.space.getMaxY())?config1.space.getMaxY():config2.space.getMaxY();
-
-	combinedSpace.setMinX(minX);
-	combinedSpace.setMinY(minY);
-	combinedSpace.setMaxX(maxX);
-	combinedSpace.setMaxY(maxY);
-	
-	combinedSpace.setSpaceObjects(config1.space.getSpaceObjects() + config2.space.getSpaceObjects());
+    /**
+     * @return Heatmap of first metric
+     */
+    public JavaRDD<TileStats> execute(){
+	return executeAll().get(0);
+    }
 
+    /**
+     * @return Heatmaps of all metrics (same order as hmTypes), computed by a single join
+     */
+    public List<JavaRDD<TileStats>> executeAll(){
+	return executeAll(null);
     }
-    
-    public JavaRDD<TileStats> execute(){
-	
-	List<Tile> partitionIDX =
-	    /* DONOT DENORMALIZE IF USING 'HM' PARTITIONER */
-	    Partitioner.fixedGridHM(
-	    			    combinedSpace.getMinX(), 
-	    			    combinedSpace.getMinY(), 
-	    			    combinedSpace.getMaxX(),
-	    			    combinedSpace.getMaxY(),
-	    			    this.sgjConf.getPartitionSize()
-	    			    );
-	/* 
-	 * Broadcast ssidx 
-	 * ssidx is not very big, will this help???
-	 */
-    	final SparkSpatialIndex ssidx = new SparkSpatialIndex();
-    	ssidx.build(partitionIDX);
-	ssidxBV = SparkGISContext.sparkContext.broadcast(ssidx);
+
+    /**
+     * @param distributions If not null, filled with per tile distributions (see
+     * TileDistribution) computed by same join
+     * @return Heatmaps of all metrics (same order as hmTypes), computed by a single join
+     */
+    public List<JavaRDD<TileStats>> executeAll(List<TileDistribution> distributions){
 
 	JavaPairRDD<Integer, Tuple2<Iterable<byte[]>,Iterable<byte[]>>>
 	    groupedMapData = getDataByTile();
 
-
-	System.out.println("Tiles: " + partitionIDX.size());
-	System.out.println("Config1: " + config1.getData().count());
-	System.out.println("Config2: " + config2.getData().count());
-	System.out.println("Binary Count: " + groupedMapData.count());
-	
-	return SparkGISContext.sparkContext.emptyRDD();
-	
-	// /* Native C++: Resque */
-	// if (hmType == HMType.TILEDICE){
-	//     throw new java.lang.RuntimeException("Not implemented in Cogroup version yet");
-	//     // JavaPairRDD<Integer, Double> tileDiceResults = 
-	//     // 	groupedMapData.mapValues(new ResqueTileDice(
-	//     // 						    predicate.value,
-	//     // 						    config1.getGeomid(),
-	//     // 						    config2.getGeomid()
-	//     // 						    )
-	//     // 				 ).filter(new Function<Tuple2<Integer, Double>, Boolean>(){
-	//     // 					 public Boolean call(Tuple2<Integer, Double> t){
-	//     // 					     if (t._2() == -1)
-	//     // 						 return false;
-	//     // 					     return true;
-	//     // 					 }
-	//     // 				     });
-	//     // return Coefficient.mapResultsToTile(
-	//     // 					this.partitionIDX, 
-	//     // 					tileDiceResults,
-	//     // 					hmType
-	//     // 					);
-	// }
-	// else{
-	//     JavaPairRDD<Integer, Iterable<String>> results = 
-	// 	groupedMapData.mapValues(new Resque(
-    	// 				      predicate.value, 
-    	// 				      config1.getGeomid(),
-    	// 				      config2.getGeomid())
-	// 			     );	
-    	// JavaRDD<Iterable<String>> vals = results.values();
-
-    	// /* Call Jaccard function to calculate jaccard coefficients per tile */
-    	// return Coefficient.execute(
-    	// 			   results.values(),
-    	// 			   /*spJoinResult,*/ 
-    	// 			   partitionIDX,
-    	// 			   hmType
-    	// 			   );
-	// }
-	
+	/* Native C++: Resque */
+	JavaRDD<TileAggregate> results =
+	    groupedMapData.mapPartitions(new ResqueBinary(
+						predicate.value,
+						sgjConf.isPlaneSweep(),
+						sgjConf.isReferencePointDedup(predicate),
+						sgjConf.isTileDistributions())
+			       );
+	/* Call function to calculate similarity coefficients per tile */
+	return Coefficient.executeAggregated(
+				   results,
+				   partitionIDX,
+				   hmTypes,
+				   distributions
+				   );
     }
 
     /*
      * Cogroup version
+     * Both sides are tiled (and shuffled) once per tiling with the same tile
+     * partitioner, hence cogroup is narrow
      */
     protected JavaPairRDD<Integer, Tuple2<Iterable<byte[]>, Iterable<byte[]>>> getDataByTile(){
-
-	/* 
-	 * Reformat stage only appends a set number to data from algo1 and algo2 
-	 * It has been merged with Partition mapper join stage
-	 */
-	
-    	JavaPairRDD<Integer, byte[]> joinMapData1 = 
-    	    config1.getData().flatMapToPair(new PartitionMapperJoin());
-
-	JavaPairRDD<Integer, byte[]> joinMapData2 = 
-    	    config2.getData().flatMapToPair(new PartitionMapperJoin());
-
-	JavaPairRDD<Integer, Tuple2<Iterable<byte[]>, Iterable<byte[]>>> groupedData =
-	    joinMapData1.cogroup(joinMapData2);
-
-	return groupedData;
+	return tiling.getTiledData(config1).cogroup(
+						    tiling.getTiledData(config2),
+						    tiling.getTilePartitioner()
+						    );
     }
 
     /**
-     * Called for all data corresponding to a given key after groupByKey()
+     * Called for all tiles of a partition after cogroup(), all tiles are joined
+     * by one native context (see BatchedJoin)
+     * Geometries are passed to native code in w.k.b
+     * Results are aggregated per tile, no result objects are created
      */
-    class Resque
-	implements Function<Tuple2<Iterable<String>,Iterable<String>>, Iterable<String>>{
+    class ResqueBinary
+	extends BatchedJoin<Tuple2<Integer, Tuple2<Iterable<byte[]>,Iterable<byte[]>>>, TileAggregate>{
 
 	private final int predicate;
-    	private final int geomid1;
-    	private final int geomid2;
-    	public Resque(int predicate, int geomid1, int geomid2){
-    	    this.predicate = predicate;
-    	    this.geomid1 = geomid1;
-    	    this.geomid2 = geomid2;
-    	}
-    	public Iterable<String> call (final Tuple2<Iterable<String>,Iterable<String>> inData){
-    	    //List<String> ret = new ArrayList<String>();
-    	    ArrayList<String> data = new ArrayList<String>();
-    	    for (String in : inData._1())
-    		data.add(in);
-	    for (String in : inData._2())
-    		data.add(in);
-	    
-    	    String[] dataArray = new String[data.size()];	    
-    	    JNIWrapper jni = new JNIWrapper();
-    	    String[] results = jni.resqueSPJ(
-    					  data.toArray(dataArray),
-    					  predicate,
-    					  geomid1,
-    					  geomid2
-    					  );
-    	    //for (String res : results)
-	    //ret.add(res);
-    	    return Arrays.asList(results);
-    	}
-    }
-    
-    /**
-     * Replicated code. Fixed in newer version
-     */
-    class ResqueTileDice implements Function<Iterable<String>, Double>{
-    	private final int predicate;
-    	private final int geomid1;
-    	private final int geomid2;
-    	public ResqueTileDice(int predicate, int geomid1, int geomid2){
+    	private final boolean planeSweep;
+    	private final boolean dedup;
+    	private final boolean unmatched;
+    	/* native context handle (0 if none), see open() */
+    	private transient long context = 0;
+    	/**
+    	 * @param unmatched If true, unmatched objects are counted as well
+    	 */
+    	public ResqueBinary(int predicate, boolean planeSweep, boolean dedup, boolean unmatched){
     	    this.predicate = predicate;
-    	    this.geomid1 = geomid1;
-    	    this.geomid2 = geomid2;
+    	    this.planeSweep = planeSweep;
+    	    this.dedup = dedup;
+    	    this.unmatched = unmatched;
     	}
-    	public Double call (final Iterable<String> inData){
-    	    ArrayList<String> data = new ArrayList<String>();
-    	    for (String in : inData)
-    		data.add(in);	    
-	    
-    	    String[] dataArray = new String[data.size()];	    
-    	    JNIWrapper jni = new JNIWrapper();
-    	    double result = jni.resqueTileDice(
-					data.toArray(dataArray),
-					predicate,
-					geomid1,
-					geomid2
-					);
-    	    return new Double(result);
+    	/**
+    	 * Create native context to be reused by all following tiles (until close())
+    	 */
+    	protected void open(){
+    	    if (context == 0){
+    		/* geometry fields are not used for w.k.b */
+    		context = JNIWrapper.resqueCreate(predicate, 0, 0);
+    		/* pairs owned by other tiles still match objects of this tile */
+    		JNIWrapper.resqueSetMatchedFlags(context, unmatched);
+    	    }
     	}
-    }
-    
-    /**
-     * Maps each spatialObject to a tile from spatial index after appending a set number to the data.
-     * NOTE: There is a difference between joinIDX and setNumber
-     * In case of any issue, please refer to Journal Entry: Jan 24, 2017
-     * @param setNumber Dataset this spatialObject belongs to
-     * @return tileID,binarySpatialObject
-     //@return tileID,joinIDX,setNumber,id,spatialObject
-     */
-    class PartitionMapperJoin implements PairFlatMapFunction<byte[], Integer, byte[]>{
-	// private final int setNumber;
 
-	// public PartitionMapperJoin(int setNumber){
-	//     this.setNumber = setNumber;
-    	// }
-    	public Iterator<Tuple2<Integer, byte[]>> call (final byte[] binaryPolygon){
+    	/**
+    	 * Release native context
+    	 */
+    	protected void close(){
+    	    if (context != 0){
+    		JNIWrapper.resqueRelease(context);
+    		context = 0;
+    	    }
+    	}
 
-	    /* get spatial index from braodcast variable */
-	    final SparkSpatialIndex ssidx = ssidxBV.value();
-	    // final int joinIDX = (setNumber==1)? 2 : 1;
-	    
-    	    List<Tuple2<Integer, byte[]>> ret = new ArrayList<Tuple2<Integer, byte[]>>();
-	    List<Long> tileIDs = ssidx.getIntersectingIndexTiles(binaryPolygon);
-    	    for (long id : tileIDs){
-		//String retLine = id + "\t" + joinIDX + "\t" + this.setNumber + "\t" + s.toString();
-    		Tuple2<Integer, byte[]> t = new Tuple2<Integer, byte[]>((int)id, binaryPolygon);
-    		ret.add(t);
+    	protected TileAggregate join (final Tuple2<Integer, Tuple2<Iterable<byte[]>,Iterable<byte[]>>> tile){
+    	    TileAggregate agg = new TileAggregate(tile._1());
+    	    ArrayList<byte[]> data1 = new ArrayList<byte[]>();
+    	    ArrayList<byte[]> data2 = new ArrayList<byte[]>();
+    	    for (byte[] in : tile._2()._1())
+    		data1.add(in);
+	    for (byte[] in : tile._2()._2())
+    		data2.add(in);
+	    /* nothing to join in this tile */
+	    if (data1.isEmpty() || data2.isEmpty()){
+		/* all objects of other dataset are unmatched */
+		if (unmatched)
+		    agg.setUnmatched(data1.size(), data2.size());
+		return agg;
+	    }
+
+    	    final double[] region = new double[4];
+    	    final boolean refPoint = dedup && ssidxBV.value().getReferenceRegion(tile._1(), region);
+    	    final double[] results = JNIWrapper.resqueSPJBinaryContext(
+    								       context,
+    								       data1.toArray(new byte[data1.size()][]),
+    								       data2.toArray(new byte[data2.size()][]),
+    								       planeSweep,
+    								       refPoint,
+    								       region[0],
+    								       region[1],
+    								       region[2],
+    								       region[3]
+    								       );
+    	    for (int i=0; i<results.length; i+=JNIWrapper.RESULT_FIELDS)
+    		agg.add(results[i+5], results[i+6]);
+    	    if (unmatched){
+    		/* object IDs are positions, data2 positions follow data1 */
+    		final boolean[] matched = new boolean[data1.size() + data2.size()];
+    		JNIWrapper.resqueGetMatchedFlags(context, matched);
+    		agg.setUnmatched(matched, data1.size());
     	    }
-    	    return ret.iterator();
+    	    return agg;
     	}
     }
 }
@@ -1,5 +1,7 @@
 package sparkgis.pia;
 /* Java imports */
+import java.util.List;
+import java.util.Collections;
 import java.io.Serializable;
 /* Spark imports */
 import org.apache.spark.api.java.JavaRDD;
@@ -7,9 +9,14 @@ import scala.Tuple2;
 /* Local imports */
 import sparkgis.enums.HMType;
 import sparkgis.data.TileStats;
+import sparkgis.data.TileAggregate;
+import sparkgis.data.TileDistribution;
 import sparkgis.data.DataConfig;
+import sparkgis.data.SpatialObject;
 import sparkgis.enums.Predicate;
+import sparkgis.enums.OutputProjection;
 import sparkgis.core.ASpatialJoin;
+import sparkgis.core.SpatialTiling;
 import sparkgis.core.SparkSpatialJoin;
 import sparkgis.coordinator.SparkGISJobConf;
 
@@ -18,60 +25,86 @@ import sparkgis.coordinator.SparkGISJobConf;
  */
 public class SparkSpatialJoinHM_Cogroup extends ASpatialJoin<TileStats> implements Serializable{
 
-    private final HMType hmType;
+    /* metrics computed by one join, at least one */
+    private final List<HMType> hmTypes;
     
     public SparkSpatialJoinHM_Cogroup(SparkGISJobConf sgjConf,
-				      DataConfig config1,
-				      DataConfig config2,
+				      DataConfig<SpatialObject> config1,
+				      DataConfig<SpatialObject> config2,
 				      Predicate predicate,
 				      HMType hmType
 				      ){
 	super(sgjConf, config1, config2, predicate);
-	this.hmType = hmType; 
+	this.hmTypes = Collections.singletonList(hmType); 
+    }
+
+    /**
+     * @param tiling Tiling shared by config1, config2 and possibly other datasets
+     */
+    public SparkSpatialJoinHM_Cogroup(SparkGISJobConf sgjConf,
+				      DataConfig<SpatialObject> config1,
+				      DataConfig<SpatialObject> config2,
+				      Predicate predicate,
+				      HMType hmType,
+				      SpatialTiling<SpatialObject> tiling
+				      ){
+	this(sgjConf, config1, config2, predicate, Collections.singletonList(hmType), tiling);
+    }
+
+    /**
+     * @param hmTypes Metrics to be computed by a single join, one heatmap per metric
+     * @param tiling Tiling shared by config1, config2 and possibly other datasets
+     */
+    public SparkSpatialJoinHM_Cogroup(SparkGISJobConf sgjConf,
+				      DataConfig<SpatialObject> config1,
+				      DataConfig<SpatialObject> config2,
+				      Predicate predicate,
+				      List<HMType> hmTypes,
+				      SpatialTiling<SpatialObject> tiling
+				      ){
+	super(sgjConf, config1, config2, predicate, tiling);
+	this.hmTypes = hmTypes; 
     }
     
+    /**
+     * @return Heatmap of first metric
+     */
     public JavaRDD<TileStats> execute(){
+	return executeAll().get(0);
+    }
+
+    /**
+     * @return Heatmaps of all metrics (same order as hmTypes), computed by a single join
+     */
+    public List<JavaRDD<TileStats>> executeAll(){
+	return executeAll(null);
+    }
+
+    /**
+     * @param distributions If not null, filled with per tile distributions (see
+     * TileDistribution) computed by same join
+     * @return Heatmaps of all metrics (same order as hmTypes), computed by a single join
+     */
+    public List<JavaRDD<TileStats>> executeAll(List<TileDistribution> distributions){
 
-	/* Spatial join results */
-	JavaRDD<Iterable<String>> results = (new SparkSpatialJoin(sgjConf, config1, config2, predicate)).execute();
+	final SparkSpatialJoin spj =
+	    new SparkSpatialJoin(sgjConf, config1, config2, predicate, tiling, OutputProjection.IDS_STATS);
+	/*
+	 * Results aggregated per tile in join tasks, on same tiles as partitionIDX
+	 * Tile dice alone does not require any pair to be refined (unless distributions are required)
+	 */
+	final boolean tileDiceOnly =
+	    (hmTypes.size() == 1) && (hmTypes.get(0) == HMType.TILEDICE) && (distributions == null);
+	JavaRDD<TileAggregate> results = tileDiceOnly ?
+	    spj.executeTileDice() :
+	    spj.executeAggregate(hmTypes.contains(HMType.TILEDICE));
 	/* Call function to calculate similarity coefficients per tile */
-	JavaRDD<TileStats> stats = Coefficient.execute(
+	List<JavaRDD<TileStats>> stats = Coefficient.executeAggregated(
     				   results,
     				   partitionIDX,
-    				   hmType
+    				   hmTypes,
+    				   distributions
     				   );
     	return stats;
-	
-	// /* Native C++: Resque */
-	// if (hmType == HMType.TILEDICE){
-	//     throw new java.lang.RuntimeException("Not implemented in Cogroup version yet");
-	//     // JavaPairRDD<Integer, Double> tileDiceResults = 
-	//     // 	groupedMapData.mapValues(new ResqueTileDice(
-	//     // 						    predicate.value,
-	//     // 						    config1.getGeomid(),
-	//     // 						    config2.getGeomid()
-	//     // 						    )
-	//     // 				 ).filter(new Function<Tuple2<Integer, Double>, Boolean>(){
-	//     // 					 public Boolean call(Tuple2<Integer, Double> t){
-	//     // 					     if (t._2() == -1)
-	//     // 						 return false;
-	//     // 					     return true;
-	//     // 					 }
-	//     // 				     });
-	//     // return Coefficient.mapResultsToTile(
-	//     // 					this.partitionIDX, 
-	//     // 					tileDiceResults,
-	//     // 					hmType
-	//     // 					);
-	// }
-	// else{
-	//     JavaPairRDD<Integer, Iterable<String>> results = 
-	// 	groupedMapData.mapValues(new Resque(
-    	// 				      predicate.value, 
-    	// 				      config1.getGeomid(),
-    	// 				      config2.getGeomid())
-	// 			     );	
-    	// JavaRDD<Iterable<String>> vals = results.values();
-	
     }
 }
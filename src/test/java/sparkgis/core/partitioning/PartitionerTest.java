@@ -0,0 +1,129 @@
+package sparkgis.core.partitioning;
+/* Java imports */
+import java.util.List;
+import java.util.Random;
+import java.util.HashSet;
+import java.util.ArrayList;
+/* JUnit imports */
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+/* Local imports */
+import sparkgis.data.Tile;
+
+public class PartitionerTest
+{
+    private static final double MIN_X = 0, MIN_Y = 0, MAX_X = 1000, MAX_Y = 500;
+    private static final double EPSILON = 1e-6;
+    private static final int PARTITION_SIZE = 5000;
+    private static final long OBJECTS = 100000;
+
+    @Test
+    public void quadTreeCoversSpace(){
+	assertCovers(Partitioner.quadTree(MIN_X, MIN_Y, MAX_X, MAX_Y, sample(), PARTITION_SIZE, OBJECTS));
+    }
+
+    @Test
+    public void sortTileRecursiveCoversSpace(){
+	assertCovers(Partitioner.sortTileRecursive(MIN_X, MIN_Y, MAX_X, MAX_Y, sample(), PARTITION_SIZE, OBJECTS));
+    }
+
+    @Test
+    public void stripCoversSpace(){
+	assertCovers(Partitioner.strip(MIN_X, MIN_Y, MAX_X, MAX_Y, sample(), PARTITION_SIZE, OBJECTS));
+    }
+
+    @Test
+    public void binarySpaceCoversSpace(){
+	assertCovers(Partitioner.binarySpace(MIN_X, MIN_Y, MAX_X, MAX_Y, sample(), PARTITION_SIZE, OBJECTS));
+    }
+
+    @Test
+    public void emptySampleGivesWholeSpace(){
+	final List<Tile> tiles =
+	    Partitioner.sortTileRecursive(MIN_X, MIN_Y, MAX_X, MAX_Y, new ArrayList<Tile>(), PARTITION_SIZE, OBJECTS);
+	assertEquals(1, tiles.size());
+	assertCovers(tiles);
+    }
+
+    @Test
+    public void hilbertCurveCoversSpace(){
+	final List<Tile> sample = sample();
+	final HilbertCurve curve = Partitioner.hilbertCurve(MIN_X, MIN_Y, MAX_X, MAX_Y, sample, PARTITION_SIZE, OBJECTS);
+	final List<Tile> tiles = curve.getTiles();
+	assertTrue(curve.getTileCount() > 1);
+	assertEquals(curve.getTileCount(), tiles.size());
+	for (int i=0; i<tiles.size(); ++i){
+	    assertEquals(i+1, tiles.get(i).tileID);
+	    assertWithinSpace(tiles.get(i));
+	}
+	/* tile of each object center contains it */
+	for (Tile s : sample){
+	    final double x = (s.minX + s.maxX)/2, y = (s.minY + s.maxY)/2;
+	    final long id = curve.getTileID(curve.getKey(x, y));
+	    assertTrue(id >= 1 && id <= curve.getTileCount());
+	    assertTrue(contains(tiles.get((int)id - 1), x, y));
+	}
+	final long[] out = new long[curve.getTileCount()];
+	assertEquals(curve.getTileCount(), curve.getIntersectingTiles(MIN_X, MIN_Y, MAX_X, MAX_Y, out));
+	/* out too small: number of tiles still reported */
+	assertEquals(curve.getTileCount(), curve.getIntersectingTiles(MIN_X, MIN_Y, MAX_X, MAX_Y, new long[1]));
+    }
+
+    /**
+     * Tiles have unique IDs 1..n, lie within space, do not overlap (total area is
+     * area of space) and contain random points of space
+     */
+    private static void assertCovers(List<Tile> tiles){
+	assertTrue(tiles.size() > 0);
+	final HashSet<Long> ids = new HashSet<Long>();
+	double area = 0;
+	for (Tile t : tiles){
+	    assertTrue(t.tileID >= 1 && t.tileID <= tiles.size());
+	    assertTrue(ids.add(t.tileID));
+	    assertWithinSpace(t);
+	    area += (t.maxX - t.minX) * (t.maxY - t.minY);
+	}
+	final double spaceArea = (MAX_X - MIN_X) * (MAX_Y - MIN_Y);
+	assertEquals(spaceArea, area, spaceArea * EPSILON);
+	final Random random = new Random(7);
+	for (int i=0; i<1000; ++i){
+	    final double x = MIN_X + random.nextDouble() * (MAX_X - MIN_X);
+	    final double y = MIN_Y + random.nextDouble() * (MAX_Y - MIN_Y);
+	    boolean covered = false;
+	    for (Tile t : tiles)
+		covered |= contains(t, x, y);
+	    assertTrue("(" + x + ", " + y + ") not covered", covered);
+	}
+    }
+
+    private static void assertWithinSpace(Tile t){
+	assertTrue(t.minX >= MIN_X - EPSILON && t.maxX <= MAX_X + EPSILON);
+	assertTrue(t.minY >= MIN_Y - EPSILON && t.maxY <= MAX_Y + EPSILON);
+	assertTrue(t.minX <= t.maxX && t.minY <= t.maxY);
+    }
+
+    private static boolean contains(Tile t, double x, double y){
+	return x >= t.minX - EPSILON && x <= t.maxX + EPSILON && y >= t.minY - EPSILON && y <= t.maxY + EPSILON;
+    }
+
+    /**
+     * Skewed sample: half of the objects in a small cluster
+     */
+    private static List<Tile> sample(){
+	final Random random = new Random(42);
+	final List<Tile> sample = new ArrayList<Tile>();
+	for (int i=0; i<2000; ++i){
+	    final boolean cluster = (i % 2 == 0);
+	    final double x = cluster ? 100 + random.nextDouble() * 50 : random.nextDouble() * (MAX_X - 5);
+	    final double y = cluster ? 300 + random.nextDouble() * 50 : random.nextDouble() * (MAX_Y - 5);
+	    Tile t = new Tile();
+	    t.minX = x;
+	    t.minY = y;
+	    t.maxX = x + random.nextDouble() * 5;
+	    t.maxY = y + random.nextDouble() * 5;
+	    sample.add(t);
+	}
+	return sample;
+    }
+}
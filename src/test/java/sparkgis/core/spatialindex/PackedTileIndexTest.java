@@ -0,0 +1,94 @@
+package sparkgis.core.spatialindex;
+/* Java imports */
+import java.util.List;
+import java.util.Random;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+/* JUnit imports */
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+/* Local imports */
+import sparkgis.data.Tile;
+
+public class PackedTileIndexTest
+{
+    @Test
+    public void queriesMatchBruteForce(){
+	final Random random = new Random(42);
+	/* more than one level of internal nodes */
+	final List<Tile> tiles = new ArrayList<Tile>();
+	for (int i=0; i<1000; ++i){
+	    final double x = random.nextDouble() * 1000;
+	    final double y = random.nextDouble() * 1000;
+	    tiles.add(tile(i+1, x, y, x + random.nextDouble() * 50, y + random.nextDouble() * 50));
+	}
+	final PackedTileIndex index = new PackedTileIndex(tiles);
+	assertEquals(tiles.size(), index.getTileCount());
+
+	final long[] out = new long[tiles.size()];
+	for (int q=0; q<200; ++q){
+	    final double x = random.nextDouble() * 1000;
+	    final double y = random.nextDouble() * 1000;
+	    final double w = random.nextDouble() * 100;
+	    final double h = random.nextDouble() * 100;
+	    final int count = index.query(x, y, x + w, y + h, out);
+	    final long[] found = new long[count];
+	    System.arraycopy(out, 0, found, 0, count);
+	    Arrays.sort(found);
+	    assertArrayEquals(bruteForce(tiles, x, y, x + w, y + h), found);
+	}
+    }
+
+    @Test
+    public void boundariesAreInclusive(){
+	final List<Tile> tiles = new ArrayList<Tile>();
+	tiles.add(tile(1, 0, 0, 1, 1));
+	tiles.add(tile(2, 1, 0, 2, 1));
+	final PackedTileIndex index = new PackedTileIndex(tiles);
+	final long[] out = new long[2];
+	assertEquals(2, index.query(1, 0.5, 1, 0.5, out));
+	assertEquals(1, index.query(1.5, 0.5, 3, 3, out));
+	assertEquals(2, out[0]);
+	assertEquals(0, index.query(2.5, 0.5, 3, 3, out));
+    }
+
+    @Test
+    public void reportsCountBeyondOutput(){
+	final List<Tile> tiles = new ArrayList<Tile>();
+	for (int i=0; i<40; ++i)
+	    tiles.add(tile(i+1, i, 0, i+1, 1));
+	final PackedTileIndex index = new PackedTileIndex(tiles);
+	assertEquals(40, index.query(0, 0, 40, 1, new long[4]));
+    }
+
+    @Test
+    public void emptyIndex(){
+	final PackedTileIndex index = new PackedTileIndex(Collections.<Tile>emptyList());
+	assertEquals(0, index.query(0, 0, 1, 1, new long[1]));
+    }
+
+    private static long[] bruteForce(List<Tile> tiles, double minX, double minY, double maxX, double maxY){
+	final List<Long> ids = new ArrayList<Long>();
+	for (Tile t : tiles){
+	    if (!(t.minX > maxX || t.minY > maxY || t.maxX < minX || t.maxY < minY))
+		ids.add(t.tileID);
+	}
+	final long[] ret = new long[ids.size()];
+	for (int i=0; i<ret.length; ++i)
+	    ret[i] = ids.get(i);
+	Arrays.sort(ret);
+	return ret;
+    }
+
+    static Tile tile(long id, double minX, double minY, double maxX, double maxY){
+	Tile t = new Tile();
+	t.tileID = id;
+	t.minX = minX;
+	t.minY = minY;
+	t.maxX = maxX;
+	t.maxY = maxY;
+	return t;
+    }
+}
@@ -0,0 +1,98 @@
+package sparkgis.data;
+/* JUnit imports */
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+/* JTS imports */
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.ByteOrderValues;
+
+public class EnvelopeScannerTest
+{
+    private static final String[] GEOMETRIES = {
+	"POINT (1.5 -2.25)",
+	"LINESTRING (0 0, 10 5, -3 7.125)",
+	"POLYGON ((0 0, 4 0, 4 3, 0 3, 0 0), (1 1, 2 1, 2 2, 1 1))",
+	"MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((10 10, 12 10, 12 15, 10 10)))",
+	"GEOMETRYCOLLECTION (POINT (-5 -5), LINESTRING (1 2, 3 4))",
+	"POLYGON ((1e2 2.5E-1, 300 2.5e-1, 300 400, 1e2 2.5E-1))"
+    };
+
+    @Test
+    public void parseDoubleMatchesJava(){
+	final String[] numbers = {
+	    "0", "-0", "1", "-1", "+7", "3.25", "-.5", "5.", "0.1", "123456789.123456",
+	    "1e3", "1E-3", "-2.5e+10", "0.000001", "1234567890123456789", "9.999999999999999e22"
+	};
+	for (String s : numbers)
+	    assertEquals(s, Double.parseDouble(s), EnvelopeScanner.parseDouble(s, 0, s.length()), 0);
+    }
+
+    @Test
+    public void parseDoubleWithinString(){
+	final String s = "x-12.75y";
+	assertEquals(-12.75, EnvelopeScanner.parseDouble(s, 1, 7), 0);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseDoubleRejectsBareSign(){
+	EnvelopeScanner.parseDouble("-", 0, 1);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseDoubleRejectsBarePoint(){
+	EnvelopeScanner.parseDouble(".", 0, 1);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseDoubleRejectsSignedPoint(){
+	EnvelopeScanner.parseDouble("-.", 0, 2);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseDoubleRejectsEmptyExponent(){
+	EnvelopeScanner.parseDouble("1e-", 0, 3);
+    }
+
+    @Test
+    public void scanWKTMatchesJTS() throws Exception{
+	final double[] env = new double[4];
+	for (String wkt : GEOMETRIES){
+	    assertTrue(wkt, EnvelopeScanner.scanWKT(wkt, env));
+	    assertArrayEquals(wkt, envelope(new WKTReader().read(wkt)), env, 0);
+	}
+    }
+
+    @Test
+    public void scanWKBMatchesJTS() throws Exception{
+	final double[] env = new double[4];
+	for (String wkt : GEOMETRIES){
+	    final Geometry g = new WKTReader().read(wkt);
+	    assertTrue(wkt, EnvelopeScanner.scanWKB(new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN).write(g), env));
+	    assertArrayEquals(wkt, envelope(g), env, 0);
+	    assertTrue(wkt, EnvelopeScanner.scanWKB(new WKBWriter(2, ByteOrderValues.BIG_ENDIAN).write(g), env));
+	    assertArrayEquals(wkt, envelope(g), env, 0);
+	}
+    }
+
+    @Test
+    public void scanRejectsEmptyAndMalformed(){
+	final double[] env = new double[4];
+	assertFalse(EnvelopeScanner.scanWKT("POLYGON EMPTY", env));
+	assertFalse(EnvelopeScanner.scanWKT("POLYGON ((0 0, 1 -, 1 1, 0 0))", env));
+	assertFalse(EnvelopeScanner.scanWKT("POLYGON ((0 0, 1 ., 1 1, 0 0))", env));
+	assertFalse(EnvelopeScanner.scanWKT("POLYGON ((0 0, 1 0; 1 1, 0 0))", env));
+	assertFalse(EnvelopeScanner.scanWKB(new byte[]{1, 3, 0, 0, 0, 1}, env));
+	assertEquals(null, EnvelopeScanner.getMBB("not a geometry"));
+    }
+
+    private static double[] envelope(Geometry g){
+	final Envelope e = g.getEnvelopeInternal();
+	return new double[]{e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY()};
+    }
+}
@@ -0,0 +1,74 @@
+package sparkgis.data;
+/* JUnit imports */
+import org.junit.Test;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+/* JTS imports */
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.ByteOrderValues;
+
+public class WKBFormatterTest
+{
+    private static final String[] GEOMETRIES = {
+	"POINT (1.5 -2.25)",
+	"LINESTRING (0 0, 10 5, -3 7.125)",
+	"POLYGON ((0 0, 4 0, 4 3, 0 3, 0 0), (1 1, 2 1, 2 2, 1 1))",
+	"MULTIPOINT ((1 2), (3 4))",
+	"MULTILINESTRING ((0 0, 1 1), (2 2, 3 5))",
+	"MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((10 10, 12 10, 12 15, 10 10)))",
+	"GEOMETRYCOLLECTION (POINT (-5 -5), LINESTRING (1 2, 3 4))",
+	"POLYGON ((0.1 0.2, 123456.789 0.2, 123456.789 1e-7, 0.1 0.2))",
+	"POLYGON EMPTY",
+	"MULTIPOLYGON EMPTY"
+    };
+
+    @Test
+    public void roundTripLittleEndian() throws Exception{
+	roundTrip(new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN));
+    }
+
+    @Test
+    public void roundTripBigEndian() throws Exception{
+	roundTrip(new WKBWriter(2, ByteOrderValues.BIG_ENDIAN));
+    }
+
+    @Test
+    public void roundTripWithSRID() throws Exception{
+	roundTrip(new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN, true));
+    }
+
+    @Test
+    public void dropsZ() throws Exception{
+	final Geometry g = new WKTReader().read("LINESTRING (1 2 3, 4 5 6)");
+	final String wkt = WKBFormatter.toWKT(new WKBWriter(3, ByteOrderValues.LITTLE_ENDIAN).write(g));
+	assertTrue(wkt, new WKTReader().read("LINESTRING (1 2, 4 5)").equalsExact(new WKTReader().read(wkt)));
+    }
+
+    @Test
+    public void integralOrdinatesWithoutFraction() throws Exception{
+	final Geometry g = new WKTReader().read("POINT (3 -4)");
+	assertEquals("POINT (3 -4)", WKBFormatter.toWKT(new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN).write(g)));
+    }
+
+    @Test
+    public void truncatedBytes(){
+	assertNull(WKBFormatter.toWKT(new byte[]{1, 2, 0, 0, 0, 5, 0, 0, 0}));
+    }
+
+    private static void roundTrip(WKBWriter writer) throws Exception{
+	final WKTReader reader = new WKTReader();
+	for (String wkt : GEOMETRIES){
+	    final Geometry g = reader.read(wkt);
+	    g.setSRID(4326);
+	    final String formatted = WKBFormatter.toWKT(writer.write(g));
+	    final Geometry parsed = reader.read(formatted);
+	    if (g.isEmpty())
+		assertTrue(formatted, parsed.isEmpty());
+	    else
+		assertTrue(wkt + " -> " + formatted, g.equalsExact(parsed));
+	}
+    }
+}